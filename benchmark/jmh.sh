@@ -0,0 +1,31 @@
+#!/bin/sh
+# Copyright (C) 2014 Tampere University of Technology
+#
+# JMH benchmarks of the cue engine on a desktop JVM
+# Builds the benchmarks in benchmark/src against the app's compiled classes,
+# with the Log stand-in ahead of android.jar, and runs them. Arguments are
+# passed on to JMH, e.g. a benchmark regex or -p poolSize=10,100.
+# Needs:
+#   APP_CLASSES  the app's compiled classes (bin/classes)
+#   ANDROID_JAR  android.jar of the target platform
+#   JMH_LIBS     jmh-core, jmh-generator-annprocess, jopt-simple and
+#                commons-math3 jars, plus an org.json jar, ':'-separated
+# Usage: benchmark/jmh.sh [jmh options]
+# Baseline results are in benchmark/results.
+
+cd "$(dirname "$0")/.." || exit 1
+APP_CLASSES=${APP_CLASSES:-bin/classes}
+OUT=benchmark/bin
+
+if [ -z "$ANDROID_JAR" ] || [ -z "$JMH_LIBS" ]; then
+	echo "ANDROID_JAR and JMH_LIBS have to be set" >&2
+	exit 1
+fi
+
+CP=$OUT:$JMH_LIBS:$APP_CLASSES:$ANDROID_JAR
+rm -rf $OUT && mkdir -p $OUT
+javac -nowarn -cp "$CP" -d $OUT \
+	benchmark/src/android/util/Log.java \
+	benchmark/src/com/wantedbug/cuesense/BenchmarkCues.java \
+	benchmark/src/com/wantedbug/cuesense/*Benchmark.java || exit 1
+java -cp "$CP" org.openjdk.jmh.Main "$@"
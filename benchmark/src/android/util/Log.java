@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package android.util;
+
+/**
+ * Desktop JVM stand-in for android.util.Log used by the benchmarks
+ * @author vikasprabhu
+ * Drops everything, so that the app classes can run outside Android
+ * without logging skewing the measurements. It has to come before
+ * android.jar on the classpath.
+ */
+public final class Log {
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private Log() { }
+
+	public static int v(String tag, String msg) { return 0; }
+	public static int v(String tag, String msg, Throwable tr) { return 0; }
+	public static int d(String tag, String msg) { return 0; }
+	public static int d(String tag, String msg, Throwable tr) { return 0; }
+	public static int i(String tag, String msg) { return 0; }
+	public static int i(String tag, String msg, Throwable tr) { return 0; }
+	public static int w(String tag, String msg) { return 0; }
+	public static int w(String tag, String msg, Throwable tr) { return 0; }
+	public static int w(String tag, Throwable tr) { return 0; }
+	public static int e(String tag, String msg) { return 0; }
+	public static int e(String tag, String msg, Throwable tr) { return 0; }
+	public static boolean isLoggable(String tag, int level) { return false; }
+}
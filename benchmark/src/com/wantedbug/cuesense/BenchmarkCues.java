@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.wantedbug.cuesense.MainActivity.InfoType;
+
+/**
+ * Synthetic cues and pools shared by the JMH benchmarks
+ * @author vikasprabhu
+ * Cue lengths follow what the app gets from each source: short Facebook
+ * page and profile cues, tweet-length Twitter cues and sentence-length cues
+ * typed by the user. Everything is seeded, so runs are comparable.
+ */
+final class BenchmarkCues {
+	/**
+	 * Constants
+	 */
+	// Min and max cue lengths per source
+	private static final int FACEBOOK_MIN = 5, FACEBOOK_MAX = 40;
+	private static final int TWITTER_MIN = 40, TWITTER_MAX = 140;
+	private static final int CUESENSE_MIN = 10, CUESENSE_MAX = 60;
+	private static final String[] WORDS = {
+		"jazz", "hiking", "python", "android", "coffee", "football", "sushi", "photo",
+		"chess", "cycling", "learning", "startup", "yoga", "fiction", "travel", "games",
+		"open", "source", "climbing", "wine", "robots", "poetry", "sailing", "metal",
+		"design", "stars", "cooking", "running", "film", "tennis", "economics", "music",
+		"the", "and", "of", "new", "love", "best", "today", "city"
+	};
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private BenchmarkCues() { }
+
+	/**
+	 * Returns cues of mixed sources, about half Facebook, a quarter each
+	 * Twitter and CueSense
+	 * @param random
+	 * @param count
+	 * @param checkedRatio fraction of cues that are checked
+	 * @return
+	 */
+	static List<CueItem> cues(Random random, int count, double checkedRatio) {
+		List<CueItem> cues = new ArrayList<CueItem>(count);
+		for(int i = 0; i < count; ++i) {
+			InfoType type;
+			switch(i % 4) {
+			case 0: type = InfoType.INFO_CUESENSE; break;
+			case 1: type = InfoType.INFO_TWITTER; break;
+			default: type = InfoType.INFO_FACEBOOK; break;
+			}
+			cues.add(new CueItem(i, type, text(random, type), random.nextDouble() < checkedRatio));
+		}
+		return cues;
+	}
+
+	/**
+	 * Returns the text of a cue from the specified source
+	 * @param random
+	 * @param type
+	 * @return
+	 */
+	static String text(Random random, InfoType type) {
+		switch(type) {
+		case INFO_FACEBOOK: return text(random, FACEBOOK_MIN, FACEBOOK_MAX);
+		case INFO_TWITTER: return text(random, TWITTER_MIN, TWITTER_MAX);
+		default: return text(random, CUESENSE_MIN, CUESENSE_MAX);
+		}
+	}
+
+	private static String text(Random random, int min, int max) {
+		int length = min + random.nextInt(max - min + 1);
+		StringBuilder builder = new StringBuilder(length + 16);
+		while(builder.length() < length) {
+			if(builder.length() > 0) builder.append(' ');
+			builder.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		builder.setLength(length);
+		return builder.toString();
+	}
+
+	/**
+	 * Returns a pool filled with the specified cues
+	 * Note: CueSense cues go in as loaded from the database, not as new ones,
+	 * so that getNext() doesn't move them around while it's measured
+	 * @param cues
+	 * @return
+	 */
+	static InfoPool pool(List<CueItem> cues) {
+		InfoPool pool = new InfoPool();
+		pool.addCueItems(cues);
+		return pool;
+	}
+
+	/**
+	 * Returns the payload a peer with the specified cues would send
+	 * @param random
+	 * @param count
+	 * @param distanceRange
+	 * @return
+	 */
+	static String payload(Random random, int count, int distanceRange) {
+		return pool(cues(random, count, 1.0)).getData(distanceRange).toString();
+	}
+}
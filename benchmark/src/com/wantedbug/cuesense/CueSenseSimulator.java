@@ -0,0 +1,701 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.wantedbug.cuesense.MainActivity.InfoType;
+
+/**
+ * Headless simulation of many CueSense users exchanging cues in a hall
+ * @author vikasprabhu
+ * Every virtual user has its own InfoPool and the exchanges go through the
+ * same steps as in BluetoothManager.PairedUserConnectedThread. That means
+ * getData(), compression on the way out, decompression and fixRawData() on
+ * the way in, and matchData() on both sides, over an in-process transport
+ * instead of RFCOMM sockets. Discovery follows MainActivity and
+ * PeerRegistry, whose constants it uses: scans every SCAN_INTERVAL_MS, RSSI
+ * bands, one connection at a time and a per-peer cooldown.
+ * Users move by random waypoint unless a mobility trace is given. RSSI comes
+ * from a log-distance path loss model unless an RSSI trace is given.
+ * Reports exchanges per second, bytes on the wire, latency from the
+ * encounter to the match, and CPU and allocation per exchange.
+ * The latency is the simulated time from two users coming into range to
+ * their exchange, plus the measured time of the exchange and matching.
+ * Runs on a desktop JVM against the app's compiled classes, with the Log
+ * stand-in from benchmark/src and an org.json jar ahead of android.jar,
+ * whose org.json is only stubs. JSON_JAR is that jar and TWITTER4J_JAR the
+ * twitter4j-core jar the app is built with:
+ *   javac -cp bin/classes:$ANDROID_JAR -d benchmark/bin \
+ *       benchmark/src/android/util/Log.java \
+ *       benchmark/src/com/wantedbug/cuesense/CueSenseSimulator.java
+ *   java -cp benchmark/bin:bin/classes:$JSON_JAR:$TWITTER4J_JAR:$ANDROID_JAR \
+ *       com.wantedbug.cuesense.CueSenseSimulator --users 300 --minutes 30
+ * Options:
+ *   --users N         number of virtual users (200)
+ *   --minutes M       simulated time (30)
+ *   --hall WxH        hall size in metres (40x30)
+ *   --cues-per-user C synthetic cues per user (40)
+ *   --seed S          random seed (42)
+ *   --cues FILE       recorded cue sets, lines of "user<TAB>type<TAB>text"
+ *                     with type one of cuesense, facebook, twitter
+ *   --trace FILE      mobility trace, lines of "seconds user x y"
+ *   --rssi FILE       RSSI trace, lines of "seconds userA userB rssi"
+ */
+public class CueSenseSimulator {
+	/**
+	 * Constants
+	 */
+	// Simulation step
+	private static final long STEP_MS = 1000;
+	// Path loss model: RSSI at 1m, exponent and shadowing deviation in dB
+	private static final double RSSI_AT_1M = -50;
+	private static final double PATH_LOSS_EXPONENT = 3.0;
+	private static final double SHADOWING_DB = 4.0;
+	// Walking speeds in m/s and max pause at a waypoint
+	private static final double MIN_SPEED = 0.3;
+	private static final double MAX_SPEED = 1.4;
+	private static final long MAX_PAUSE_MS = 60 * 1000;
+	// Time to wait for the matching started in a step
+	private static final long MATCH_TIMEOUT_MS = 10 * 1000;
+	// Words the synthetic cues are made of
+	private static final String[] TOPIC_WORDS = {
+		"jazz", "hiking", "python", "android", "coffee", "football", "sushi", "photography",
+		"chess", "cycling", "machine learning", "startups", "yoga", "science fiction", "travel",
+		"indie games", "open source", "climbing", "wine", "robotics", "poetry", "sailing",
+		"metal music", "design", "astronomy", "cooking", "running", "film noir", "tennis", "economics"
+	};
+	private static final String[] CONTEXT_WORDS = {
+		"I love", "Big fan of", "Into", "Learning", "Reading about", "Talking about",
+		"Working on", "Always up for", "Looking for people into", "Ask me about"
+	};
+
+	/**
+	 * Members
+	 */
+	private final Options mOptions;
+	private final Random mRandom;
+	private final User[] mUsers;
+	// Per pair of users, indexed by pairIndex()
+	private final int[] mBand;
+	private final long[] mInRangeSince;
+	private final long[] mLastSeen;
+	private final int[] mExchangedBand;
+	private final long[] mCooldownUntil;
+	private final boolean[] mEncounterServed;
+	// Scripted RSSI per pair, if any
+	private final Map<Integer, long[][]> mRssiTrace;
+	// Results
+	private long mExchanges = 0;
+	private long mEncountersStarted = 0;
+	private long mEncounters = 0;
+	private long mEmptyPayloads = 0;
+	private long mLostMatches = 0;
+	private long mRawBytes = 0;
+	private long mWireBytes = 0;
+	private long mMatchedCues = 0;
+	private long mProcessingNanos = 0;
+	private final List<Long> mLatenciesMs = new ArrayList<Long>();
+	private final List<Long> mProcessingMs = new ArrayList<Long>();
+	private final AtomicLong mCpuNanos = new AtomicLong();
+	private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		Options options = Options.parse(args);
+		CueSenseSimulator simulator = new CueSenseSimulator(options);
+		simulator.run();
+		simulator.report();
+		System.exit(0);
+	}
+
+	CueSenseSimulator(Options options) throws IOException {
+		mOptions = options;
+		mRandom = new Random(options.mSeed);
+		int n = options.mUsers;
+		mUsers = new User[n];
+		List<List<CueItem>> recorded = options.mCuesFile != null ?
+				readCues(options.mCuesFile) : new ArrayList<List<CueItem>>();
+		Map<Integer, long[][]> mobility = options.mTraceFile != null ?
+				readTrace(options.mTraceFile, 2) : new HashMap<Integer, long[][]>();
+		for(int i = 0; i < n; ++i) {
+			List<CueItem> cues = recorded.isEmpty() ?
+					syntheticCues(options.mCuesPerUser) : recorded.get(i % recorded.size());
+			mUsers[i] = new User(i, cues, mobility.get(i));
+		}
+		int pairs = n * (n - 1) / 2;
+		mBand = new int[pairs];
+		mInRangeSince = new long[pairs];
+		mLastSeen = new long[pairs];
+		mExchangedBand = new int[pairs];
+		mCooldownUntil = new long[pairs];
+		mEncounterServed = new boolean[pairs];
+		Arrays.fill(mBand, MainActivity.DISTANCE_OUTOFRANGE);
+		Arrays.fill(mInRangeSince, -1);
+		Arrays.fill(mExchangedBand, MainActivity.DISTANCE_OUTOFRANGE);
+		mRssiTrace = options.mRssiFile != null ?
+				readTrace(options.mRssiFile, 1) : new HashMap<Integer, long[][]>();
+	}
+
+	/**
+	 * Runs the simulation
+	 */
+	void run() throws InterruptedException, IOException {
+		long end = mOptions.mMinutes * 60 * 1000L;
+		for(long now = 0; now < end; now += STEP_MS) {
+			for(User user : mUsers) user.move(now);
+			updateBands(now);
+			List<int[]> exchanges = pickExchanges(now);
+			if(!exchanges.isEmpty()) exchange(exchanges, now);
+		}
+	}
+
+	/**
+	 * Updates the RSSI band of every pair and tracks encounters
+	 */
+	private void updateBands(long now) {
+		int n = mUsers.length;
+		for(int i = 0; i < n; ++i) {
+			for(int j = i + 1; j < n; ++j) {
+				int pair = pairIndex(i, j);
+				int band = bandOf(rssi(i, j, pair, now));
+				if(band != MainActivity.DISTANCE_OUTOFRANGE) {
+					if(mInRangeSince[pair] < 0) {
+						// New encounter with a peer that was never seen or was forgotten
+						mInRangeSince[pair] = now;
+						mEncounterServed[pair] = false;
+						mExchangedBand[pair] = MainActivity.DISTANCE_OUTOFRANGE;
+						++mEncountersStarted;
+					}
+					mLastSeen[pair] = now;
+				} else if(mInRangeSince[pair] >= 0 && now - mLastSeen[pair] > PeerRegistry.PEER_TTL_MS) {
+					// The encounter ends when PeerRegistry would forget the peer
+					mInRangeSince[pair] = -1;
+				}
+				mBand[pair] = band;
+			}
+		}
+	}
+
+	/**
+	 * Returns the pairs that exchange in this step
+	 * Users whose scan ends now connect to the strongest peer that
+	 * PeerRegistry would allow. A user takes part in one exchange at a time.
+	 */
+	private List<int[]> pickExchanges(long now) {
+		List<int[]> exchanges = new ArrayList<int[]>();
+		boolean[] busy = new boolean[mUsers.length];
+		for(User user : mUsers) {
+			int i = user.mIndex;
+			if(busy[i] || (now + user.mScanPhase) % MainActivity.SCAN_INTERVAL_MS != 0) continue;
+			int best = -1;
+			int bestBand = MainActivity.DISTANCE_OUTOFRANGE;
+			for(int j = 0; j < mUsers.length; ++j) {
+				if(j == i || busy[j]) continue;
+				int pair = pairIndex(i, j);
+				int band = mBand[pair];
+				if(band == MainActivity.DISTANCE_OUTOFRANGE || now < mCooldownUntil[pair] ||
+						band == mExchangedBand[pair]) continue;
+				if(best < 0 || band < bestBand) {
+					best = j;
+					bestBand = band;
+				}
+			}
+			if(best < 0) continue;
+			int pair = pairIndex(i, best);
+			mExchangedBand[pair] = bestBand;
+			mCooldownUntil[pair] = now + PeerRegistry.PEER_COOLDOWN_MS;
+			busy[i] = true;
+			busy[best] = true;
+			exchanges.add(new int[] { i, best, bestBand });
+		}
+		return exchanges;
+	}
+
+	/**
+	 * Runs the exchanges of a step and waits for their matching to finish
+	 */
+	private void exchange(List<int[]> exchanges, long now) throws InterruptedException, IOException {
+		CountDownLatch matches = new CountDownLatch(2 * exchanges.size());
+		long stepStart = System.nanoTime();
+		List<Exchange> started = new ArrayList<Exchange>(exchanges.size());
+		for(int[] e : exchanges) {
+			long cpu = ThreadCost.cpuNanos();
+			long allocated = ThreadCost.allocatedBytes();
+			Exchange exchange = new Exchange(mUsers[e[0]], mUsers[e[1]], e[2], matches);
+			exchange.run();
+			mCpuNanos.addAndGet(ThreadCost.cpuNanos() - cpu);
+			mAllocatedBytes.addAndGet(ThreadCost.allocatedBytes() - allocated);
+			// Sides that didn't get a payload don't match
+			for(int i = exchange.mMatchesStarted; i < 2; ++i) matches.countDown();
+			started.add(exchange);
+		}
+		if(!matches.await(MATCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+			mLostMatches += matches.getCount();
+		}
+		mProcessingNanos += System.nanoTime() - stepStart;
+
+		for(Exchange exchange : started) {
+			++mExchanges;
+			mRawBytes += exchange.mRawBytes;
+			mWireBytes += exchange.mWireBytes;
+			mEmptyPayloads += 2 - exchange.mMatchesStarted;
+			mMatchedCues += exchange.mInitiator.mPool.lastMatchedCueCount() +
+					exchange.mResponder.mPool.lastMatchedCueCount();
+			long done = Math.max(exchange.mInitiator.mMatchedAt, exchange.mResponder.mMatchedAt);
+			long processingMs = Math.max(0, done - exchange.mStartedAt) / 1000000;
+			mProcessingMs.add(processingMs);
+			int pair = pairIndex(exchange.mInitiator.mIndex, exchange.mResponder.mIndex);
+			if(!mEncounterServed[pair] && mInRangeSince[pair] >= 0) {
+				mEncounterServed[pair] = true;
+				++mEncounters;
+				mLatenciesMs.add(now - mInRangeSince[pair] + processingMs);
+			}
+		}
+	}
+
+	/**
+	 * Prints the results
+	 */
+	void report() {
+		double wallS = mProcessingNanos / 1e9;
+		long exchanges = Math.max(1, mExchanges);
+		System.out.printf(Locale.US, "%d users, %d min simulated, hall %.0fx%.0f m%n",
+				mUsers.length, mOptions.mMinutes, mOptions.mWidth, mOptions.mHeight);
+		System.out.printf(Locale.US, "exchanges: %d (%.1f/s of processing), encounters: %d, served: %d%n",
+				mExchanges, mExchanges / Math.max(wallS, 1e-9), mEncountersStarted, mEncounters);
+		System.out.printf(Locale.US, "empty payloads: %d, lost matches: %d, matched cues/exchange: %.2f%n",
+				mEmptyPayloads, mLostMatches, mMatchedCues / (double) exchanges);
+		System.out.printf(Locale.US, "bytes on the wire: %d total, %d/exchange (%d before compression)%n",
+				mWireBytes, mWireBytes / exchanges, mRawBytes / exchanges);
+		printPercentiles("encounter to match (ms)", mLatenciesMs);
+		printPercentiles("  of which exchange and matching (ms)", mProcessingMs);
+		if(ThreadCost.isSupported()) {
+			System.out.printf(Locale.US, "cpu/exchange: %.1f us, allocated/exchange: %.1f KB%n",
+					mCpuNanos.get() / 1000.0 / exchanges, mAllocatedBytes.get() / 1024.0 / exchanges);
+		} else {
+			System.out.println("cpu/allocation per exchange: not supported by this JVM");
+		}
+	}
+
+	private static void printPercentiles(String name, List<Long> values) {
+		if(values.isEmpty()) {
+			System.out.println(name + ": none");
+			return;
+		}
+		long[] sorted = new long[values.size()];
+		for(int i = 0; i < sorted.length; ++i) sorted[i] = values.get(i);
+		Arrays.sort(sorted);
+		System.out.printf(Locale.US, "%s: p50 %d, p90 %d, p99 %d, max %d%n", name,
+				percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+				sorted[sorted.length - 1]);
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+	}
+
+	/**
+	 * Returns the RSSI between two users, scripted or from the path loss model
+	 */
+	private int rssi(int i, int j, int pair, long now) {
+		long[][] script = mRssiTrace.get(pair);
+		if(script != null) {
+			int value = (int) Trace.valueAt(script, now)[0];
+			if(value != 0) return value;
+		}
+		double dx = mUsers[i].mX - mUsers[j].mX;
+		double dy = mUsers[i].mY - mUsers[j].mY;
+		double distance = Math.max(0.1, Math.sqrt(dx * dx + dy * dy));
+		return (int) Math.round(RSSI_AT_1M - 10 * PATH_LOSS_EXPONENT * Math.log10(distance) +
+				mRandom.nextGaussian() * SHADOWING_DB);
+	}
+
+	/**
+	 * Converts RSSI to distance level as MainActivity does
+	 */
+	private static int bandOf(int rssi) {
+		rssi = Math.abs(rssi);
+		if(rssi <= MainActivity.BT_RSSI_NEAR) return MainActivity.DISTANCE_NEAR;
+		if(rssi <= MainActivity.BT_RSSI_FAR) return MainActivity.DISTANCE_FAR;
+		return MainActivity.DISTANCE_OUTOFRANGE;
+	}
+
+	/**
+	 * Index of an unordered pair of users in the per-pair arrays
+	 */
+	private int pairIndex(int i, int j) {
+		return pairIndexFor(i, j, mUsers.length);
+	}
+
+	/**
+	 * Returns a synthetic cue set drawn from a Zipf distribution over topics
+	 * so that popular topics are shared by many users
+	 * A few cues have a typo so that approximate matching is exercised too.
+	 */
+	private List<CueItem> syntheticCues(int count) {
+		List<CueItem> cues = new ArrayList<CueItem>(count);
+		int topics = TOPIC_WORDS.length * CONTEXT_WORDS.length;
+		for(int k = 0; k < count; ++k) {
+			int rank = zipf(topics);
+			String text = CONTEXT_WORDS[rank % CONTEXT_WORDS.length] + " " +
+					TOPIC_WORDS[rank / CONTEXT_WORDS.length];
+			if(mRandom.nextInt(10) == 0) {
+				char[] chars = text.toCharArray();
+				chars[mRandom.nextInt(chars.length)] = (char) ('a' + mRandom.nextInt(26));
+				text = new String(chars);
+			}
+			InfoType type = k % 4 == 0 ? InfoType.INFO_CUESENSE :
+					(k % 4 == 1 ? InfoType.INFO_TWITTER : InfoType.INFO_FACEBOOK);
+			cues.add(new CueItem(k, type, text, true));
+		}
+		return cues;
+	}
+
+	private int zipf(int n) {
+		// Inverse transform of a continuous approximation with exponent 1
+		double u = mRandom.nextDouble();
+		return Math.min(n - 1, (int) Math.floor(Math.pow(n + 1, u)) - 1);
+	}
+
+	/**
+	 * Reads recorded cue sets, one list per user in the file
+	 */
+	private static List<List<CueItem>> readCues(String file) throws IOException {
+		Map<String, List<CueItem>> byUser = new java.util.LinkedHashMap<String, List<CueItem>>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 3);
+				if(fields.length < 3 || line.startsWith("#")) continue;
+				InfoType type;
+				String name = fields[1].trim().toLowerCase(Locale.US);
+				if(name.contains("facebook")) type = InfoType.INFO_FACEBOOK;
+				else if(name.contains("twitter")) type = InfoType.INFO_TWITTER;
+				else type = InfoType.INFO_CUESENSE;
+				List<CueItem> cues = byUser.get(fields[0]);
+				if(cues == null) {
+					cues = new ArrayList<CueItem>();
+					byUser.put(fields[0], cues);
+				}
+				cues.add(new CueItem(cues.size(), type, fields[2], true));
+			}
+		} finally {
+			reader.close();
+		}
+		return new ArrayList<List<CueItem>>(byUser.values());
+	}
+
+	/**
+	 * Reads a trace of "seconds key... values..." lines into keyframes
+	 * @param values number of values per line after the keys
+	 * Mobility traces are keyed by user, RSSI traces by pair of users.
+	 */
+	private Map<Integer, long[][]> readTrace(String file, int values) throws IOException {
+		Map<Integer, List<long[]>> frames = new HashMap<Integer, List<long[]>>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				String[] fields = line.split("\\s+");
+				int keys = fields.length - 1 - values;
+				if(keys < 1 || keys > 2) throw new IOException("bad trace line: " + line);
+				int key = Integer.parseInt(fields[1]);
+				if(keys == 2) {
+					int other = Integer.parseInt(fields[2]);
+					if(key >= mOptions.mUsers || other >= mOptions.mUsers || key == other) continue;
+					key = pairIndexFor(key, other, mOptions.mUsers);
+				}
+				long[] frame = new long[1 + values];
+				frame[0] = (long) (Double.parseDouble(fields[0]) * 1000);
+				for(int v = 0; v < values; ++v) {
+					// Positions are kept in millimetres
+					double value = Double.parseDouble(fields[1 + keys + v]);
+					frame[1 + v] = values > 1 ? Math.round(value * 1000) : Math.round(value);
+				}
+				List<long[]> list = frames.get(key);
+				if(list == null) {
+					list = new ArrayList<long[]>();
+					frames.put(key, list);
+				}
+				list.add(frame);
+			}
+		} finally {
+			reader.close();
+		}
+		Map<Integer, long[][]> result = new HashMap<Integer, long[][]>();
+		for(Map.Entry<Integer, List<long[]>> entry : frames.entrySet()) {
+			long[][] sorted = entry.getValue().toArray(new long[0][]);
+			Arrays.sort(sorted, new java.util.Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b) { return a[0] < b[0] ? -1 : (a[0] > b[0] ? 1 : 0); }
+			});
+			result.put(entry.getKey(), sorted);
+		}
+		return result;
+	}
+
+	private static int pairIndexFor(int i, int j, int n) {
+		// Row i holds the pairs (i, i+1) to (i, n-1)
+		if(i > j) { int t = i; i = j; j = t; }
+		return i * (2 * n - i - 1) / 2 + (j - i - 1);
+	}
+
+	/**
+	 * A virtual user
+	 */
+	private class User implements InfoPool.MatchListener {
+		final int mIndex;
+		final InfoPool mPool = new InfoPool();
+		// Position in metres and current waypoint
+		double mX, mY;
+		private double mTargetX, mTargetY, mSpeed;
+		private long mPausedUntil = 0;
+		private long mLastMove = 0;
+		private final long[][] mTrace;
+		// Offset of this user's discovery scans
+		final long mScanPhase;
+		// Time the last matching started by an exchange was done, in nanos
+		volatile long mMatchedAt = 0;
+		// Latch of the step that started the matching
+		volatile CountDownLatch mMatchLatch = null;
+
+		User(int index, List<CueItem> cues, long[][] trace) {
+			mIndex = index;
+			mTrace = trace;
+			mScanPhase = (mRandom.nextInt((int) (MainActivity.SCAN_INTERVAL_MS / STEP_MS))) * STEP_MS;
+			mX = mRandom.nextDouble() * mOptions.mWidth;
+			mY = mRandom.nextDouble() * mOptions.mHeight;
+			pickWaypoint();
+			List<CueItem> social = new ArrayList<CueItem>();
+			for(CueItem cue : cues) {
+				CueItem copy = new CueItem(cue.id(), cue.type(), cue.data(), true);
+				if(cue.type() == InfoType.INFO_CUESENSE) mPool.addCueItem(copy);
+				else social.add(copy);
+			}
+			mPool.addCueItems(social);
+			mPool.setMatchListener(this);
+		}
+
+		void move(long now) {
+			if(mTrace != null) {
+				long[] position = Trace.valueAt(mTrace, now);
+				mX = position[0] / 1000.0;
+				mY = position[1] / 1000.0;
+				return;
+			}
+			double dt = (now - mLastMove) / 1000.0;
+			mLastMove = now;
+			if(now < mPausedUntil) return;
+			double dx = mTargetX - mX;
+			double dy = mTargetY - mY;
+			double distance = Math.sqrt(dx * dx + dy * dy);
+			double step = mSpeed * dt;
+			if(step >= distance) {
+				mX = mTargetX;
+				mY = mTargetY;
+				mPausedUntil = now + (long) (mRandom.nextDouble() * MAX_PAUSE_MS);
+				pickWaypoint();
+			} else {
+				mX += dx / distance * step;
+				mY += dy / distance * step;
+			}
+		}
+
+		private void pickWaypoint() {
+			mTargetX = mRandom.nextDouble() * mOptions.mWidth;
+			mTargetY = mRandom.nextDouble() * mOptions.mHeight;
+			mSpeed = MIN_SPEED + mRandom.nextDouble() * (MAX_SPEED - MIN_SPEED);
+		}
+
+		/**
+		 * Called on the matching thread
+		 */
+		@Override
+		public void onCuesMatched(int distanceRange) {
+			mMatchedAt = System.nanoTime();
+			mCpuNanos.addAndGet(ThreadCost.cpuNanos());
+			mAllocatedBytes.addAndGet(ThreadCost.allocatedBytes());
+			CountDownLatch latch = mMatchLatch;
+			if(latch != null) latch.countDown();
+		}
+	}
+
+	/**
+	 * One exchange over the in-process transport
+	 * Mirrors PairedUserConnectedThread: the initiator sends its data for the
+	 * band, the responder replies with its own for the distance it received,
+	 * and both sides match what they got.
+	 */
+	private static class Exchange {
+		final User mInitiator;
+		final User mResponder;
+		final int mBand;
+		final CountDownLatch mMatches;
+		long mStartedAt;
+		long mRawBytes = 0;
+		long mWireBytes = 0;
+		int mMatchesStarted = 0;
+
+		Exchange(User initiator, User responder, int band, CountDownLatch matches) {
+			mInitiator = initiator;
+			mResponder = responder;
+			mBand = band;
+			mMatches = matches;
+		}
+
+		void run() throws IOException {
+			mStartedAt = System.nanoTime();
+			// Initiator -> responder
+			String received = send(mInitiator.mPool.getData(mBand));
+			if(received == null) return;
+			int distance = mBand;
+			try {
+				JSONObject data = new JSONObject(mResponder.mPool.fixRawData(received));
+				distance = data.optInt(InfoPool.JSON_DISTANCE_NAME, mBand);
+			} catch(JSONException e) {
+				return;
+			}
+			// Responder -> initiator
+			String reply = send(mResponder.mPool.getData(distance));
+			match(mResponder, received);
+			if(reply != null) match(mInitiator, reply);
+		}
+
+		/**
+		 * Puts a payload through compression and decompression
+		 * @return the received string, null if there was nothing to send
+		 */
+		private String send(JSONObject payload) throws IOException {
+			if(payload == null) return null;
+			byte[] raw = payload.toString().getBytes("UTF-8");
+			byte[] wire = CompressionUtils.compress(raw);
+			mRawBytes += raw.length;
+			mWireBytes += wire.length;
+			try {
+				return new String(CompressionUtils.decompress(wire), "UTF-8");
+			} catch(java.util.zip.DataFormatException e) {
+				throw new IOException(e);
+			}
+		}
+
+		private void match(User user, String data) {
+			user.mMatchLatch = mMatches;
+			user.mMatchedAt = mStartedAt;
+			++mMatchesStarted;
+			user.mPool.matchData(data);
+		}
+	}
+
+	/**
+	 * Keyframe lookup for traces
+	 */
+	private static class Trace {
+		/**
+		 * Returns the values at a time: interpolated for positions, the last
+		 * frame at or before it for single values
+		 */
+		static long[] valueAt(long[][] frames, long now) {
+			int values = frames[0].length - 1;
+			long[] result = new long[values];
+			if(now < frames[0][0]) {
+				if(values == 1) return result;
+				System.arraycopy(frames[0], 1, result, 0, values);
+				return result;
+			}
+			int k = 0;
+			while(k + 1 < frames.length && frames[k + 1][0] <= now) ++k;
+			long[] a = frames[k];
+			if(values == 1 || k + 1 == frames.length) {
+				System.arraycopy(a, 1, result, 0, values);
+				return result;
+			}
+			long[] b = frames[k + 1];
+			double f = (now - a[0]) / (double) (b[0] - a[0]);
+			for(int v = 0; v < values; ++v) result[v] = Math.round(a[1 + v] + f * (b[1 + v] - a[1 + v]));
+			return result;
+		}
+	}
+
+	/**
+	 * CPU time and allocation of the current thread, where the JVM supports it
+	 */
+	private static class ThreadCost {
+		private static final ThreadMXBean sBean = ManagementFactory.getThreadMXBean();
+		private static final boolean sAllocation = sBean instanceof com.sun.management.ThreadMXBean &&
+				((com.sun.management.ThreadMXBean) sBean).isThreadAllocatedMemorySupported();
+
+		static boolean isSupported() {
+			return sAllocation && sBean.isCurrentThreadCpuTimeSupported();
+		}
+
+		static long cpuNanos() {
+			return isSupported() ? sBean.getCurrentThreadCpuTime() : 0;
+		}
+
+		static long allocatedBytes() {
+			return isSupported() ?
+					((com.sun.management.ThreadMXBean) sBean).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+		}
+	}
+
+	/**
+	 * Command line options
+	 */
+	static class Options {
+		int mUsers = 200;
+		int mMinutes = 30;
+		double mWidth = 40;
+		double mHeight = 30;
+		int mCuesPerUser = 40;
+		long mSeed = 42;
+		String mCuesFile = null;
+		String mTraceFile = null;
+		String mRssiFile = null;
+
+		static Options parse(String[] args) {
+			Options options = new Options();
+			for(int i = 0; i + 1 < args.length; i += 2) {
+				String value = args[i + 1];
+				if("--users".equals(args[i])) options.mUsers = Integer.parseInt(value);
+				else if("--minutes".equals(args[i])) options.mMinutes = Integer.parseInt(value);
+				else if("--cues-per-user".equals(args[i])) options.mCuesPerUser = Integer.parseInt(value);
+				else if("--seed".equals(args[i])) options.mSeed = Long.parseLong(value);
+				else if("--cues".equals(args[i])) options.mCuesFile = value;
+				else if("--trace".equals(args[i])) options.mTraceFile = value;
+				else if("--rssi".equals(args[i])) options.mRssiFile = value;
+				else if("--hall".equals(args[i])) {
+					String[] size = value.toLowerCase(Locale.US).split("x");
+					options.mWidth = Double.parseDouble(size[0]);
+					options.mHeight = Double.parseDouble(size[1]);
+				} else {
+					throw new IllegalArgumentException("unknown option " + args[i]);
+				}
+			}
+			if(options.mUsers < 2) throw new IllegalArgumentException("need at least 2 users");
+			return options;
+		}
+	}
+}
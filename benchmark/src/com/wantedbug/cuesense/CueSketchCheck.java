@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Check of how often the sketches of unrelated cues agree
+ * @author vikasprabhu
+ * Sketches random tweet-length strings and counts the rows that agree and the
+ * pairs that collide in an LSH band. Unrelated cues share almost no shingles,
+ * so rows should agree about 1/256 of the time, which is what
+ * CueSketch.similarity() corrects for, and hardly any pair should be an LSH
+ * candidate. Exits with 1 if either rate is off.
+ * Runs on a desktop JVM against the app's compiled classes:
+ *   javac -cp bin/classes:$ANDROID_JAR -d benchmark/bin \
+ *       benchmark/src/android/util/Log.java \
+ *       benchmark/src/com/wantedbug/cuesense/CueSketchCheck.java
+ *   java -cp benchmark/bin:bin/classes:$ANDROID_JAR com.wantedbug.cuesense.CueSketchCheck
+ */
+public class CueSketchCheck {
+	/**
+	 * Constants
+	 */
+	private static final int NUM_CUES = 2000;
+	private static final int MIN_LENGTH = 100, MAX_LENGTH = 140;
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789 ";
+	// Highest acceptable rates
+	private static final double MAX_ROW_AGREEMENT = 2 / 256.0;
+	private static final double MAX_CANDIDATE_PAIRS = 0.001;
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		byte[] sketches = new byte[NUM_CUES * CueSketch.ROWS];
+		for(int i = 0; i < NUM_CUES; ++i) {
+			int length = MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH + 1);
+			StringBuilder builder = new StringBuilder(length);
+			for(int j = 0; j < length; ++j) builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			System.arraycopy(CueSketch.of(builder.toString()), 0, sketches, i * CueSketch.ROWS, CueSketch.ROWS);
+		}
+
+		// Rows that agree, over all pairs
+		long agreeing = 0, rows = 0;
+		for(int i = 0; i < NUM_CUES; ++i) {
+			for(int j = i + 1; j < NUM_CUES; ++j) {
+				for(int k = 0; k < CueSketch.ROWS; ++k) {
+					if(sketches[i * CueSketch.ROWS + k] == sketches[j * CueSketch.ROWS + k]) ++agreeing;
+				}
+				rows += CueSketch.ROWS;
+			}
+		}
+		double rowAgreement = agreeing / (double) rows;
+
+		// Pairs that collide in a band, not counting a cue with itself
+		Map<Long, List<Integer>> buckets = CueSketch.buckets(sketches);
+		long candidatePairs = 0;
+		for(int i = 0; i < NUM_CUES; ++i) {
+			byte[] sketch = new byte[CueSketch.ROWS];
+			System.arraycopy(sketches, i * CueSketch.ROWS, sketch, 0, CueSketch.ROWS);
+			candidatePairs += CueSketch.candidates(buckets, sketch).size() - 1;
+		}
+		double candidateRate = candidatePairs / ((double) NUM_CUES * (NUM_CUES - 1));
+
+		System.out.println(String.format(Locale.US, "row agreement %.5f (max %.5f), candidate pairs %.5f (max %.5f)",
+				rowAgreement, MAX_ROW_AGREEMENT, candidateRate, MAX_CANDIDATE_PAIRS));
+		if(rowAgreement > MAX_ROW_AGREEMENT || candidateRate > MAX_CANDIDATE_PAIRS) {
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+}
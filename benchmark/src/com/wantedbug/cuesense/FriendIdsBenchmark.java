@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the friend id intersection in
+ * TwitterUtils.getCommonFollowingsTweets
+ * @author vikasprabhu
+ * Our ids are kept sorted, a peer's come straight from friends/ids, with
+ * 5% of the ids in common. The app stops after MAX_COMMON_FOLLOWINGS ids.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FriendIdsBenchmark {
+	/**
+	 * Constants
+	 */
+	// As in TwitterUtils
+	private static final int MAX_COMMON_FOLLOWINGS = 5;
+
+	/**
+	 * Members
+	 */
+	@Param({"500", "5000"})
+	int setSize;
+
+	private long[] mMySortedIds;
+	private long[] mPeerIds;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		int common = setSize / 20;
+		long[] ids = new long[2 * setSize - common];
+		for(int i = 0; i < ids.length; ++i) {
+			ids[i] = 1 + (random.nextLong() >>> 24) + i;
+		}
+		long[] mine = new long[setSize];
+		System.arraycopy(ids, 0, mine, 0, setSize);
+		mPeerIds = new long[setSize];
+		System.arraycopy(ids, setSize - common, mPeerIds, 0, setSize);
+		for(int i = mPeerIds.length - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			long t = mPeerIds[i]; mPeerIds[i] = mPeerIds[j]; mPeerIds[j] = t;
+		}
+		mMySortedIds = IdSets.toSortedSet(mine);
+	}
+
+	@Benchmark
+	public long[] intersectWithSorted() {
+		return IdSets.intersectWithSorted(mPeerIds, mMySortedIds, MAX_COMMON_FOLLOWINGS);
+	}
+
+	@Benchmark
+	public long[] intersectWithSortedAll() {
+		return IdSets.intersectWithSorted(mPeerIds, mMySortedIds, Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public long[] intersectHash() {
+		return IdSets.intersect(mPeerIds, mMySortedIds, MAX_COMMON_FOLLOWINGS);
+	}
+}
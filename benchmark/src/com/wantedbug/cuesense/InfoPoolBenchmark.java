@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the InfoPool calls made for display and exchange
+ * @author vikasprabhu
+ * getNext: picking the next cue to display, with a fraction of the cues
+ * unchecked by the user
+ * getData: building the near-range payload sent to a peer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InfoPoolBenchmark {
+	/**
+	 * Members
+	 */
+	@Param({"10", "100", "1000", "10000"})
+	int poolSize;
+
+	@Param({"1.0", "0.5", "0.1"})
+	double checkedRatio;
+
+	private InfoPool mPool;
+
+	@Setup
+	public void setUp() {
+		mPool = BenchmarkCues.pool(BenchmarkCues.cues(new Random(42), poolSize, checkedRatio));
+	}
+
+	@Benchmark
+	public CueItem getNext() {
+		return mPool.getNext();
+	}
+
+	@Benchmark
+	public JSONObject getData() {
+		return mPool.getData(MainActivity.DISTANCE_NEAR);
+	}
+}
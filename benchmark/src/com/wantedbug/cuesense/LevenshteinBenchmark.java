@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wantedbug.cuesense.MainActivity.InfoType;
+
+/**
+ * JMH benchmark of the edit distance computed for every pair of cues that
+ * aren't identical
+ * @author vikasprabhu
+ * Cycles through pairs of cues of the lengths the app sees, with sources
+ * weighted as in a pool: half Facebook, a quarter each Twitter and CueSense.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevenshteinBenchmark {
+	/**
+	 * Constants
+	 */
+	// Number of cue pairs cycled through, a power of 2
+	private static final int PAIRS = 1024;
+
+	/**
+	 * Members
+	 */
+	private String[] mLeft;
+	private String[] mRight;
+	private int mNext = 0;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		InfoType[] types = { InfoType.INFO_FACEBOOK, InfoType.INFO_FACEBOOK, InfoType.INFO_TWITTER, InfoType.INFO_CUESENSE };
+		mLeft = new String[PAIRS];
+		mRight = new String[PAIRS];
+		for(int i = 0; i < PAIRS; ++i) {
+			mLeft[i] = BenchmarkCues.text(random, types[random.nextInt(types.length)]);
+			mRight[i] = BenchmarkCues.text(random, types[random.nextInt(types.length)]);
+		}
+	}
+
+	@Benchmark
+	public int levenshtein() {
+		int i = mNext++ & (PAIRS - 1);
+		return InfoPool.computeLevenshteinDistance(mLeft[i], mRight[i]);
+	}
+}
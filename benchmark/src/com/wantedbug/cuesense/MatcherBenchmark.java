@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of a full MatchThread run for an exchange
+ * @author vikasprabhu
+ * Runs on the caller's thread: parsing a peer's near-range payload and
+ * matching it against our pool. See LevenshteinBenchmark for the distance
+ * alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+	/**
+	 * Constants
+	 */
+	// Number of cues in the peer's payload
+	private static final int PEER_CUES = 50;
+
+	/**
+	 * Members
+	 */
+	@Param({"10", "100", "1000", "10000"})
+	int poolSize;
+
+	private InfoPool mPool;
+	private String mPeerPayload;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		mPool = BenchmarkCues.pool(BenchmarkCues.cues(random, poolSize, 1.0));
+		mPeerPayload = BenchmarkCues.payload(random, PEER_CUES, MainActivity.DISTANCE_NEAR);
+	}
+
+	@Benchmark
+	public int match() {
+		mPool.matchDataNow(mPeerPayload);
+		return mPool.matchedCueCount();
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of what happens to a payload on its way between devices
+ * @author vikasprabhu
+ * compress/decompress: CompressionUtils on near-range payloads of pools of
+ * the specified size
+ * fixRawData: recovering a payload cut off by a dropped connection, either
+ * inside a cue's text or between cues (which needs more characters removed)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+	/**
+	 * Members
+	 */
+	@Param({"10", "100", "1000"})
+	int poolSize;
+
+	private byte[] mPayload;
+	private byte[] mCompressed;
+
+	/**
+	 * Payload cut off by a dropped connection, kept separate so that only
+	 * fixRawData runs for each kind of cut
+	 */
+	@State(Scope.Thread)
+	public static class Truncated {
+		@Param({"text", "between"})
+		String cut;
+
+		private InfoPool mPool;
+		private String mData;
+
+		@Setup
+		public void setUp(PayloadBenchmark benchmark) throws IOException {
+			mPool = new InfoPool();
+			String payload = new String(benchmark.mPayload, "UTF-8");
+			// Cut two thirds of the way in, inside the text of a cue or just
+			// after a cue's closing brace
+			int at = payload.indexOf("\"d\":\"", payload.length() * 2 / 3);
+			if(at < 0) at = payload.indexOf("\"d\":\"");
+			at = "text".equals(cut) ? at + 8 : payload.indexOf('}', at) + 2;
+			mData = payload.substring(0, Math.min(at, payload.length() - 1));
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		String payload = BenchmarkCues.payload(new Random(42), poolSize, MainActivity.DISTANCE_NEAR);
+		mPayload = payload.getBytes("UTF-8");
+		mCompressed = CompressionUtils.compress(mPayload);
+	}
+
+	@Benchmark
+	public byte[] compress() throws IOException {
+		return CompressionUtils.compress(mPayload);
+	}
+
+	@Benchmark
+	public byte[] decompress() throws IOException, DataFormatException {
+		return CompressionUtils.decompress(mCompressed);
+	}
+
+	@Benchmark
+	public String fixRawData(Truncated truncated) {
+		return truncated.mPool.fixRawData(truncated.mData);
+	}
+}
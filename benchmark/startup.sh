@@ -0,0 +1,52 @@
+#!/bin/sh
+# Copyright (C) 2014 Tampere University of Technology
+#
+# Startup benchmark of MainActivity on a connected device
+# Reports cold and warm time to first frame and time until ready to
+# exchange, as logged by StartupTracer, plus the ActivityManager's TotalTime
+# (which also counts process start for cold launches).
+#   Cold: process killed before each launch
+#   Warm: activity finished with BACK, process kept
+# Usage: benchmark/startup.sh [runs]
+
+RUNS=${1:-10}
+PKG=com.wantedbug.cuesense
+ACTIVITY=$PKG/.MainActivity
+
+# Launches the activity and waits for StartupTracer's ready line
+launch() {
+	adb logcat -c
+	TOTAL=$(adb shell am start -W -n $ACTIVITY | tr -d '\r' | sed -n 's/^TotalTime: //p')
+	for i in $(seq 1 30); do
+		LINE=$(adb logcat -d -s StartupTracer:I | tr -d '\r' | grep " ready ")
+		[ -n "$LINE" ] && break
+		sleep 1
+	done
+	if [ -z "$LINE" ]; then
+		echo "$1: not ready after 30s (is Bluetooth on?)" >&2
+		return
+	fi
+	# e.g. "I/StartupTracer( 1234): cold ready 812ms first frame 402ms"
+	echo "$LINE" | sed -n "s/.*\(cold\|warm\) ready \([0-9]*\)ms first frame \([0-9]*\)ms.*/\1 $TOTAL \3 \2/p"
+}
+
+report() {
+	awk -v type="$1" '$1 == type { n++; t += $2; f += $3; r += $4 }
+		END { if(n) printf "%s: %d runs, TotalTime %d ms, first frame %d ms, ready %d ms (means)\n",
+			type, n, t / n, f / n, r / n }'
+}
+
+RESULTS=$(mktemp)
+for i in $(seq 1 "$RUNS"); do
+	adb shell am force-stop $PKG
+	sleep 1
+	launch cold >> "$RESULTS"
+done
+for i in $(seq 1 "$RUNS"); do
+	adb shell input keyevent KEYCODE_BACK
+	sleep 1
+	launch warm >> "$RESULTS"
+done
+report cold < "$RESULTS"
+report warm < "$RESULTS"
+rm -f "$RESULTS"
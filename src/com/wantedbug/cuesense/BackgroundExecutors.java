@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+/**
+ * Holds the thread pools shared by the app's background work
+ * @author vikasprabhu
+ * The pools are bounded and their threads run at background priority so
+ * that network and parsing work never competes with the UI thread.
+ * Idle threads time out, so the pools cost nothing when the app is idle.
+ */
+public class BackgroundExecutors {
+	/**
+	 * Constants
+	 */
+	// Max number of concurrent network requests
+	private static final int NETWORK_THREADS = 5;
+	// Time after which an idle thread is stopped
+	private static final long KEEP_ALIVE_S = 30;
+
+	/**
+	 * Members
+	 */
+	// Pool for network requests
+	private static final ThreadPoolExecutor sNetwork = newPool("Network", NETWORK_THREADS);
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private BackgroundExecutors() { }
+
+	/**
+	 * Returns the pool for network requests
+	 * @return
+	 */
+	public static ExecutorService network() {
+		return sNetwork;
+	}
+
+	/**
+	 * Creates a pool of up to the specified number of background priority threads
+	 * @param name
+	 * @param threads
+	 * @return
+	 */
+	private static ThreadPoolExecutor newPool(final String name, int threads) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_S, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(1);
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, name + "Thread #" + mCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+}
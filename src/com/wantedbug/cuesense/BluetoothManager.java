@@ -340,7 +340,7 @@ public class BluetoothManager {
 		/**
 		 * Constants
 		 */
-		private static final String CMD_READY = "R";
+		private static final byte CMD_READY = 'R';
 		/**
 		 * Members
 		 */
@@ -386,9 +386,9 @@ public class BluetoothManager {
             while(true) {
             	try {
             		bytes = mInStream.read(buffer);
-            		String temp = new String(buffer, "UTF-8");
-            		Log.d(TAG, bytes + " " + temp);
-            		if(temp.equals(CMD_READY)) {
+            		boolean ready = bytes > 0 && buffer[0] == CMD_READY;
+            		EventLog.record(EventLog.Event.WEARABLE_READ, bytes, ready ? 1 : 0);
+            		if(ready) {
             			setDeviceReadyStatus(true);
             		}
             	} catch(IOException e) {
@@ -404,7 +404,7 @@ public class BluetoothManager {
          * @param buffer
          */
         public void write(byte[] buffer) {
-        	Log.d(TAG, "ConnectedThread::write()");
+        	EventLog.record(EventLog.Event.WEARABLE_WRITE, buffer.length, isDeviceReady() ? 1 : 0);
             try {
             	// Write only if the device is ready
                 if(isDeviceReady()) {
@@ -435,7 +435,8 @@ public class BluetoothManager {
 	// Name for the SDP record when creating server socket
     private static final String CUESENSE_SDP_SERVICE_NAME = "CueSenseAccept";
     // Unique UUID for this application
-    private static final UUID UUID_CUESENSE = UUID.fromString("e8a262fb-db2b-49da-8c7d-3199a30ba929");
+    // Note: also used to recognise other CueSense users from their SDP records
+    static final UUID UUID_CUESENSE = UUID.fromString("e8a262fb-db2b-49da-8c7d-3199a30ba929");
 
     /**
      * Members
@@ -444,7 +445,6 @@ public class BluetoothManager {
     private PairedUserConnectThread mPairedUserConnectThread;
     private PairedUserConnectedThread mPairedUserConnectedThread;
     private int mPairedUserState;
-    private JSONObject mSendData;
     
     
 	/**
@@ -500,11 +500,9 @@ public class BluetoothManager {
      */
     public synchronized void connectAndSend(BluetoothDevice device, JSONObject data) {
         Log.d(TAG, "connectAndSend " + device);
+        Metrics.count(Metrics.Counter.EXCHANGES_STARTED);
+        Metrics.onEncounterStarted();
 
-        // Cache data to be sent
-        mSendData = null;
-        mSendData = data;
-        
         // Cancel any thread attempting to make a connection
         if (mPairedUserState == STATE_CONNECTING) {
             if (mPairedUserConnectThread != null) {
@@ -520,7 +518,7 @@ public class BluetoothManager {
         }
 
         // Start the thread to connect with the given device
-        mPairedUserConnectThread = new PairedUserConnectThread(device);
+        mPairedUserConnectThread = new PairedUserConnectThread(device, data);
         mPairedUserConnectThread.start();
         setPairedUserState(STATE_CONNECTING);
     }
@@ -529,8 +527,10 @@ public class BluetoothManager {
      * Start the ConnectedThread to begin managing a Bluetooth connection
      * @param socket  The BluetoothSocket on which the connection was made
      * @param device  The BluetoothDevice that has been connected
+     * @param data  Data we send first if we initiated the connection, null if
+     * we accepted it and only reply
      */
-    public synchronized void pairedUserConnected(BluetoothSocket socket, BluetoothDevice device) {
+    public synchronized void pairedUserConnected(BluetoothSocket socket, BluetoothDevice device, JSONObject data) {
         Log.d(TAG, "pairedUserConnected()");
 
         // Cancel the thread that completed the connection
@@ -552,7 +552,7 @@ public class BluetoothManager {
         }
         
         // Start the thread to manage the connection and perform transmissions
-        mPairedUserConnectedThread = new PairedUserConnectedThread(socket, mSendData);
+        mPairedUserConnectedThread = new PairedUserConnectedThread(socket, data);
         mPairedUserConnectedThread.start();
         
         setPairedUserState(STATE_CONNECTED);
@@ -678,9 +678,12 @@ public class BluetoothManager {
                         case STATE_LISTEN:
                         case STATE_CONNECTING:
                         	Log.i(TAG, "accept() succeeded, listen/connecting");
+                        	// An encounter started by the other user
+                        	if(mPairedUserState == STATE_LISTEN) Metrics.onEncounterStarted();
                             // Situation normal. Start the connected thread.
                         	Log.i(TAG, "socket connected: " + socket.isConnected());
-                            pairedUserConnected(socket, socket.getRemoteDevice());
+                            // Note: we only reply to a connection we accepted
+                            pairedUserConnected(socket, socket.getRemoteDevice(), null);
                             break;
                         case STATE_NONE:
                         case STATE_CONNECTED:
@@ -719,10 +722,13 @@ public class BluetoothManager {
     	private static final String TAG = "PairedUserConnectThread";
         private final BluetoothSocket mmSocket;
         private final BluetoothDevice mmDevice;
+        // Data to send once connected
+        private final JSONObject mmData;
 
-        public PairedUserConnectThread(BluetoothDevice device) {
+        public PairedUserConnectThread(BluetoothDevice device, JSONObject data) {
         	Log.d(TAG, "create PairedUserConnectThread");
             mmDevice = device;
+            mmData = data;
             BluetoothSocket tmp = null;
 
             // Get a BluetoothSocket for a connection with the
@@ -743,12 +749,14 @@ public class BluetoothManager {
             mAdapter.cancelDiscovery();
 
             // Make a connection to the BluetoothSocket
+            long connectStart = Metrics.start();
             try {
                 // This is a blocking call and will only return on a
                 // successful connection or an exception
                 mmSocket.connect();
             } catch (IOException e) {
             	Log.e(TAG, "unable to connect()" + e);
+            	Metrics.count(Metrics.Counter.FAIL_CONNECT);
             	
                 // Close the socket
                 try {
@@ -759,6 +767,7 @@ public class BluetoothManager {
                 pairedUserConnectionFailed();
                 return;
             }
+            Metrics.record(Metrics.Stage.CONNECT, connectStart);
 
             // Reset the ConnectThread because we're done
             synchronized (BluetoothManager.this) {
@@ -766,7 +775,7 @@ public class BluetoothManager {
             }
 
             // Start the connected thread
-            pairedUserConnected(mmSocket, mmDevice);
+            pairedUserConnected(mmSocket, mmDevice, mmData);
         }
 
         public void cancel() {
@@ -794,6 +803,10 @@ public class BluetoothManager {
     private class PairedUserConnectedThread extends Thread {
     	private static final String TAG = "PairedUserConnectedThread";
     	private static final int BUFFER_SIZE = 4096;
+    	// Time to wait for the nearby user's data before giving up
+    	private static final long READ_TIMEOUT_MS = 15 * 1000;
+    	// Time to wait between checks for data
+    	private static final long POLL_INTERVAL_MS = 20;
         private final BluetoothSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
@@ -828,15 +841,20 @@ public class BluetoothManager {
             String rcvd = null;
             byte[] rcvdBytes = null;
             boolean dataAvailable = false;
+            long readStart = Metrics.start();
+            final long deadline = System.currentTimeMillis() + READ_TIMEOUT_MS;
 
             // Keep listening to the InputStream while connected
             while (true) {
                 try {
                     // Read from the InputStream when available
-                	Log.i(TAG, "socket connected: " + mmSocket.isConnected() + mmInStream.available());
+                	if(EventLog.isEnabled(EventLog.Event.PEER_AVAILABLE)) {
+                		EventLog.record(EventLog.Event.PEER_AVAILABLE, mmInStream.available(), mmSocket.isConnected() ? 1 : 0);
+                	}
                 	while (mmInStream.available() > 0 &&
                 			(bytes = mmInStream.read(buffer)) > -1) {
                         baos.write(buffer, 0, bytes);
+                        EventLog.record(EventLog.Event.PEER_READ, bytes, baos.size());
                         try {
                         	sleep(100);
                         } catch(InterruptedException e) {
@@ -846,13 +864,34 @@ public class BluetoothManager {
                         dataAvailable = true;
                 	}
                 	if(dataAvailable) {
+                		Metrics.record(Metrics.Stage.READ, readStart);
                 		rcvdBytes = baos.toByteArray();
+                		Metrics.add(Metrics.Counter.BYTES_IN, rcvdBytes.length);
+                		long decompressStart = Metrics.start();
                 		rcvdBytes = CompressionUtils.decompress(rcvdBytes);
+                		Metrics.record(Metrics.Stage.DECOMPRESS, decompressStart);
                 		rcvd = new String(rcvdBytes, "UTF-8");
                 		break;
                 	}
+                	// Don't let a silent peer hold the connection
+                	if(System.currentTimeMillis() > deadline) {
+                		Log.e(TAG, "PairedUserConnectedThread::run() read timed out");
+                		Metrics.count(Metrics.Counter.FAIL_TIMEOUT);
+                		cancel();
+                		pairedUserConnectionLost();
+                		// Start the threads over to restart listening mode
+                		BluetoothManager.this.startPairedUserThreads();
+                		break;
+                	}
+                	try {
+                		sleep(POLL_INTERVAL_MS);
+                	} catch(InterruptedException e) {
+                		Log.e(TAG, "sleep interrupted " + e);
+                	}
                 } catch (IOException | DataFormatException e) {
                     Log.e(TAG, "PairedUserConnectedThread::run() read error ", e);
+                    Metrics.count(e instanceof DataFormatException ?
+                    		Metrics.Counter.FAIL_DECOMPRESS : Metrics.Counter.FAIL_READ);
                     pairedUserConnectionLost();
                     // Start the threads over to restart listening mode
                     BluetoothManager.this.startPairedUserThreads();
@@ -869,19 +908,27 @@ public class BluetoothManager {
             			JSONObject data = new JSONObject(rcvd);
             			int distance = data.optInt(InfoPool.JSON_DISTANCE_NAME);
             			if(distance == 0) distance = mDistanceRangeListener.currentDistanceRange();
-            			boolean hasContent = data.has(InfoPool.JSON_ARRAY_NAME);
-            			if(hasContent &&
-        					(distance > MainActivity.DISTANCE_OUTOFRANGE &&
-        					 distance <= MainActivity.DISTANCE_FAR)) {
-            				JSONObject myData = InfoPool.INSTANCE.getData(distance);
-            				if(myData != null) write(myData.toString().getBytes());
+            			// A filter or sketches may have been sent instead of the cues,
+            			// in which case only the cues that may match are sent back
+            			boolean hasSummary = data.has(InfoPool.JSON_FILTER_NAME) || data.has(InfoPool.JSON_SKETCH_NAME);
+            			// Note: only the distance is sent if the nearby user's cues
+            			// haven't changed, and it still waits for ours
+            			if(distance > MainActivity.DISTANCE_OUTOFRANGE &&
+            					distance <= MainActivity.DISTANCE_FAR) {
+            				JSONObject myData = hasSummary ?
+            						InfoPool.INSTANCE.getCandidateData(distance, data) :
+            						InfoPool.INSTANCE.getData(distance);
+            				if(myData == null) myData = InfoPool.getEmptyData(distance);
+            				write(myData.toString().getBytes());
             				mmDataNotSent = false;
             			} else {
             				Log.e(TAG, "Invalid data received " + distance);
+            				Metrics.count(Metrics.Counter.FAIL_INVALID_DATA);
             			}
             		}
             	} catch(JSONException e) {
             		Log.e(TAG, "PairedUserConnectedThread::run() read/write error " + e);
+            		Metrics.count(Metrics.Counter.FAIL_JSON);
             	}
             } else {
             	rcvd = "";
@@ -890,6 +937,7 @@ public class BluetoothManager {
         	Message msg = mHandler.obtainMessage(MainActivity.BT_MSG_SENDRECV_DONE);
         	Bundle bundle = new Bundle();
         	bundle.putString(MainActivity.BT_MSG_SENDRECV_DATA, rcvd);
+        	bundle.putString(MainActivity.BT_MSG_SENDRECV_ADDRESS, mmSocket.getRemoteDevice().getAddress());
         	msg.setData(bundle);
         	mHandler.sendMessage(msg);
         }
@@ -900,9 +948,11 @@ public class BluetoothManager {
          */
         public void write(byte[] buffer) {
             try {
+            	int length = buffer.length;
             	buffer = CompressionUtils.compress(buffer);
-            	if(buffer != null) Log.d(TAG, "write() " + buffer.length + " characters");
+            	EventLog.record(EventLog.Event.PEER_WRITE, length, buffer.length);
                 mmOutStream.write(buffer);
+                Metrics.add(Metrics.Counter.BYTES_OUT, buffer.length);
             } catch (IOException e) {
                 Log.e(TAG, "Exception during write ", e);
             }
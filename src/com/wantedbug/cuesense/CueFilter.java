@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counting Bloom filter of the cues of a distance range
+ * @author vikasprabhu
+ * Kept up to date by InfoPool as cues are added, edited and removed, so that
+ * a compact filter of the cues can be sent to another user instead of the
+ * cues themselves. Cues are hashed by their normalized text, see
+ * normalize(). Each cue's hash is remembered, so that a cue can be removed
+ * after its text has changed.
+ * The filter sent is folded down to about BITS_PER_CUE bits per cue, which
+ * gives a false positive rate of about 1% with NUM_HASHES hashes.
+ * Note: not thread-safe, InfoPool guards it
+ */
+public class CueFilter {
+	/**
+	 * Constants
+	 */
+	// Number of counters, a power of 2
+	private static final int NUM_COUNTERS = 1 << 15;
+	// Number of hashes per cue
+	public static final int NUM_HASHES = 7;
+	// Bits per cue in the filter sent
+	private static final int BITS_PER_CUE = 10;
+	// Smallest filter sent, in bits
+	private static final int MIN_BITS = 64;
+	// Counters stick at this value
+	private static final int MAX_COUNT = 0xFF;
+
+	/**
+	 * Members
+	 */
+	// Counters, as unsigned bytes
+	private final byte[] mCounters = new byte[NUM_COUNTERS];
+	// Hash each cue was added with
+	private final Map<CueItem, Long> mHashes = new IdentityHashMap<CueItem, Long>();
+
+	/**
+	 * Adds a cue
+	 * @param item
+	 */
+	public void add(CueItem item) {
+		if(mHashes.containsKey(item)) return;
+		long hash = hash(normalize(item.data()));
+		mHashes.put(item, hash);
+		for(int i = 0; i < NUM_HASHES; ++i) {
+			int index = index(hash, i, NUM_COUNTERS);
+			int count = mCounters[index] & 0xFF;
+			if(count < MAX_COUNT) mCounters[index] = (byte) (count + 1);
+		}
+	}
+
+	/**
+	 * Removes a cue, if it was added
+	 * @param item
+	 */
+	public void remove(CueItem item) {
+		Long hash = mHashes.remove(item);
+		if(hash == null) return;
+		for(int i = 0; i < NUM_HASHES; ++i) {
+			int index = index(hash, i, NUM_COUNTERS);
+			int count = mCounters[index] & 0xFF;
+			// Note: a saturated counter can't tell how many cues are in it
+			if(count > 0 && count < MAX_COUNT) mCounters[index] = (byte) (count - 1);
+		}
+	}
+
+	/**
+	 * Re-adds a cue whose text has changed, if it was added
+	 * @param item
+	 */
+	public void update(CueItem item) {
+		if(!mHashes.containsKey(item)) return;
+		remove(item);
+		add(item);
+	}
+
+	/**
+	 * Removes all cues
+	 */
+	public void clear() {
+		mHashes.clear();
+		for(int i = 0; i < NUM_COUNTERS; ++i) mCounters[i] = 0;
+	}
+
+	/**
+	 * Returns the number of cues in the filter
+	 * @return
+	 */
+	public int size() {
+		return mHashes.size();
+	}
+
+	/**
+	 * Returns the filter as a bit array to be sent to another user
+	 * @return bits, least significant bit of the first byte first
+	 * The counters are folded down to the smallest power of 2 number of bits
+	 * that gives BITS_PER_CUE bits per cue.
+	 */
+	public byte[] toBits() {
+		int numBits = MIN_BITS;
+		while(numBits < NUM_COUNTERS && numBits < mHashes.size() * BITS_PER_CUE) numBits <<= 1;
+		byte[] bits = new byte[numBits / 8];
+		for(int i = 0; i < NUM_COUNTERS; ++i) {
+			if(mCounters[i] == 0) continue;
+			int bit = i & (numBits - 1);
+			bits[bit >>> 3] |= 1 << (bit & 7);
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns true if a cue with the specified text may be in a filter received
+	 * from another user; false if it definitely isn't
+	 * @param bits from toBits()
+	 * @param numHashes
+	 * @param text
+	 * @return
+	 */
+	public static boolean mightContain(byte[] bits, int numHashes, String text) {
+		int numBits = bits.length * 8;
+		// Only power of 2 sizes are sent
+		if(numBits == 0 || (numBits & (numBits - 1)) != 0) return true;
+		long hash = hash(normalize(text));
+		for(int i = 0; i < numHashes; ++i) {
+			int bit = index(hash, i, numBits);
+			if((bits[bit >>> 3] & (1 << (bit & 7))) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the text of a cue as compared between users, in lower case with
+	 * whitespace trimmed and collapsed
+	 * @param text
+	 * @return
+	 * Note: both users have to normalize the same way, hence Locale.US. Every
+	 * comparison of cue texts in the app goes through here.
+	 */
+	public static String normalize(String text) {
+		StringBuilder sb = new StringBuilder(text.length());
+		boolean space = false;
+		for(int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			if(Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if(space) sb.append(' ');
+				sb.append(c);
+				space = false;
+			}
+		}
+		return sb.toString().toLowerCase(Locale.US);
+	}
+
+	/**
+	 * Returns a 64-bit hash of a string
+	 * @param text
+	 * @return
+	 * FNV-1a, with MurmurHash3's finalizer so that both halves are usable
+	 */
+	static long hash(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < text.length(); ++i) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Returns the index for the i-th hash of a cue, by double hashing
+	 * @param hash
+	 * @param i
+	 * @param size a power of 2
+	 * @return
+	 * Since the sizes are powers of 2, an index for a smaller filter is the
+	 * index for a larger one with the high bits dropped, which is what makes
+	 * folding work.
+	 */
+	private static int index(long hash, int i, int size) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		return (h1 + i * h2) & (size - 1);
+	}
+}
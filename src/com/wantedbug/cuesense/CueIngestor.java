@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.res.Resources;
+import android.util.Log;
+
+/**
+ * Gatekeeper for the cues ingested from one social network
+ * @author vikasprabhu
+ * Pages of Facebook or Twitter data are fed through accept() as they
+ * arrive. It drops cues whose normalized text, see CueFilter.normalize(),
+ * has already been seen, and stops accepting once a category, the total
+ * count or the memory budget is used up, so that the caller can stop paging.
+ * Thread-safe; fetches of different categories run concurrently.
+ */
+public class CueIngestor {
+	// Debugging
+	private static final String TAG = "CueIngestor";
+
+	/**
+	 * Constants
+	 */
+	// Rough per-cue cost of a CueItem, its String and list slots, besides the characters
+	private static final int CUE_OVERHEAD_BYTES = 64;
+
+	/**
+	 * Members
+	 */
+	private final int mMaxPerCategory;
+	private final int mMaxTotal;
+	private final long mMaxBytes;
+	// Normalized text of the accepted cues
+	private final Set<String> mSeen = new HashSet<String>();
+	// Number of accepted cues per category
+	private final Map<String, Integer> mCategoryCounts = new HashMap<String, Integer>();
+	private int mTotal = 0;
+	private long mBytes = 0;
+
+	/** c'tors */
+	public CueIngestor(int maxPerCategory, int maxTotal, long maxBytes) {
+		mMaxPerCategory = maxPerCategory;
+		mMaxTotal = maxTotal;
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Creates an ingestor with the caps from the resources
+	 * @param res
+	 * @return
+	 */
+	public static CueIngestor fromResources(Resources res) {
+		return new CueIngestor(res.getInteger(R.integer.social_max_cues_per_category),
+				res.getInteger(R.integer.social_max_cues_total),
+				res.getInteger(R.integer.social_max_cue_kbytes) * 1024L);
+	}
+
+	/**
+	 * Accounts for a cue if there is room for it and it isn't a duplicate
+	 * @param category
+	 * @param text
+	 * @return true if the cue should be used
+	 */
+	public synchronized boolean accept(String category, String text) {
+		if(text == null || isFull() || isCategoryFull(category)) return false;
+		String key = CueFilter.normalize(text);
+		if(key.isEmpty() || !mSeen.add(key)) return false;
+		Integer count = mCategoryCounts.get(category);
+		mCategoryCounts.put(category, (count == null) ? 1 : count + 1);
+		++mTotal;
+		mBytes += sizeOf(text);
+		if(isFull()) Log.i(TAG, "full at " + mTotal + " cues, " + mBytes + " bytes");
+		return true;
+	}
+
+	/**
+	 * Returns true if no more cues are accepted for the category
+	 * @param category
+	 * @return
+	 */
+	public synchronized boolean isCategoryFull(String category) {
+		Integer count = mCategoryCounts.get(category);
+		return isFull() || (count != null && count >= mMaxPerCategory);
+	}
+
+	/**
+	 * Returns true if no more cues are accepted at all
+	 * @return
+	 */
+	public synchronized boolean isFull() {
+		return mTotal >= mMaxTotal || mBytes >= mMaxBytes;
+	}
+
+	/** get methods */
+	public int maxPerCategory() { return mMaxPerCategory; }
+	public synchronized int size() { return mTotal; }
+	public synchronized long bytes() { return mBytes; }
+
+	/**
+	 * Forgets all the accepted cues
+	 */
+	public synchronized void reset() {
+		mSeen.clear();
+		mCategoryCounts.clear();
+		mTotal = 0;
+		mBytes = 0;
+	}
+
+	/**
+	 * Returns the approximate memory taken by a cue with the text
+	 * @param text
+	 * @return
+	 */
+	private static long sizeOf(String text) {
+		return CUE_OVERHEAD_BYTES + 2L * text.length();
+	}
+}
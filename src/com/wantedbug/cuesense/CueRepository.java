@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * In-memory model of the user's CueSense cues
+ * @author vikasprabhu
+ * This is the single source of truth for the CueSense cues. Observers are
+ * told about every change as a ChangeSet of inserts, updates and removals
+ * with the positions involved, so they never have to read the whole list
+ * again. DBHelper persists the changes in the background, InfoPool keeps
+ * its lists in step and the list fragment updates only the affected rows.
+ * The cues are loaded from the database once per process.
+ * Note: changes are made and observers are notified on the UI thread.
+ * Positions are newest first, same as in the list view, but the cues are kept
+ * oldest first with each one's index by id, so that adding, finding and
+ * updating a cue don't walk the list.
+ */
+public class CueRepository {
+	// Debugging
+	private static final String TAG = "CueRepository";
+
+	/**
+	 * Interface for changes to the cues
+	 */
+	public interface Observer {
+		/** Handle a set of changes. Called on the UI thread. */
+		void onCuesChanged(ChangeSet changes);
+	}
+
+	/**
+	 * A change to a single cue
+	 */
+	public static final class Change {
+		public enum Kind { INSERT, UPDATE, REMOVE }
+
+		private final Kind mKind;
+		private final int mPosition;
+		private final CueItem mItem;
+
+		Change(Kind kind, int position, CueItem item) {
+			mKind = kind;
+			mPosition = position;
+			mItem = item;
+		}
+
+		/** get methods */
+		public Kind kind() { return mKind; }
+		/** Position of the cue after the change, or before it for REMOVE */
+		public int position() { return mPosition; }
+		public CueItem item() { return mItem; }
+	}
+
+	/**
+	 * Changes made together, in the order they were made
+	 * A reload means the cues were read from the database and the whole list
+	 * has to be read again, in which case there are no individual changes.
+	 */
+	public static final class ChangeSet {
+		private final boolean mReload;
+		private final List<Change> mChanges;
+
+		ChangeSet(boolean reload, List<Change> changes) {
+			mReload = reload;
+			mChanges = Collections.unmodifiableList(changes);
+		}
+
+		/** get methods */
+		public boolean isReload() { return mReload; }
+		public List<Change> changes() { return mChanges; }
+	}
+
+	/**
+	 * Members
+	 */
+	// Static singleton instance
+	public static final CueRepository INSTANCE = new CueRepository();
+
+	// Cues, oldest first, and their indices in mItems by id
+	private final List<CueItem> mItems = new ArrayList<CueItem>();
+	private final Map<Integer, Integer> mIndices = new HashMap<Integer, Integer>();
+	// True once the cues have been loaded from the database
+	private boolean mLoaded = false;
+	// Observers in the order they're notified
+	// Note: the store is always notified first, since it gives new cues their ids
+	private final List<Observer> mObservers = new CopyOnWriteArrayList<Observer>();
+	private DBHelper mStore = null;
+	// Handler to get loaded cues to the UI thread
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private CueRepository() { }
+
+	/**
+	 * Sets the database that persists the cues
+	 * @param store
+	 */
+	public void setStore(DBHelper store) {
+		if(mStore == store) return;
+		if(mStore != null) mObservers.remove(mStore);
+		mStore = store;
+		mObservers.add(0, store);
+	}
+
+	/**
+	 * Adds an observer, if it's not already added
+	 * @param observer
+	 */
+	public void addObserver(Observer observer) {
+		if(!mObservers.contains(observer)) mObservers.add(observer);
+	}
+
+	/**
+	 * Removes an observer
+	 * @param observer
+	 */
+	public void removeObserver(Observer observer) {
+		mObservers.remove(observer);
+	}
+
+	/**
+	 * Returns true if the cues have been loaded from the database
+	 * @return
+	 */
+	public boolean isLoaded() {
+		return mLoaded;
+	}
+
+	/**
+	 * Returns a copy of the list of cues, newest first
+	 * @return
+	 * Note: the cues themselves are the repository's
+	 */
+	public List<CueItem> getItems() {
+		List<CueItem> items = new ArrayList<CueItem>(mItems);
+		Collections.reverse(items);
+		return items;
+	}
+
+	/**
+	 * Loads the cues read from the database
+	 * @param items newest first
+	 * Can be called on any thread. The cues are installed on the UI thread,
+	 * after any added in the meantime, and observers get a reload.
+	 */
+	public void load(List<CueItem> items) {
+		final List<CueItem> loaded = new ArrayList<CueItem>(items);
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(mLoaded) return;
+				// The loaded cues are older than those added in the meantime
+				List<CueItem> added = new ArrayList<CueItem>(mItems);
+				mItems.clear();
+				for(int i = loaded.size() - 1; i >= 0; --i) {
+					CueItem item = loaded.get(i);
+					if(!mIndices.containsKey(item.id())) mItems.add(item);
+				}
+				mItems.addAll(added);
+				reindexFrom(0);
+				mLoaded = true;
+				Log.i(TAG, "loaded " + mItems.size());
+				notifyObservers(new ChangeSet(true, new ArrayList<Change>()));
+			}
+		});
+	}
+
+	/**
+	 * Adds a new cue at the top
+	 * @param item
+	 * The store gives the cue its id before the other observers see it.
+	 */
+	public void add(CueItem item) {
+		mItems.add(item);
+		List<Change> changes = new ArrayList<Change>(1);
+		changes.add(new Change(Change.Kind.INSERT, 0, item));
+		notifyObservers(new ChangeSet(false, changes));
+		// Note: only has its id now
+		mIndices.put(item.id(), mItems.size() - 1);
+	}
+
+	/**
+	 * Updates cues with the contents of the specified ones
+	 * @param items
+	 * Cues are matched by id. Unknown ones are ignored.
+	 */
+	public void update(List<CueItem> items) {
+		List<Change> changes = new ArrayList<Change>(items.size());
+		for(CueItem item : items) {
+			Integer index = mIndices.get(item.id());
+			if(index == null) continue;
+			CueItem current = mItems.get(index);
+			if(current != item) {
+				current.setData(item.data());
+				current.setChecked(item.isChecked());
+			}
+			changes.add(new Change(Change.Kind.UPDATE, positionOf(index), current));
+		}
+		if(!changes.isEmpty()) notifyObservers(new ChangeSet(false, changes));
+	}
+
+	/**
+	 * Removes a cue
+	 * @param item
+	 * Note: the cues added after it move down, which is O(n), but removals
+	 * are rare
+	 */
+	public void remove(CueItem item) {
+		Integer index = mIndices.remove(item.id());
+		if(index == null) return;
+		int position = positionOf(index);
+		CueItem current = mItems.remove((int) index);
+		reindexFrom(index);
+		List<Change> changes = new ArrayList<Change>(1);
+		changes.add(new Change(Change.Kind.REMOVE, position, current));
+		notifyObservers(new ChangeSet(false, changes));
+	}
+	
+	/**
+	 * Returns the newest first position of the cue at an index of mItems
+	 * @param index
+	 * @return
+	 */
+	private int positionOf(int index) {
+		return mItems.size() - 1 - index;
+	}
+	
+	/**
+	 * Records the indices of the cues in mItems from an index on
+	 * @param start
+	 */
+	private void reindexFrom(int start) {
+		for(int i = start; i < mItems.size(); ++i) {
+			mIndices.put(mItems.get(i).id(), i);
+		}
+	}
+
+	private void notifyObservers(ChangeSet changes) {
+		for(Observer observer : mObservers) {
+			observer.onCuesChanged(changes);
+		}
+	}
+}
@@ -1,14 +1,16 @@
 /**
- * Copyright (C) 2014 Tampere University of Technology 
+ * Copyright (C) 2014 Tampere University of Technology
  */
 
 package com.wantedbug.cuesense;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
-import com.wantedbug.cuesense.CueSenseListFragment.CueSenseListener;
-
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
@@ -18,77 +20,167 @@ import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.EditText;
+import android.widget.ListView;
 
 /**
- * ArrayAdapter-based list adapter for the CueSense list items 
+ * ArrayAdapter-based list adapter for the CueSense list items
  * @author vikasprabhu
+ * Edits made in the rows are collected and handed to CueRepository as one
+ * batch once the user stops editing for COMMIT_DELAY_MS. Binding a row
+ * doesn't count as an edit.
  */
 public class CueSenseListAdapter extends ArrayAdapter<CueItem> {
+	/**
+	 * Constants
+	 */
+	// Time after the last edit after which edits are committed
+	private static final long COMMIT_DELAY_MS = 750;
+
 	/**
 	 * Members
 	 */
 	private final List<CueItem> mList;
 	private final Context mContext;
-	private final CueSenseListener mListener;
+	private final CueRepository mRepository;
 	private LayoutInflater mInflater;
+	// True while a row is being bound, so that its listeners ignore the changes
+	private boolean mBinding = false;
+	// Edited items not committed yet, by id
+	private final LinkedHashMap<Integer, CueItem> mPendingEdits = new LinkedHashMap<Integer, CueItem>();
+	// Commits the pending edits
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Runnable mCommitRunnable = new Runnable() {
+		@Override
+		public void run() {
+			commitEdits();
+		}
+	};
 
-	public CueSenseListAdapter(Context context, List<CueItem> values, CueSenseListener listener) {
+	public CueSenseListAdapter(Context context, List<CueItem> values, CueRepository repository) {
 		super(context, R.layout.listitem_tab_cuesense, values);
 		this.mContext = context;
 		this.mList = values;
-		this.mListener = listener;
+		this.mRepository = repository;
 		this.mInflater = LayoutInflater.from(context);
 	}
-	
+
 	static class ViewHolder {
 	    protected EditText mEditText;
 	    protected CheckBox mCheckbox;
+	    protected CueItem mItem;
 	  }
 
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return mList.get(position).id();
+	}
+
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
 		View view = convertView;
-		
-		if(convertView == null) {
-			view = mInflater.inflate(R.layout.listitem_tab_cuesense, parent, false);
-			final ViewHolder viewHolder = new ViewHolder();
-			viewHolder.mEditText = (EditText) view.findViewById(R.id.data);
-			viewHolder.mEditText.addTextChangedListener(new TextWatcher() {
-				@Override
-				public void afterTextChanged(Editable s) {
-					CueItem item = (CueItem) viewHolder.mEditText.getTag();
-					if(item.data() != s.toString()) {
-						item.setData(s.toString());
-						mListener.onCueSenseCueChanged(item);
-					}
+		if(view == null) {
+			view = newView(parent);
+		}
+		bindView((ViewHolder) view.getTag(), mList.get(position));
+		return view;
+	}
+
+	/**
+	 * Commits the pending edits right away
+	 * Called before the list is changed or goes away
+	 */
+	public void commitEdits() {
+		mHandler.removeCallbacks(mCommitRunnable);
+		if(mPendingEdits.isEmpty()) return;
+		List<CueItem> items = new ArrayList<CueItem>(mPendingEdits.values());
+		mPendingEdits.clear();
+		mRepository.update(items);
+	}
+
+	/**
+	 * Shows the current contents of an item in its row, if the row is visible
+	 * @param listView
+	 * @param position
+	 */
+	public void rebindRow(ListView listView, int position) {
+		int index = position - listView.getFirstVisiblePosition();
+		if(index < 0 || index >= listView.getChildCount()) return;
+		View view = listView.getChildAt(index);
+		if(view != null && view.getTag() instanceof ViewHolder) {
+			bindView((ViewHolder) view.getTag(), mList.get(position));
+		}
+	}
+
+	/**
+	 * Inflates a row and attaches its listeners
+	 * @param parent
+	 * @return
+	 */
+	private View newView(ViewGroup parent) {
+		View view = mInflater.inflate(R.layout.listitem_tab_cuesense, parent, false);
+		final ViewHolder holder = new ViewHolder();
+		holder.mEditText = (EditText) view.findViewById(R.id.data);
+		holder.mEditText.addTextChangedListener(new TextWatcher() {
+			@Override
+			public void afterTextChanged(Editable s) {
+				if(mBinding) return;
+				String text = s.toString();
+				if(!holder.mItem.data().equals(text)) {
+					holder.mItem.setData(text);
+					onItemEdited(holder.mItem);
 				}
-				@Override
-				public void beforeTextChanged(CharSequence s, int start, int count, int after) { /* Do nothing */}
-				@Override
-				public void onTextChanged(CharSequence s, int start, int before, int count) { /* Do nothing */}
-			});
-			viewHolder.mCheckbox = (CheckBox) view.findViewById(R.id.isChecked);
-			viewHolder.mCheckbox
-			.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-				@Override
-				public void onCheckedChanged(CompoundButton buttonView,
-						boolean isChecked) {
-					CueItem item = (CueItem) viewHolder.mCheckbox.getTag();
-					item.setChecked(buttonView.isChecked());
-					mListener.onCueSenseCueChanged(item);
+			}
+			@Override
+			public void beforeTextChanged(CharSequence s, int start, int count, int after) { /* Do nothing */}
+			@Override
+			public void onTextChanged(CharSequence s, int start, int before, int count) { /* Do nothing */}
+		});
+		holder.mCheckbox = (CheckBox) view.findViewById(R.id.isChecked);
+		holder.mCheckbox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				if(mBinding) return;
+				if(holder.mItem.isChecked() != isChecked) {
+					holder.mItem.setChecked(isChecked);
+					onItemEdited(holder.mItem);
 				}
-			});
-			view.setTag(viewHolder);
-			viewHolder.mCheckbox.setTag(mList.get(position));
-			viewHolder.mEditText.setTag(mList.get(position));
-		} else {
-			view = convertView;
-			((ViewHolder) view.getTag()).mCheckbox.setTag(mList.get(position));
-			((ViewHolder) view.getTag()).mEditText.setTag(mList.get(position));
-		}		
-		ViewHolder holder = (ViewHolder) view.getTag();
-	    holder.mEditText.setText(mList.get(position).data());
-	    holder.mCheckbox.setChecked(mList.get(position).isChecked());
+			}
+		});
+		view.setTag(holder);
 		return view;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Shows an item in a row without triggering the row's listeners
+	 * @param holder
+	 * @param item
+	 */
+	private void bindView(ViewHolder holder, CueItem item) {
+		holder.mItem = item;
+		mBinding = true;
+		try {
+			// Avoid resetting the text, which also moves the cursor, if it's the same
+			if(!holder.mEditText.getText().toString().equals(item.data())) {
+				holder.mEditText.setText(item.data());
+			}
+			holder.mCheckbox.setChecked(item.isChecked());
+		} finally {
+			mBinding = false;
+		}
+	}
+
+	/**
+	 * Queues an edited item and restarts the commit timer
+	 * @param item
+	 */
+	private void onItemEdited(CueItem item) {
+		mPendingEdits.put(item.id(), item);
+		mHandler.removeCallbacks(mCommitRunnable);
+		mHandler.postDelayed(mCommitRunnable, COMMIT_DELAY_MS);
+	}
+}
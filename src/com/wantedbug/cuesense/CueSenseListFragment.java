@@ -4,14 +4,13 @@
 
 package com.wantedbug.cuesense;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import com.wantedbug.cuesense.MainActivity.InfoType;
-
-import android.app.Activity;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.ListFragment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,23 +20,13 @@ import android.widget.ListView;
 /**
  * List view of the user's CueSense profile data 
  * @author vikasprabhu
+ * The list is a copy of CueRepository's that is kept in step with its change
+ * sets, so only the rows involved in a change are touched. Its cues are
+ * copies too, so that edits only reach the repository when committed.
  */
-public class CueSenseListFragment extends ListFragment {
+public class CueSenseListFragment extends ListFragment implements CueRepository.Observer {
 	// Debugging
 	private static final String TAG = "CueSenseListFragment";
-	/**
-	 * Interface for new/deleted/changed CueItems in the list view
-	 */
-	public interface CueSenseListener {
-		/** Handle addition of a new cue */
-		void onCueSenseCueAdded(CueItem item);
-		
-		/** Handle deletion of a cue */
-		void onCueSenseCueDeleted(CueItem item);
-		
-		/** Handle modification of a cue */
-		void onCueSenseCueChanged(CueItem item);
-	}
 
 	/**
 	 * Members
@@ -46,12 +35,10 @@ public class CueSenseListFragment extends ListFragment {
 	private CueSenseListAdapter mCSListAdapter;
 	// List view
 	private ListView mCSListView;
-	// Listener to handle CueItem addition, deletion and modification
-	CueSenseListener mListener;
 	// Data for the list views
 	private List<CueItem> mCSList;
-	// Database handle
-	private DBHelper mDBHelper;
+	// Repository of the CueSense cues
+	private CueRepository mRepository;
 	
 	public CueSenseListFragment() {
 		
@@ -66,10 +53,12 @@ public class CueSenseListFragment extends ListFragment {
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 		View v = inflater.inflate(R.layout.tab_cuesense, container, false);
 		mCSListView = (ListView) v.findViewById(android.R.id.list);
-		mDBHelper = new DBHelper(getActivity());
-		mCSList = mDBHelper.getItems(InfoType.INFO_CUESENSE);
-		mCSListAdapter = new CueSenseListAdapter(getActivity(), mCSList, mListener);
+		mRepository = CueRepository.INSTANCE;
+		// Note: empty until the cues are loaded, which comes in as a reload
+		mCSList = copyOf(mRepository.getItems());
+		mCSListAdapter = new CueSenseListAdapter(getActivity(), mCSList, mRepository);
 		mCSListView.setAdapter(mCSListAdapter);
+		mRepository.addObserver(this);
 		
 		mCSListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
 			@Override
@@ -83,23 +72,66 @@ public class CueSenseListFragment extends ListFragment {
 	}
 	
 	@Override
-    public void onAttach(Activity activity) {
-        super.onAttach(activity);
-        
-        if(!(activity instanceof CueSenseListener)) {
-            throw new RuntimeException("Activity must implement CueSenseListener interface!");
-        }
-        
-        mListener = (CueSenseListener) activity;
-    }
+	public void onPause() {
+		super.onPause();
+		// Don't lose edits still waiting to be committed
+		if(mCSListAdapter != null) mCSListAdapter.commitEdits();
+	}
+	
+	@Override
+	public void onDestroyView() {
+		super.onDestroyView();
+		if(mRepository != null) mRepository.removeObserver(this);
+	}
+	
+	/**
+	 * Applies changes to the CueSense cues to the list view
+	 * Inserts and removals shift the rows below them, so the list is
+	 * invalidated once for those. Updates only rebind their own row.
+	 */
+	@Override
+	public void onCuesChanged(CueRepository.ChangeSet changes) {
+		if(changes.isReload()) {
+			Log.d(TAG, "reload");
+			mCSList.clear();
+			mCSList.addAll(copyOf(mRepository.getItems()));
+			mCSListAdapter.notifyDataSetChanged();
+			return;
+		}
+		boolean shifted = false;
+		for(CueRepository.Change change : changes.changes()) {
+			switch(change.kind()) {
+			case INSERT:
+				mCSList.add(change.position(), copyOf(change.item()));
+				shifted = true;
+				break;
+			case REMOVE:
+				mCSList.remove(change.position());
+				shifted = true;
+				break;
+			case UPDATE:
+				mCSList.set(change.position(), copyOf(change.item()));
+				if(!shifted) mCSListAdapter.rebindRow(mCSListView, change.position());
+				break;
+			}
+		}
+		if(shifted) mCSListAdapter.notifyDataSetChanged();
+	}
+	
+	/**
+	 * Returns a copy of a CueItem
+	 */
+	private static CueItem copyOf(CueItem item) {
+		return new CueItem(item.id(), item.type(), item.data(), item.isChecked());
+	}
 	
 	/**
-	 * Refreshes the list view
+	 * Returns copies of CueItems
 	 */
-	public void refreshList() {
-		mCSList.clear();
-		mCSList.addAll(mDBHelper.getItems(InfoType.INFO_CUESENSE));
-		mCSListAdapter.notifyDataSetChanged();
+	private static List<CueItem> copyOf(List<CueItem> items) {
+		List<CueItem> copies = new ArrayList<CueItem>(items.size());
+		for(CueItem item : items) copies.add(copyOf(item));
+		return copies;
 	}
 	
 	/**
@@ -107,9 +139,7 @@ public class CueSenseListFragment extends ListFragment {
 	 * @param itemPosition
 	 */
 	public void onCueDeleted(int itemPosition) {
-		CueItem item = mCSList.get(itemPosition);
-		mCSList.remove(itemPosition);
-		mCSListAdapter.notifyDataSetChanged();
-		mListener.onCueSenseCueDeleted(item);
+		mCSListAdapter.commitEdits();
+		mRepository.remove(mCSList.get(itemPosition));
 	}
 }
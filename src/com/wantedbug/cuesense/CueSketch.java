@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MinHash sketches of cues, for approximate matching without the cue texts
+ * @author vikasprabhu
+ * A cue's sketch is ROWS one-byte MinHash values over the character shingles
+ * of its normalized text (b-bit MinHash), so the fraction of equal rows of two
+ * sketches estimates the Jaccard similarity of their shingles. Rows are
+ * grouped into BANDS bands for locality sensitive hashing: two cues are
+ * candidates if all the rows of any band are equal, which is the case about
+ * 90% of the time at a similarity of 0.5 and 20% of the time at 0.2.
+ * Sketches sent between users are concatenated in a single byte array.
+ */
+public class CueSketch {
+	/**
+	 * Constants
+	 */
+	// Rows per sketch, one byte each
+	public static final int ROWS = 16;
+	// Rows per band
+	private static final int ROWS_PER_BAND = 2;
+	private static final int BANDS = ROWS / ROWS_PER_BAND;
+	// Characters per shingle
+	private static final int SHINGLE_LENGTH = 3;
+	// Chance of two rows being equal by accident
+	private static final double ROW_COLLISION = 1 / 256.0;
+	// Multipliers and increments of the hash function of each row
+	private static final long[] MULTIPLIERS = new long[ROWS];
+	private static final long[] INCREMENTS = new long[ROWS];
+	static {
+		// Note: both users have to use the same functions, hence the fixed seed
+		long seed = 0x9e3779b97f4a7c15L;
+		for(int i = 0; i < ROWS; ++i) {
+			seed = seed * 6364136223846793005L + 1442695040888963407L;
+			MULTIPLIERS[i] = seed | 1;
+			seed = seed * 6364136223846793005L + 1442695040888963407L;
+			INCREMENTS[i] = seed;
+		}
+	}
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private CueSketch() { }
+
+	/**
+	 * Returns the sketch of a cue's text
+	 * @param text
+	 * @return ROWS bytes
+	 */
+	public static byte[] of(String text) {
+		String normalized = CueFilter.normalize(text);
+		long[] mins = new long[ROWS];
+		for(int i = 0; i < ROWS; ++i) mins[i] = Long.MAX_VALUE;
+		// Texts shorter than a shingle are a shingle of their own
+		int numShingles = Math.max(1, normalized.length() - SHINGLE_LENGTH + 1);
+		for(int i = 0; i < numShingles; ++i) {
+			long shingle = CueFilter.hash(normalized.substring(i, Math.min(normalized.length(), i + SHINGLE_LENGTH)));
+			for(int j = 0; j < ROWS; ++j) {
+				long hash = shingle * MULTIPLIERS[j] + INCREMENTS[j];
+				if(hash < mins[j]) mins[j] = hash;
+			}
+		}
+		byte[] sketch = new byte[ROWS];
+		// Keep the low bits: the high bits of a minimum are mostly the same
+		for(int i = 0; i < ROWS; ++i) sketch[i] = (byte) mins[i];
+		return sketch;
+	}
+
+	/**
+	 * Returns the key of a band of a sketch
+	 * @param sketches
+	 * @param offset of the sketch
+	 * @param band
+	 * @return
+	 */
+	public static long bandKey(byte[] sketches, int offset, int band) {
+		long key = band;
+		for(int i = 0; i < ROWS_PER_BAND; ++i) {
+			key = (key << 8) | (sketches[offset + band * ROWS_PER_BAND + i] & 0xFF);
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the offsets of concatenated sketches by the keys of their bands
+	 * @param sketches
+	 * @return
+	 */
+	public static Map<Long, List<Integer>> buckets(byte[] sketches) {
+		Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+		for(int offset = 0; offset + ROWS <= sketches.length; offset += ROWS) {
+			for(int band = 0; band < BANDS; ++band) {
+				Long key = bandKey(sketches, offset, band);
+				List<Integer> bucket = buckets.get(key);
+				if(bucket == null) {
+					bucket = new ArrayList<Integer>(1);
+					buckets.put(key, bucket);
+				}
+				bucket.add(offset);
+			}
+		}
+		return buckets;
+	}
+
+	/**
+	 * Returns the offsets of the sketches in buckets() that are candidates
+	 * for being similar to a sketch
+	 * @param buckets
+	 * @param sketch
+	 * @return offsets, each once
+	 */
+	public static Set<Integer> candidates(Map<Long, List<Integer>> buckets, byte[] sketch) {
+		Set<Integer> candidates = new HashSet<Integer>();
+		for(int band = 0; band < BANDS; ++band) {
+			List<Integer> bucket = buckets.get(bandKey(sketch, 0, band));
+			if(bucket != null) candidates.addAll(bucket);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the estimated Jaccard similarity of the shingles of two cues
+	 * @param sketch
+	 * @param sketches
+	 * @param offset of the other sketch
+	 * @return between 0 and 1
+	 */
+	public static double similarity(byte[] sketch, byte[] sketches, int offset) {
+		int equal = 0;
+		for(int i = 0; i < ROWS; ++i) {
+			if(sketch[i] == sketches[offset + i]) ++equal;
+		}
+		// Correct for rows that are equal by accident
+		double similarity = (equal / (double) ROWS - ROW_COLLISION) / (1 - ROW_COLLISION);
+		return Math.max(0, similarity);
+	}
+}
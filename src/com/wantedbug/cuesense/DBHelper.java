@@ -5,23 +5,41 @@
 package com.wantedbug.cuesense;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.wantedbug.cuesense.MainActivity.InfoType;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
  * This class is a wrapper to SQLite functionality 
  * @author vikasprabhu
  * It implements CRUD for CueSense items that the user inputs
+ * Writes are queued up and written in a single transaction on a background
+ * thread after a short delay. Repeated updates to the same item in the
+ * meantime are coalesced into one write. Reads flush the queue first.
+ * This class is a singleton so that all writes go through the same queue.
+ * It persists the changes made to the CueSense cues in CueRepository.
+ * Facebook and Twitter cues are cached in the same table so that they are
+ * available at startup without waiting for the network. The time each type
+ * was fetched is kept in a separate table, and cached cues older than the
+ * type's TTL are not used.
  */
-public class DBHelper extends SQLiteOpenHelper {
+public class DBHelper extends SQLiteOpenHelper implements CueRepository.Observer {
 	// Debugging
 	private static final String TAG = "DBHelper";
 	
@@ -30,7 +48,10 @@ public class DBHelper extends SQLiteOpenHelper {
 	 */
 	// Database details
 	private static final String DB_NAME = "cuesense_db";
-    private static final int DB_VERSION = 1;
+    // Version 2: AUTOINCREMENT ids
+    // Version 3: cache metadata table
+    // Version 4: index on type
+    private static final int DB_VERSION = 4;
     // Table name
     public static final String TABLE_CUESENSE = "cuesense_table";
     // Table column names (match CueItem members)
@@ -45,30 +66,150 @@ public class DBHelper extends SQLiteOpenHelper {
         COLUMN_DATA,
         COLUMN_ISCHECKED
     };
+    // Cache metadata table name and column names
+    public static final String TABLE_CACHE_META = "cache_meta";
+    public static final String COLUMN_VERSION = "version";
+    public static final String COLUMN_FETCHED_AT = "fetched_at";
+    // Version of the cached cues. Increment when the cues generated from
+    // Facebook and Twitter data change so that old cached cues are dropped.
+    private static final int CACHE_VERSION = 1;
+    // Time for which cached cues are used
+    private static final long CACHE_TTL_FACEBOOK_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final long CACHE_TTL_TWITTER_MS = 24 * 60 * 60 * 1000L;
     /** SQL queries */
     private static final String QUERY_TABLE_CREATE =
     		"CREATE TABLE IF NOT EXISTS " + TABLE_CUESENSE + " (" +
-            		COLUMN_ID + " INT PRIMARY KEY, " +
+            		COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
             		COLUMN_TYPE + " INT, " +
             		COLUMN_DATA + " TEXT, " +
             		COLUMN_ISCHECKED + " BOOLEAN" + 
             		");";
-    private static final String QUERY_NEXT_ID = 
-    		"SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE_CUESENSE + ";";
-    private static final String QUERY_DELETE_WHERE = 
-    		COLUMN_ID + " = ?";
-    private static final String QUERY_UPDATE_WHERE =
-    		COLUMN_ID + " = ?";
+    private static final String QUERY_CACHE_META_CREATE =
+    		"CREATE TABLE IF NOT EXISTS " + TABLE_CACHE_META + " (" +
+    				COLUMN_TYPE + " INTEGER PRIMARY KEY, " +
+    				COLUMN_VERSION + " INTEGER, " +
+    				COLUMN_FETCHED_AT + " INTEGER" +
+    				");";
+    private static final String QUERY_CACHE_META_REPLACE =
+    		"INSERT OR REPLACE INTO " + TABLE_CACHE_META + " (" +
+    				COLUMN_TYPE + ", " + COLUMN_VERSION + ", " + COLUMN_FETCHED_AT +
+    				") VALUES (?, ?, ?);";
+    // Index used by the per-type queries, which are ordered by id
+    private static final String INDEX_TYPE = TABLE_CUESENSE + "_type_idx";
+    private static final String QUERY_INDEX_TYPE_CREATE =
+    		"CREATE INDEX IF NOT EXISTS " + INDEX_TYPE + " ON " + TABLE_CUESENSE +
+    				" (" + COLUMN_TYPE + ", " + COLUMN_ID + ");";
+    private static final String QUERY_TYPE_WHERE =
+    		COLUMN_TYPE + " = ?";
+    private static final String QUERY_TYPE_PAGE_WHERE =
+    		COLUMN_TYPE + " = ? AND " + COLUMN_ID + " < ?";
+    
+    // Number of rows read at a time by streamItems()
+    private static final int PAGE_SIZE = 100;
+    // Note: also takes into account ids of deleted items so that they aren't reused
+    private static final String QUERY_LAST_ID =
+    		"SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE_CUESENSE +
+    		" UNION ALL SELECT seq FROM sqlite_sequence WHERE name = '" + TABLE_CUESENSE + "';";
+    private static final String QUERY_INSERT =
+    		"INSERT OR REPLACE INTO " + TABLE_CUESENSE + " (" +
+    				COLUMN_ID + ", " + COLUMN_TYPE + ", " + COLUMN_DATA + ", " + COLUMN_ISCHECKED +
+    				") VALUES (?, ?, ?, ?);";
+    private static final String QUERY_UPDATE =
+    		"UPDATE " + TABLE_CUESENSE + " SET " +
+    				COLUMN_TYPE + " = ?, " + COLUMN_DATA + " = ?, " + COLUMN_ISCHECKED + " = ?" +
+    				" WHERE " + COLUMN_ID + " = ?;";
+    private static final String QUERY_DELETE =
+    		"DELETE FROM " + TABLE_CUESENSE + " WHERE " + COLUMN_ID + " = ?;";
+    /** Version 1 -> 2 migration queries */
+    private static final String TABLE_CUESENSE_V1 = TABLE_CUESENSE + "_v1";
+    private static final String QUERY_V1_RENAME =
+    		"ALTER TABLE " + TABLE_CUESENSE + " RENAME TO " + TABLE_CUESENSE_V1 + ";";
+    private static final String QUERY_V1_COPY =
+    		"INSERT INTO " + TABLE_CUESENSE + " (" +
+    				COLUMN_ID + ", " + COLUMN_TYPE + ", " + COLUMN_DATA + ", " + COLUMN_ISCHECKED +
+    				") SELECT " +
+    				COLUMN_ID + ", " + COLUMN_TYPE + ", " + COLUMN_DATA + ", " + COLUMN_ISCHECKED +
+    				" FROM " + TABLE_CUESENSE_V1 + " WHERE " + COLUMN_ID + " IS NOT NULL;";
+    private static final String QUERY_V1_DROP =
+    		"DROP TABLE " + TABLE_CUESENSE_V1 + ";";
+    
+    // Time to wait for more changes before writing pending changes
+    private static final long WRITE_DELAY_MS = 500;
+    // Max time a change stays pending while changes keep coming in
+    private static final long MAX_WRITE_DELAY_MS = 2000;
     
     /**
      * Members
      */
+    // Static singleton instance
+    private static DBHelper sInstance = null;
+    
     private Context context;
     
-    /** c'tor */
-    public DBHelper(Context context) {
+    // Pending changes by item id, in the order they were made
+    // Note: items are copies so that later changes to the originals don't
+    // affect what's written
+    private final Map<Integer, CueItem> mPendingInserts = new LinkedHashMap<Integer, CueItem>();
+    private final Map<Integer, CueItem> mPendingUpdates = new LinkedHashMap<Integer, CueItem>();
+    private final Set<Integer> mPendingDeletes = new LinkedHashSet<Integer>();
+    // Pending cache clears by type, with the time the type was fetched again
+    // or 0 if the type's cache is just cleared
+    // Note: these are written before the other pending changes
+    private final Map<InfoType, Long> mPendingCacheClears = new LinkedHashMap<InfoType, Long>();
+    // Time the oldest pending change was made, 0 if there are no pending changes
+    private long mFirstPendingAt = 0;
+    // Last id handed out to a new item, -1 if not read from the database yet
+    // Note: it's read on the writer thread as soon as DBHelper is created
+    private int mLastId = -1;
+    
+    // Lock held while pending changes are written so that a read that flushes
+    // the queue sees everything written before it
+    private final Object mWriteLock = new Object();
+    // Compiled statements, only used while holding mWriteLock
+    private SQLiteStatement mInsertStatement = null;
+    private SQLiteStatement mUpdateStatement = null;
+    private SQLiteStatement mDeleteStatement = null;
+    
+    // Thread on which pending changes are written
+    private final HandlerThread mWriterThread;
+    private final Handler mWriterHandler;
+    private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flushPending();
+		}
+	};
+    private final Runnable mLoadLastIdRunnable = new Runnable() {
+		@Override
+		public void run() {
+			loadLastId();
+		}
+	};
+    
+    /**
+     * Returns the singleton instance
+     * @param context
+     * @return
+     */
+    public static synchronized DBHelper getInstance(Context context) {
+    	if(sInstance == null) {
+    		sInstance = new DBHelper(context.getApplicationContext());
+    	}
+    	return sInstance;
+    }
+    
+    /**
+     * Private c'tor to defeat instantiation
+     */
+    private DBHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
         this.context = context;
+        mWriterThread = new HandlerThread("DBWriterThread", Process.THREAD_PRIORITY_BACKGROUND);
+        mWriterThread.start();
+        mWriterHandler = new Handler(mWriterThread.getLooper());
+        // Note: this also opens, and if needed upgrades, the database off
+        // the UI thread
+        mWriterHandler.post(mLoadLastIdRunnable);
     }
 
     /**
@@ -77,74 +218,132 @@ public class DBHelper extends SQLiteOpenHelper {
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		Log.d(TAG, "onCreate()");
-		// Create the database and table
+		// Create the database and tables
 		db.execSQL(QUERY_TABLE_CREATE);
+		db.execSQL(QUERY_INDEX_TYPE_CREATE);
+		db.execSQL(QUERY_CACHE_META_CREATE);
 	}
 
 	/**
-	 * Called when database version is upgraded, but we don't need it in our case
+	 * Called when database version is upgraded
+	 * Note: runs inside a transaction
 	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		Log.d(TAG, "onUpgrade()");
-		// Do nothing
+		Log.d(TAG, "onUpgrade() " + oldVersion + "->" + newVersion);
+		if(oldVersion < 2) {
+			// Recreate the table with AUTOINCREMENT ids and copy the items over
+			db.execSQL(QUERY_V1_RENAME);
+			db.execSQL(QUERY_TABLE_CREATE);
+			db.execSQL(QUERY_V1_COPY);
+			db.execSQL(QUERY_V1_DROP);
+		}
+		if(oldVersion < 3) {
+			db.execSQL(QUERY_CACHE_META_CREATE);
+		}
+		if(oldVersion < 4) {
+			db.execSQL(QUERY_INDEX_TYPE_CREATE);
+		}
+	}
+	
+	/**
+	 * Persists changes to the CueSense cues
+	 * Note: reloads came from the database, so there's nothing to write
+	 */
+	@Override
+	public void onCuesChanged(CueRepository.ChangeSet changes) {
+		for(CueRepository.Change change : changes.changes()) {
+			switch(change.kind()) {
+			case INSERT:
+				addCueItem(change.item());
+				break;
+			case UPDATE:
+				updateCueItem(change.item());
+				break;
+			case REMOVE:
+				deleteCueItem(change.item());
+				break;
+			}
+		}
 	}
 	
 	/**
 	 * Adds a CueItem to the database
 	 * @param item
+	 * The item is given its id right away, the write itself happens later.
 	 */
 	public void addCueItem(CueItem item) {
 		Log.d(TAG, "addCueItem()");
-		// Create WHERE clause
-		ContentValues values = new ContentValues();
-		values.put(COLUMN_ID, getNextId());
-		values.put(COLUMN_TYPE, item.type().value());
-		values.put(COLUMN_DATA, item.data());
-		values.put(COLUMN_ISCHECKED, true); // new item is checked by default
-		
-		// Write to the database
-		SQLiteDatabase db = getWritableDatabase();
-		long ret = db.insert(TABLE_CUESENSE, null, values);
-		if(ret == -1) {
-			Log.e(TAG, "addCueItem() failed");
+		synchronized (mPendingInserts) {
+			item.setId(getNextId());
+			// New item is checked by default
+			mPendingInserts.put(item.id(), new CueItem(item.id(), item.type(), item.data(), true));
+			schedulePendingWrite();
 		}
 	}
 	
 	/**
-	 * Returns the next valid id from the database
+	 * Returns the next valid id
 	 * @return
+	 * Note: called with mPendingInserts locked. An item added before the
+	 * writer thread has read the last id waits for it.
 	 */
 	private int getNextId() {
-		Log.d(TAG, "getNextId()");
-		SQLiteDatabase db = getReadableDatabase();
-		Cursor c = db.rawQuery(QUERY_NEXT_ID, null);
-		int id = 0;
-		if(c.moveToFirst()) {
-			id = c.getInt(0);
+		while(mLastId < 0) {
+			Log.i(TAG, "getNextId() waiting for the last id");
+			try {
+				mPendingInserts.wait();
+			} catch(InterruptedException e) {
+				Log.e(TAG, "getNextId() interrupted");
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		// Note: only if interrupted, which no caller does
+		if(mLastId < 0) loadLastId();
+		Log.d(TAG, "getNextId() " + (mLastId + 1));
+		return ++mLastId;
+	}
+	
+	/**
+	 * Reads the last id in use from the database, if it hasn't been read
+	 */
+	private void loadLastId() {
+		synchronized (mPendingInserts) {
+			if(mLastId >= 0) return;
+		}
+		int lastId = 0;
+		Cursor c = getReadableDatabase().rawQuery(QUERY_LAST_ID, null);
+		try {
+			while(c.moveToNext()) {
+				lastId = Math.max(lastId, c.getInt(0));
+			}
+		} finally {
+			c.close();
+		}
+		synchronized (mPendingInserts) {
+			if(mLastId < 0) mLastId = lastId;
+			mPendingInserts.notifyAll();
 		}
-		Log.d(TAG, "getNextId() " + id);
-		return id + 1;
 	}
 	
 	/**
 	 * Updates an existing CueItem in the database
 	 * @param item
+	 * Repeated updates to the same item are written once.
 	 */
 	public void updateCueItem(CueItem item) {
 		Log.d(TAG, "updateCueItem()");
-		// Create WHERE clause
-		ContentValues values = new ContentValues();
-		values.put(COLUMN_TYPE, item.type().value());
-		values.put(COLUMN_DATA, item.data());
-		values.put(COLUMN_ISCHECKED, item.isChecked());
-		
-		SQLiteDatabase db = getWritableDatabase();
-		long ret = db.update(TABLE_CUESENSE, values, QUERY_UPDATE_WHERE, new String[] { String.valueOf(item.id()) });
-		if(ret == -1) {
-			Log.e(TAG, "updateCueItem() no update");
-		} else {
-			Log.i(TAG, "entries updated: " + ret);
+		CueItem copy = new CueItem(item.id(), item.type(), item.data(), item.isChecked());
+		synchronized (mPendingInserts) {
+			if(mPendingDeletes.contains(copy.id())) return;
+			// Fold the update into a pending insert, if any
+			if(mPendingInserts.containsKey(copy.id())) {
+				mPendingInserts.put(copy.id(), copy);
+			} else {
+				mPendingUpdates.put(copy.id(), copy);
+			}
+			schedulePendingWrite();
 		}
 	}
 	
@@ -154,13 +353,12 @@ public class DBHelper extends SQLiteOpenHelper {
 	 */
 	public void deleteCueItem(CueItem item) {
 		Log.d(TAG, "deleteCueItem()");
-		// Execute delete query
-		SQLiteDatabase db = getWritableDatabase();
-		long ret = db.delete(TABLE_CUESENSE, QUERY_DELETE_WHERE, new String[] { String.valueOf(item.id()) });
-		if(ret == -1) {
-			Log.e(TAG, "deleteCueItem() failed");
-		} else {
-			Log.i(TAG, "entries deleted: " + ret);
+		synchronized (mPendingInserts) {
+			mPendingUpdates.remove(item.id());
+			// An item that hasn't been written yet just needs to be forgotten
+			if(mPendingInserts.remove(item.id()) != null) return;
+			mPendingDeletes.add(item.id());
+			schedulePendingWrite();
 		}
 	}
 	
@@ -169,8 +367,219 @@ public class DBHelper extends SQLiteOpenHelper {
 	 */
 	public void deleteAll() {
 		Log.d(TAG, "deleteAll()");
-		SQLiteDatabase db = getWritableDatabase();
-		db.delete(TABLE_CUESENSE, null, null);
+		synchronized (mWriteLock) {
+			synchronized (mPendingInserts) {
+				clearPending();
+			}
+			SQLiteDatabase db = getWritableDatabase();
+			db.delete(TABLE_CUESENSE, null, null);
+		}
+	}
+	
+	/**
+	 * Writes pending changes as soon as possible without waiting for more
+	 * Called when the app goes to the background.
+	 */
+	public void flush() {
+		mWriterHandler.removeCallbacks(mFlushRunnable);
+		mWriterHandler.post(mFlushRunnable);
+	}
+	
+	/**
+	 * Schedules a write of pending changes
+	 * Note: called with mPendingInserts locked
+	 * The write is pushed back with every change, but not beyond MAX_WRITE_DELAY_MS
+	 * from the oldest pending change.
+	 */
+	private void schedulePendingWrite() {
+		long now = SystemClock.uptimeMillis();
+		if(mFirstPendingAt == 0) mFirstPendingAt = now;
+		long delay = Math.min(WRITE_DELAY_MS, mFirstPendingAt + MAX_WRITE_DELAY_MS - now);
+		mWriterHandler.removeCallbacks(mFlushRunnable);
+		mWriterHandler.postDelayed(mFlushRunnable, Math.max(0, delay));
+	}
+	
+	/**
+	 * Clears pending changes
+	 * Note: called with mPendingInserts locked
+	 */
+	private void clearPending() {
+		mPendingInserts.clear();
+		mPendingUpdates.clear();
+		mPendingDeletes.clear();
+		mPendingCacheClears.clear();
+		mFirstPendingAt = 0;
+		mWriterHandler.removeCallbacks(mFlushRunnable);
+	}
+	
+	/**
+	 * Writes pending changes in a single transaction
+	 * Called on the writer thread, and on the caller's thread before reads.
+	 */
+	private void flushPending() {
+		synchronized (mWriteLock) {
+			List<CueItem> inserts;
+			List<CueItem> updates;
+			List<Integer> deletes;
+			Map<InfoType, Long> cacheClears;
+			synchronized (mPendingInserts) {
+				if(mFirstPendingAt == 0) return;
+				cacheClears = new LinkedHashMap<InfoType, Long>(mPendingCacheClears);
+				inserts = new ArrayList<CueItem>(mPendingInserts.values());
+				updates = new ArrayList<CueItem>(mPendingUpdates.values());
+				deletes = new ArrayList<Integer>(mPendingDeletes);
+				clearPending();
+			}
+			Log.d(TAG, "flushPending() " + inserts.size() + "," + updates.size() + "," + deletes.size());
+			
+			SQLiteDatabase db = getWritableDatabase();
+			if(mInsertStatement == null) {
+				mInsertStatement = db.compileStatement(QUERY_INSERT);
+				mUpdateStatement = db.compileStatement(QUERY_UPDATE);
+				mDeleteStatement = db.compileStatement(QUERY_DELETE);
+			}
+			db.beginTransaction();
+			try {
+				for(Map.Entry<InfoType, Long> clear : cacheClears.entrySet()) {
+					String[] whereArgs = new String[] { String.valueOf(clear.getKey().value()) };
+					db.delete(TABLE_CUESENSE, QUERY_TYPE_WHERE, whereArgs);
+					if(clear.getValue() == 0) {
+						db.delete(TABLE_CACHE_META, QUERY_TYPE_WHERE, whereArgs);
+					} else {
+						db.execSQL(QUERY_CACHE_META_REPLACE,
+								new Object[] { clear.getKey().value(), CACHE_VERSION, clear.getValue() });
+					}
+				}
+				for(Integer id : deletes) {
+					mDeleteStatement.bindLong(1, id);
+					mDeleteStatement.executeUpdateDelete();
+				}
+				for(CueItem item : inserts) {
+					mInsertStatement.bindLong(1, item.id());
+					mInsertStatement.bindLong(2, item.type().value());
+					mInsertStatement.bindString(3, item.data());
+					mInsertStatement.bindLong(4, item.isChecked() ? 1 : 0);
+					if(mInsertStatement.executeInsert() == -1) {
+						Log.e(TAG, "insert failed " + item.id());
+					}
+				}
+				for(CueItem item : updates) {
+					mUpdateStatement.bindLong(1, item.type().value());
+					mUpdateStatement.bindString(2, item.data());
+					mUpdateStatement.bindLong(3, item.isChecked() ? 1 : 0);
+					mUpdateStatement.bindLong(4, item.id());
+					if(mUpdateStatement.executeUpdateDelete() == 0) {
+						Log.e(TAG, "no update " + item.id());
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+	
+	/**
+	 * Clears the cached cues of the specified type
+	 * @param type
+	 * Called when the user logs out.
+	 */
+	public void clearCachedItems(InfoType type) {
+		Log.d(TAG, "clearCachedItems() " + type);
+		queueCacheClear(type, 0);
+	}
+	
+	/**
+	 * Clears the cached cues of the specified type and records that the type
+	 * was fetched just now
+	 * @param type
+	 * Called when the first fresh cue of a type comes in. The fresh cues are
+	 * then added with addCueItem().
+	 */
+	public void startCacheRefresh(InfoType type) {
+		Log.d(TAG, "startCacheRefresh() " + type);
+		queueCacheClear(type, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Queues up a cache clear
+	 * @param type
+	 * @param fetchedAt
+	 */
+	private void queueCacheClear(InfoType type, long fetchedAt) {
+		synchronized (mPendingInserts) {
+			// Changes to cues of this type made so far are cleared anyway
+			Iterator<CueItem> it = mPendingInserts.values().iterator();
+			while(it.hasNext()) {
+				if(it.next().type() == type) it.remove();
+			}
+			it = mPendingUpdates.values().iterator();
+			while(it.hasNext()) {
+				if(it.next().type() == type) it.remove();
+			}
+			mPendingCacheClears.put(type, fetchedAt);
+			schedulePendingWrite();
+		}
+	}
+	
+	/**
+	 * Streams the cached cues of the specified type to the sink, unless they're
+	 * too old
+	 * @param type
+	 * @param sink
+	 * @return number of cues streamed
+	 */
+	public int streamCachedItems(InfoType type, CueItemSink sink) {
+		Log.d(TAG, "streamCachedItems() " + type);
+		flushPending();
+		Cursor cursor = getReadableDatabase().query(TABLE_CACHE_META,
+				new String[] { COLUMN_VERSION, COLUMN_FETCHED_AT },
+				QUERY_TYPE_WHERE,
+				new String[] { String.valueOf(type.value()) },
+				null,
+				null,
+				null);
+		boolean valid = false;
+		try {
+			if(cursor.moveToFirst()) {
+				long age = System.currentTimeMillis() - cursor.getLong(1);
+				valid = cursor.getInt(0) == CACHE_VERSION && age >= 0 && age < getCacheTTL(type);
+				Log.i(TAG, "cache " + type + " age " + age + "ms, valid=" + valid);
+			}
+		} finally {
+			cursor.close();
+		}
+		if(!valid) {
+			// Don't keep old cues around
+			clearCachedItems(type);
+			return 0;
+		}
+		return streamItems(type, sink);
+	}
+	
+	/**
+	 * Returns the time for which cached cues of the specified type are used
+	 * @param type
+	 * @return
+	 */
+	private static long getCacheTTL(InfoType type) {
+		switch(type) {
+		case INFO_FACEBOOK: return CACHE_TTL_FACEBOOK_MS;
+		case INFO_TWITTER: return CACHE_TTL_TWITTER_MS;
+		default: return 0;
+		}
+	}
+	
+	/**
+	 * Interface for receiving CueItems read from the database a page at a time
+	 */
+	public interface CueItemSink {
+		/**
+		 * Handle a page of CueItems
+		 * Note: the list is reused for the next page, so the items have to be
+		 * copied out of it
+		 */
+		void onCueItems(List<CueItem> items);
 	}
 	
 	/**
@@ -180,33 +589,74 @@ public class DBHelper extends SQLiteOpenHelper {
 	 */
 	public List<CueItem> getItems(InfoType type) {
 		Log.d(TAG, "getItems() " + type);
+		final List<CueItem> result = new ArrayList<CueItem>();
+		streamItems(type, new CueItemSink() {
+			@Override
+			public void onCueItems(List<CueItem> items) {
+				result.addAll(items);
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Streams CueItems of type InfoType to the sink, newest first, a page at
+	 * a time
+	 * @param type
+	 * @param sink
+	 * @return number of CueItems streamed
+	 * Each page is a separate indexed query that continues from the last id
+	 * of the previous page, so that a large table is never held in memory or
+	 * in a single cursor window.
+	 */
+	public int streamItems(InfoType type, CueItemSink sink) {
+		Log.d(TAG, "streamItems() " + type);
+		// Make sure pending changes are visible to the query
+		flushPending();
 		SQLiteDatabase db = getReadableDatabase();
 		
-		// Execute query and get a cursor
-		Cursor cursor = db.query(TABLE_CUESENSE,
-                ALL_COLUMNS,
-                "type = " + type.value(),
-                null,
-                null,
-                null,
-                COLUMN_ID + " DESC");
-		
-		// Fill a list with data from the cursor
-		final int idIdx = cursor.getColumnIndex(COLUMN_ID);
-		final int typeIdx = cursor.getColumnIndex(COLUMN_TYPE);
-        final int dataIdx = cursor.getColumnIndex(COLUMN_DATA);
-        final int isCheckedIdx = cursor.getColumnIndex(COLUMN_ISCHECKED);
-        
-        List<CueItem> result = new ArrayList<CueItem>();
-        while(cursor.moveToNext()) {
-            CueItem item = new CueItem();
-            item.setId(cursor.getInt(idIdx));
-            item.setType(InfoType.toInfoType(cursor.getInt(typeIdx)));
-            item.setData(cursor.getString(dataIdx));
-            item.setChecked((cursor.getInt(isCheckedIdx) == 0 ? Boolean.FALSE : Boolean.TRUE));
-            result.add(item);
-        }
-		Log.d(TAG, "getItems() " + result.size());
-		return result;
+		final String typeArg = String.valueOf(type.value());
+		final String limit = String.valueOf(PAGE_SIZE);
+		List<CueItem> page = new ArrayList<CueItem>(PAGE_SIZE);
+		long lastId = Long.MAX_VALUE;
+		int total = 0;
+		while(true) {
+			// Execute query and get a cursor
+			Cursor cursor = db.query(TABLE_CUESENSE,
+	                ALL_COLUMNS,
+	                QUERY_TYPE_PAGE_WHERE,
+	                new String[] { typeArg, String.valueOf(lastId) },
+	                null,
+	                null,
+	                COLUMN_ID + " DESC",
+	                limit);
+			try {
+				// Fill the page with data from the cursor
+				final int idIdx = cursor.getColumnIndex(COLUMN_ID);
+				final int typeIdx = cursor.getColumnIndex(COLUMN_TYPE);
+		        final int dataIdx = cursor.getColumnIndex(COLUMN_DATA);
+		        final int isCheckedIdx = cursor.getColumnIndex(COLUMN_ISCHECKED);
+		        
+		        while(cursor.moveToNext()) {
+		            CueItem item = new CueItem();
+		            item.setId(cursor.getInt(idIdx));
+		            item.setType(InfoType.toInfoType(cursor.getInt(typeIdx)));
+		            item.setData(cursor.getString(dataIdx));
+		            item.setChecked((cursor.getInt(isCheckedIdx) == 0 ? Boolean.FALSE : Boolean.TRUE));
+		            page.add(item);
+		        }
+			} finally {
+				cursor.close();
+			}
+			if(page.isEmpty()) break;
+			total += page.size();
+			lastId = page.get(page.size() - 1).id();
+			boolean lastPage = page.size() < PAGE_SIZE;
+			sink.onCueItems(page);
+			page.clear();
+			if(lastPage) break;
+		}
+		Log.d(TAG, "streamItems() " + total);
+		return total;
 	}
 }
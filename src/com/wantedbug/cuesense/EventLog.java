@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Low-overhead recorder of events on the hot paths
+ * @author vikasprabhu
+ * Used instead of android.util.Log where logging would happen per byte, per
+ * loop or per cue. An event is a fixed-size record of its type, time, thread
+ * and two numbers, written into a preallocated ring buffer holding the last
+ * CAPACITY events. Nothing is formatted or allocated until the buffer is
+ * dumped, and events below the current level aren't recorded at all.
+ * The buffer is dumped on demand from the debug screen and when the app
+ * crashes, once installCrashHandler() has been called.
+ * Note: a record being written or overwritten while it's being dumped is left
+ * out, by checking its sequence number before and after reading it
+ */
+public class EventLog {
+	// Debugging
+	private static final String TAG = "EventLog";
+
+	/**
+	 * Recorded events, with their level and how to show their numbers
+	 */
+	public enum Event {
+		WEARABLE_READ(Log.VERBOSE, "wearable read %d bytes, ready=%d"),
+		WEARABLE_WRITE(Log.DEBUG, "wearable write %d bytes, ready=%d"),
+		PEER_AVAILABLE(Log.VERBOSE, "peer available %d bytes, connected=%d"),
+		PEER_READ(Log.VERBOSE, "peer read %d bytes, %d in total"),
+		PEER_WRITE(Log.DEBUG, "peer write %d bytes, %d compressed"),
+		FIX_RAW_DATA_TRY(Log.VERBOSE, "fixRawData try at length %d of %d"),
+		MATCH_STARTED(Log.DEBUG, "match started, %d peer cues, distance %d"),
+		MATCH_FOUND(Log.DEBUG, "match found, cue %d, similarity %d/1000"),
+		MATCH_DONE(Log.INFO, "match done, %d matched cues, distance %d"),
+		COMMON_FRIENDS(Log.INFO, "common friends %d of %d"),
+		NEXT_CUE(Log.VERBOSE, "next cue %d, type %d");
+
+		private final int mLevel;
+		private final String mFormat;
+
+		Event(int level, String format) {
+			mLevel = level;
+			mFormat = format;
+		}
+	}
+
+	/**
+	 * Constants
+	 */
+	// Number of events kept, a power of 2
+	private static final int CAPACITY = 4096;
+	private static final int MASK = CAPACITY - 1;
+	private static final String[] LEVEL_NAMES = { "", "", "V", "D", "I", "W", "E", "A" };
+
+	/**
+	 * Members
+	 */
+	// Events below this level aren't recorded
+	private static volatile int sLevel = MainActivity.DEBUG ? Log.DEBUG : Log.INFO;
+	// Sequence number of the next event
+	private static final AtomicLong sNext = new AtomicLong();
+	// The ring buffer, one array per field
+	// Note: sSeqs is written first and last and tells whether a slot holds the
+	// event expected, -1 while it's being written
+	private static final AtomicLongArray sSeqs = new AtomicLongArray(CAPACITY);
+	private static final long[] sTimes = new long[CAPACITY];
+	private static final long[] sThreads = new long[CAPACITY];
+	private static final int[] sEvents = new int[CAPACITY];
+	private static final long[] sArgs1 = new long[CAPACITY];
+	private static final long[] sArgs2 = new long[CAPACITY];
+	static {
+		for(int i = 0; i < CAPACITY; ++i) sSeqs.set(i, -1);
+	}
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private EventLog() { }
+
+	/**
+	 * Sets the lowest level recorded
+	 * @param level one of the android.util.Log levels
+	 */
+	public static void setLevel(int level) {
+		sLevel = level;
+	}
+
+	/**
+	 * Returns true if an event would be recorded
+	 * @param event
+	 * @return
+	 */
+	public static boolean isEnabled(Event event) {
+		return event.mLevel >= sLevel;
+	}
+
+	/**
+	 * Records an event
+	 * @param event
+	 * @param arg1
+	 * @param arg2
+	 */
+	public static void record(Event event, long arg1, long arg2) {
+		if(event.mLevel < sLevel) return;
+		long seq = sNext.getAndIncrement();
+		int i = (int) (seq & MASK);
+		// Note: a full volatile write, so that the marker can't be reordered
+		// after the field writes below. Only the final publish can be lazy.
+		sSeqs.set(i, -1);
+		sTimes[i] = System.currentTimeMillis();
+		sThreads[i] = Thread.currentThread().getId();
+		sEvents[i] = event.ordinal();
+		sArgs1[i] = arg1;
+		sArgs2[i] = arg2;
+		sSeqs.lazySet(i, seq);
+	}
+
+	/**
+	 * Writes the recorded events to a new file, oldest first
+	 * @param dir
+	 * @param name prefix of the file name
+	 * @return the file, or null if it couldn't be written
+	 */
+	public static File dump(File dir, String name) {
+		if(dir == null) return null;
+		File file = new File(dir, name + "-" + System.currentTimeMillis() + ".txt");
+		Writer writer = null;
+		try {
+			writer = new FileWriter(file);
+			dump(writer);
+			Log.i(TAG, "dumped to " + file);
+			return file;
+		} catch(IOException e) {
+			Log.e(TAG, "dump error " + e);
+			return null;
+		} finally {
+			if(writer != null) {
+				try {
+					writer.close();
+				} catch(IOException e) {
+					Log.e(TAG, "close error " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the recorded events, oldest first
+	 * Lines are "time thread level event: message", time in ms since the epoch.
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void dump(Writer writer) throws IOException {
+		Event[] events = Event.values();
+		long end = sNext.get();
+		for(long seq = Math.max(0, end - CAPACITY); seq < end; ++seq) {
+			int i = (int) (seq & MASK);
+			if(sSeqs.get(i) != seq) continue;
+			long time = sTimes[i], thread = sThreads[i], arg1 = sArgs1[i], arg2 = sArgs2[i];
+			int ordinal = sEvents[i];
+			// Skip the record if it was being written or has been overwritten
+			if(sSeqs.get(i) != seq || ordinal >= events.length) continue;
+			Event event = events[ordinal];
+			writer.write(time + " " + thread + " " + LEVEL_NAMES[event.mLevel] + " " +
+					event.name().toLowerCase(Locale.US) + ": " +
+					String.format(Locale.US, event.mFormat, arg1, arg2) + "\n");
+		}
+	}
+
+	/**
+	 * Dumps the events to the app's external files directory if the app crashes
+	 * @param context
+	 * The previous handler is called afterwards as usual.
+	 */
+	public static void installCrashHandler(Context context) {
+		final Context appContext = context.getApplicationContext();
+		final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+		if(previous instanceof CrashHandler) return;
+		Thread.setDefaultUncaughtExceptionHandler(new CrashHandler(appContext, previous));
+	}
+
+	/**
+	 * Dumps the events before passing an uncaught exception on
+	 */
+	private static final class CrashHandler implements Thread.UncaughtExceptionHandler {
+		private final Context mContext;
+		private final Thread.UncaughtExceptionHandler mPrevious;
+
+		CrashHandler(Context context, Thread.UncaughtExceptionHandler previous) {
+			mContext = context;
+			mPrevious = previous;
+		}
+
+		@Override
+		public void uncaughtException(Thread thread, Throwable ex) {
+			try {
+				dump(mContext.getExternalFilesDir(null), "events-crash");
+			} catch(RuntimeException e) {
+				Log.e(TAG, "crash dump error " + e);
+			}
+			if(mPrevious != null) mPrevious.uncaughtException(thread, ex);
+		}
+	}
+}
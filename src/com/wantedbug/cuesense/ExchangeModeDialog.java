@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v4.app.DialogFragment;
+
+/**
+ * Hidden debug dialog to choose what is sent to nearby users
+ * @author vikasprabhu
+ * Reachable from the overflow menu in debug builds only. A filter or sketches
+ * are only sent to users whose data says they understand them, see
+ * InfoPool.peerVersion().
+ */
+public class ExchangeModeDialog extends DialogFragment {
+	/**
+	 * Interface to handle a change of the exchange mode
+	 */
+	public interface ExchangeModeListener {
+		// Handle a newly chosen mode, one of MainActivity.EXCHANGE_*
+		void onExchangeModeChanged(int mode);
+	}
+	
+	ExchangeModeListener mListener;
+	final int mMode;
+	
+	public ExchangeModeDialog(int mode) {
+		mMode = mode;
+	}
+	
+	@Override
+	public void onAttach(Activity activity) {
+		super.onAttach(activity);
+		
+		if(!(activity instanceof ExchangeModeListener)) {
+			throw new RuntimeException("Activity must implement ExchangeModeListener interface!");
+		}
+		
+		mListener = (ExchangeModeListener) activity;
+	}
+	
+	@Override
+	public Dialog onCreateDialog(Bundle savedInstanceState) {
+		AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+		builder.setTitle(R.string.exchange_mode_dialog_title)
+		.setSingleChoiceItems(R.array.exchange_modes, mMode, new DialogInterface.OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				mListener.onExchangeModeChanged(which);
+				dialog.dismiss();
+			}
+		});
+		return builder.create();
+	}
+}
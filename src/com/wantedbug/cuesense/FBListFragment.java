@@ -6,12 +6,11 @@ package com.wantedbug.cuesense;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -26,13 +25,14 @@ import android.widget.SimpleExpandableListAdapter;
 import android.widget.TextView;
 
 import com.facebook.Request;
+import com.facebook.RequestBatch;
 import com.facebook.Response;
+import com.facebook.Response.PagingDirection;
 import com.facebook.Session;
 import com.facebook.SessionState;
 import com.facebook.UiLifecycleHelper;
-import com.facebook.model.GraphObject;
 import com.facebook.model.GraphUser;
-import com.wantedbug.cuesense.MainActivity.InfoType;
+import com.wantedbug.cuesense.FBProfileParser.Section;
 
 /**
  * Fragment that holds the list view of data from the user's Facebook profile 
@@ -46,8 +46,8 @@ public class FBListFragment extends ListFragment {
 	 * Interfaces
 	 */
 	public interface FacebookCueListener {
-		/** Handle addition of a new Facebook cue */
-		void onFacebookCueAdded(CueItem item);
+		/** Handle addition of new Facebook cues */
+		void onFacebookCuesAdded(List<CueItem> items);
 		
 		/**
 		 * Handle addition of a "special" Facebook cue
@@ -63,9 +63,12 @@ public class FBListFragment extends ListFragment {
 	/**
 	 * Constants
 	 */
-	private static final String ITEM_DATA = "CATEGORY";
+	static final String ITEM_DATA = "CATEGORY";
 	// Activity request code to update Session info
 	private static final int REAUTH_ACTIVITY_CODE = 100;
+	// Graph paths of the edges fetched along with /me
+	private static final String PATH_BOOKS = "/me/books.reads";
+	private static final String PATH_MUSIC = "/me/music";
 	
 	/**
 	 * Members
@@ -85,6 +88,11 @@ public class FBListFragment extends ListFragment {
 	// Expandable list data
 	List<Map<String, String>> mGroupData = new ArrayList<Map<String, String>>();
 	List<List<Map<String, String>>> mChildData = new ArrayList<List<Map<String, String>>>();
+	// Children of each group by title, to add later pages to
+	private final Map<String, List<Map<String, String>>> mGroupChildren = new HashMap<String, List<Map<String, String>>>();
+	
+	// Caps and deduplication for the Facebook cues
+	private CueIngestor mIngestor;
 	
 	// Facebook session cached
 	private Session mSession;
@@ -99,12 +107,15 @@ public class FBListFragment extends ListFragment {
 	};
 	// Flag to check if data request has already been submitted to avoid duplication
 	private boolean mFBRequestSubmitted = false;
+	// Ongoing Graph batch fetch
+	private Future<?> mFetch;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		Log.d(TAG, "onCreate()");
 	    super.onCreate(savedInstanceState);
 	    mFBList = new ArrayList<CueItem>();
+	    mIngestor = CueIngestor.fromResources(getResources());
 	    mUiLifecycleHelper = new UiLifecycleHelper(getActivity(), mFBCallback);
 	    mUiLifecycleHelper.onCreate(savedInstanceState);
 	}
@@ -118,6 +129,9 @@ public class FBListFragment extends ListFragment {
 	    if(mSession != null && mSession.isClosed()) {
 	    	mGroupData.clear();
     		mChildData.clear();
+    		mGroupChildren.clear();
+    		mIngestor.reset();
+    		cancelFetch();
     		if(mAdapter != null) mAdapter.notifyDataSetChanged();
 	    	if(mListener != null) mListener.onFacebookLogout();
 	    } else {
@@ -142,6 +156,7 @@ public class FBListFragment extends ListFragment {
 	@Override
 	public void onDestroy() {
 		Log.d(TAG, "onDestroy()");
+		cancelFetch();
 	    super.onDestroy();
 	    mUiLifecycleHelper.onDestroy();
 	}
@@ -225,6 +240,9 @@ public class FBListFragment extends ListFragment {
 	    	} else if(session.isClosed()) {
 	    		mGroupData.clear();
 	    		mChildData.clear();
+	    		mGroupChildren.clear();
+	    		mIngestor.reset();
+	    		cancelFetch();
 	    		if(mAdapter != null) mAdapter.notifyDataSetChanged();
 	    		if(mListener!= null) mListener.onFacebookLogout();
 	    	}
@@ -232,470 +250,146 @@ public class FBListFragment extends ListFragment {
 	}
 	
 	/**
-	 * Make the /me request to the Facebook Graph API and get user info on
-	 * positive response
+	 * Make one Graph batch request for /me and its edges, and get user info
+	 * on positive response
 	 * @param session
-	 * This can turn out to be a time-consuming call and is therefore performed
-	 * in a RequestAsyncTask on the UI thread
+	 * The batch runs on the shared network pool, and the responses are parsed
+	 * there too. The results are then applied on the UI thread in one go.
 	 */
 	private void makeMeRequest(final Session session) {
 		Log.d(TAG, "makeMeRequest()");
-	    Request request = Request.newMeRequest(session, 
-	            new Request.GraphUserCallback() {
-	        @Override
-	        public void onCompleted(GraphUser user, Response response) {
-	            // If the response is successful
-	            if (session == Session.getActiveSession()) {
-	                if (user != null) {
-	                	getUserInfo(session, user);
-	                }
-	                TextView emptyMessage = (TextView) mView.findViewById(android.R.id.empty);
-	                emptyMessage.setText(R.string.fb_no_data);
-	            }
-	            if (response.getError() != null) {
-	                TextView emptyMessage = (TextView) mView.findViewById(android.R.id.empty);
-	                emptyMessage.setText(R.string.fb_data_error);
-	            }
-	        }
-	    });
-	    request.executeAsync();
+		final RequestBatch batch = new RequestBatch(
+				Request.newMeRequest(session, null),
+				Request.newGraphPathRequest(session, PATH_BOOKS, null),
+				Request.newGraphPathRequest(session, PATH_MUSIC, null));
+		mFetch = BackgroundExecutors.network().submit(new Runnable() {
+			@Override
+			public void run() {
+				List<Response> responses = batch.executeAndWait();
+				if(responses == null || responses.size() != batch.size()) {
+					Log.e(TAG, "makeMeRequest() batch failed");
+					return;
+				}
+				// Parse everything here, off the UI thread
+				Response meResponse = responses.get(0);
+				final boolean meFailed = meResponse.getError() != null;
+				GraphUser user = meFailed ? null : meResponse.getGraphObjectAs(GraphUser.class);
+				final List<Section> sections = new ArrayList<Section>();
+				if(user != null) sections.addAll(FBProfileParser.parseProfile(session, user, mIngestor));
+				FBProfileParser.addIfNotEmpty(sections, FBProfileParser.parseEdgePage(responses.get(1), FBProfileParser.GROUP_BOOKS, mIngestor));
+				FBProfileParser.addIfNotEmpty(sections, FBProfileParser.parseEdgePage(responses.get(2), FBProfileParser.GROUP_MUSIC, mIngestor));
+				if(!postToUi(session, new Runnable() {
+					@Override
+					public void run() {
+						applySections(sections);
+						TextView emptyMessage = (TextView) mView.findViewById(android.R.id.empty);
+						emptyMessage.setText(meFailed ? R.string.fb_data_error : R.string.fb_no_data);
+					}
+				})) return;
+				
+				// Page through the edges that have more
+				fetchNextPages(session, responses.get(1), FBProfileParser.GROUP_BOOKS);
+				fetchNextPages(session, responses.get(2), FBProfileParser.GROUP_MUSIC);
+			}
+		});
 	}
 	
 	/**
-	 * Helper function to populate the list with user data
-	 * @param session 
-	 * @param user 
+	 * Runs the action on the UI thread if the session is still the active one
+	 * @param session
+	 * @param action
+	 * @return false if the fetch should stop
 	 */
-	protected void getUserInfo(Session session, GraphUser user) {
-		Log.d(TAG, "getUserInfo()");
-		int numChildrenAdded = 0;
-		// Go through all the data returned in the /me request
-		/** BOOKS */
-		if(session.isPermissionGranted("user_actions.books")) {
-			// Life is going to easy if this permission is granted in the future
-		} else {
-			Log.i(TAG, "getUserInfo() Books permission NOT granted");
-			// Try with a Graph path request
-			Request.newGraphPathRequest(session, "/me/books.reads", mBooksResponseCallback).executeAsync();
-		}
-		
-//		/** MUSIC */
-//		// Try with permissions
-//		if(session.isPermissionGranted("user_actions.music")) {
-//			// Life is going to easy if this permission is granted in the future
-//		} else {
-//			Log.i(TAG, "getUserInfo() Music permission NOT granted");
-//			// Try with a Graph path request
-//			Request.newGraphPathRequest(session, "/me/music", mMusicResponseCallback).executeAsync();
-//		}
-		
-		/** INSPIRATIONAL PEOPLE */
-		JSONArray peopleJSONArray = (JSONArray) user.getProperty("inspirational_people");
-		if(peopleJSONArray != null && peopleJSONArray.length() > 0 ) {
-			/** 1. Add the list item header to the list view */
-			Map<String, String> peopleGroupMap = new HashMap<String, String>();
-			peopleGroupMap.put(ITEM_DATA, "Inspirational people");
-			/** 2. Get the children from the JSON response */
-			List<Map<String, String>> peopleList = new ArrayList<Map<String, String>>();
-			numChildrenAdded = 0;
-			for (int j = 0; j < peopleJSONArray.length() && j < 20; ++j) {
-				try {
-					JSONObject personJSON = peopleJSONArray.getJSONObject(j);
-					if(personJSON.has("name")) {
-						Map<String, String> personChild = new HashMap<String, String>();
-						personChild.put(ITEM_DATA, personJSON.getString("name"));
-						peopleList.add(personChild);
-						CueItem personItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I'm inspired by " + personJSON.getString("name"), true);
-						mFBList.add(personItem);
-						mListener.onFacebookCueAdded(personItem);
-						++numChildrenAdded;
-					} else {
-						Log.e(TAG, "getUserInfo() Inspirational people[" + j + "] no name");
-					}
-				} catch(JSONException e) {
-					Log.e(TAG, "getUserInfo() Inspirational people[" + j + "] extraction error");
-				}
-			}
-			/** 3. Add the list item's children to the list view */
-			if(numChildrenAdded > 0) {
-				mGroupData.add(peopleGroupMap);
-				mChildData.add(peopleList);
-				// Notify that the list contents have changed
-			    mAdapter.notifyDataSetChanged();
-			} else {
-				Log.e(TAG, "getUserInfo() Inspirational people extraction error");
+	private boolean postToUi(final Session session, final Runnable action) {
+		Activity activity = getActivity();
+		if(activity == null || Thread.currentThread().isInterrupted()) return false;
+		activity.runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				if(session != Session.getActiveSession() || !isAdded()) return;
+				action.run();
 			}
-		} else {
-			Log.e(TAG, "getUserInfo() Inspirational people list empty");
-		}
-		
-		/** FAVOURITE SPORTS TEAMS */
-		JSONArray teamsJSONArray = (JSONArray) user.getProperty("favorite_teams");
-		if(teamsJSONArray != null && teamsJSONArray.length() > 0 ) {
-			/** 1. Add the list item header to the list view */
-			Map<String, String> teamsGroupMap = new HashMap<String, String>();
-			teamsGroupMap.put(ITEM_DATA, "Sports teams");
-			/** 2. Get the children from the JSON response */
-			List<Map<String, String>> teamsList = new ArrayList<Map<String, String>>();
-			numChildrenAdded = 0;
-			for (int j = 0; j < teamsJSONArray.length() && j < 20; ++j) {
-				try {
-					JSONObject teamJSON = teamsJSONArray.getJSONObject(j);
-					if(teamJSON.has("name")) {
-						Map<String, String> teamChild = new HashMap<String, String>();
-						teamChild.put(ITEM_DATA, teamJSON.getString("name"));
-						teamsList.add(teamChild);
-						CueItem teamItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I like " + teamJSON.getString("name"), true);
-						mFBList.add(teamItem);
-						mListener.onFacebookCueAdded(teamItem);
-						++numChildrenAdded;
-					} else {
-						Log.e(TAG, "getUserInfo() Sports teams[" + j + "] no name");
-					}
-				} catch(JSONException e) {
-					Log.e(TAG, "getUserInfo() Sports teams[" + j + "] extraction error");
-				}
-			}
-			/** 3. Add the list item's children to the list view */
-			if(numChildrenAdded > 0) {
-				mGroupData.add(teamsGroupMap);
-				mChildData.add(teamsList);
-				// Notify that the list contents have changed
-			    mAdapter.notifyDataSetChanged();
-			} else {
-				Log.e(TAG, "getUserInfo() Sports teams extraction error");
-			}
-		} else {
-			Log.e(TAG, "getUserInfo() Sports teams list empty");
+		});
+		return true;
+	}
+	
+	/**
+	 * Cancels the ongoing fetch, if any
+	 */
+	private void cancelFetch() {
+		if(mFetch != null) {
+			mFetch.cancel(true);
+			mFetch = null;
 		}
-		
-		/** EDUCATION */
-		if(session.isPermissionGranted("user_education_history")) {
-			JSONArray schoolsJSON = (JSONArray)user.getProperty("education");
-			if(schoolsJSON != null && schoolsJSON.length() > 0) {
-				/** 1. Add the list item header to the list view */
-				Map<String, String> educationGroupMap = new HashMap<String, String>();
-				educationGroupMap.put(ITEM_DATA, "Education");
-				/** 2. Get the children from the JSON response */
-				List<Map<String, String>> schoolsList = new ArrayList<Map<String, String>>();
-				numChildrenAdded = 0;
-				// Add all schools as children
-				for (int j = 0; j < schoolsJSON.length() && j < 20; ++j) {
-					try {
-						JSONObject schoolJSON = schoolsJSON.getJSONObject(j);
-						JSONObject school = schoolJSON.getJSONObject("school");
-						Map<String, String> schoolChild = new HashMap<String, String>();
-						schoolChild.put(ITEM_DATA, school.getString("name"));
-						schoolsList.add(schoolChild);
-						CueItem schoolItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I studied at " + school.getString("name"), true);
-						mFBList.add(schoolItem);
-						mListener.onFacebookCueAdded(schoolItem);
-						++numChildrenAdded;
-					} catch(JSONException e) {
-						Log.e(TAG, "getUserInfo() School[" + j + "] extraction error");
-					}
-				}
-				/** 3. Add the list item's children to the list view */
-				if(numChildrenAdded > 0) {
-					mGroupData.add(educationGroupMap);
-					mChildData.add(schoolsList);
-					// Notify that the list contents have changed
-				    mAdapter.notifyDataSetChanged();
-				} else {
-					Log.e(TAG, "getUserInfo() Education extraction error");
-				}
-			} else {
-				Log.e(TAG, "getUserInfo() Education list empty");
-			}
-		} else {
-			Log.i(TAG, "getUserInfo() Education permission NOT granted");
+	}
+	
+	/**
+	 * Applies parsed sections to the list view and passes their cues on to the listener
+	 * @param sections
+	 * All the sections go in with one adapter notification. Groups that already
+	 * exist get the new children appended, and groups that were expanded stay
+	 * expanded even when new groups are inserted above them.
+	 */
+	private void applySections(List<Section> sections) {
+		if(sections.isEmpty()) return;
+		// Remember the expanded groups by title, as their positions may shift
+		Set<String> expanded = new HashSet<String>();
+		for(int i = 0; mListView != null && i < mGroupData.size(); ++i) {
+			if(mListView.isGroupExpanded(i)) expanded.add(mGroupData.get(i).get(ITEM_DATA));
 		}
 		
-		/** WORK HISTORY */
-		if(session.isPermissionGranted("user_work_history")) {
-			JSONArray companiesJSON = (JSONArray)user.getProperty("work");
-			if(companiesJSON != null && companiesJSON.length() > 0) {
-				/** 1. Add the list item header to the list view */
-				Map<String, String> workGroupMap = new HashMap<String, String>();
-				workGroupMap.put(ITEM_DATA, "Work history");
-				/** 2. Get the children from the JSON response */
-				List<Map<String, String>> companiesList = new ArrayList<Map<String, String>>();
-				numChildrenAdded = 0;
-				// Add all companies as children
-				for (int j = 0; j < companiesJSON.length() && j < 20; ++j) {
-					JSONObject companyJSON = companiesJSON.optJSONObject(j);
-					try {
-						JSONObject company = companyJSON.getJSONObject("employer");
-						Map<String, String> companyChild = new HashMap<String, String>();
-						companyChild.put(ITEM_DATA, company.getString("name"));
-						companiesList.add(companyChild);
-						CueItem companyItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I worked at " + company.getString("name"), true);
-						mFBList.add(companyItem);
-						mListener.onFacebookCueAdded(companyItem);
-						++numChildrenAdded;
-					} catch(JSONException e) {
-						Log.e(TAG, "getUserInfo() Work [" + j + "] extraction error" + e);
-					}
-				}
-				/** 3. Add the list item's children to the list view */
-				if(numChildrenAdded > 0) {
-					mGroupData.add(workGroupMap);
-					mChildData.add(companiesList);
-					// Notify that the list contents have changed
-				    mAdapter.notifyDataSetChanged();
-				} else {
-					Log.e(TAG, "getUserInfo() Work extraction error");
-				}
+		List<CueItem> items = new ArrayList<CueItem>();
+		List<CueItem> priorityItems = new ArrayList<CueItem>();
+		for(Section section : sections) {
+			List<Map<String, String>> children = mGroupChildren.get(section.title);
+			if(children == null) {
+				children = new ArrayList<Map<String, String>>(section.children);
+				mGroupChildren.put(section.title, children);
+				Map<String, String> groupMap = new HashMap<String, String>();
+				groupMap.put(ITEM_DATA, section.title);
+				// Priority groups go on top
+				int pos = section.priority ? 0 : mGroupData.size();
+				mGroupData.add(pos, groupMap);
+				mChildData.add(pos, children);
 			} else {
-				Log.e(TAG, "getUserInfo() Work list empty");
+				children.addAll(section.children);
 			}
-		} else {
-			Log.e(TAG, "getUserInfo() Work permission NOT granted");
+			mFBList.addAll(section.cues);
+			(section.priority ? priorityItems : items).addAll(section.cues);
 		}
-		
-		/** LANGUAGES */
-		JSONArray languages = (JSONArray) user.getProperty("languages");
-		if (languages != null && languages.length() > 0) {
-			/** 1. Add the list item header to the list view */
-			Map<String, String> languageGroupMap = new HashMap<String, String>();
-			languageGroupMap.put(ITEM_DATA, "Languages");
-			/** 2. Get the children from the JSON response */
-			List<Map<String, String>> languagesList = new ArrayList<Map<String, String>>();
-			numChildrenAdded = 0;
-			for (int i = 0; i < languages.length() && i < 20; i++) {
-				JSONObject languageJSON = null;
-				try {
-					languageJSON = languages.getJSONObject(i);
-				} catch(JSONException e) {
-					Log.e(TAG, "getUserInfo() Language[" + i + "] extraction error" + e);
-					continue;
-				}
-				Map<String, String> languageChild = new HashMap<String, String>();
-				languageChild.put(ITEM_DATA, languageJSON.optString("name"));
-				languagesList.add(languageChild);
-				CueItem languageItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I speak " + languageJSON.optString("name"), true);
-				mFBList.add(languageItem);
-				mListener.onFacebookCueAdded(languageItem);
-				++numChildrenAdded;
-			}
-			/** 3. Add the list item's children to the list view */
-			if(numChildrenAdded > 0) {
-				mGroupData.add(languageGroupMap);
-				mChildData.add(languagesList);
-				// Notify that the list contents have changed
-			    mAdapter.notifyDataSetChanged();
-			} else {
-				Log.e(TAG, "getUserInfo() Languages extraction error");
+		// Notify that the list contents have changed
+		if(mAdapter != null) mAdapter.notifyDataSetChanged();
+		for(int i = 0; mListView != null && i < mGroupData.size(); ++i) {
+			boolean shouldExpand = expanded.contains(mGroupData.get(i).get(ITEM_DATA));
+			if(shouldExpand != mListView.isGroupExpanded(i)) {
+				if(shouldExpand) mListView.expandGroup(i); else mListView.collapseGroup(i);
 			}
-		} else {
-			Log.e(TAG, "getUserInfo() Languages list empty");
 		}
 		
-		/** PERSONAL DETAILS */
-		/** 1. Add the list item header to the list view */
-		Map<String, String> aboutMeGroupMap = new HashMap<String, String>();
-		aboutMeGroupMap.put(ITEM_DATA, "About me");
-		List<Map<String, String>> aboutMeList = new ArrayList<Map<String, String>>();
-		numChildrenAdded = 0;
-		/** BIRTHDAY */
-		if(session.isPermissionGranted("user_birthday")) {
-			if(!user.getBirthday().isEmpty()) {
-				/** 2. Get the children from the JSON response */
-				// Child 2: the birthday month
-				int month = Integer.parseInt(user.getBirthday().substring(0, 2));
-				String bdayMonth = "";
-				switch(month) {
-				case 1: bdayMonth = "January"; break;
-				case 2: bdayMonth = "February"; break;
-				case 3: bdayMonth = "March"; break;
-				case 4: bdayMonth = "April"; break;
-				case 5: bdayMonth = "May"; break;
-				case 6: bdayMonth = "June"; break;
-				case 7: bdayMonth = "July"; break;
-				case 8: bdayMonth = "August"; break;
-				case 9: bdayMonth = "September"; break;
-				case 10: bdayMonth = "October"; break;
-				case 11: bdayMonth = "November"; break;
-				case 12: bdayMonth = "December"; break;
-				}
-				Map<String, String> birthdayMonth = new HashMap<String, String>();
-				birthdayMonth.put(ITEM_DATA, "Born in " + bdayMonth);
-				aboutMeList.add(birthdayMonth);
-				++numChildrenAdded;
-				CueItem birthdayMonthItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "Born in " + bdayMonth, true);
-				mFBList.add(birthdayMonthItem);
-				mListener.onFacebookCueAdded(birthdayMonthItem);
-			} else {
-				Log.e(TAG, "getUserInfo() Birthday field empty");
-			}
-		} else {
-			Log.i(TAG, "getUserInfo() Birthday permission NOT granted");
-		}
-		/** HOMETOWN */
-		if(session.isPermissionGranted("user_hometown")) {
-			JSONObject hometownJSON = (JSONObject)user.getProperty("hometown");
-			if(hometownJSON != null && hometownJSON.has("name")) {
-				/** 2. Get the children from the JSON response */
-				Map<String, String> hometownChild = new HashMap<String, String>();
-				hometownChild.put(ITEM_DATA, hometownJSON.optString("name"));
-				aboutMeList.add(hometownChild);
-				CueItem hometownItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I'm from " + hometownJSON.optString("name"), true);
-				mFBList.add(hometownItem);
-				mListener.onFacebookCueAdded(hometownItem);
-				++numChildrenAdded;
-			} else {
-				Log.e(TAG, "getUserInfo() Hometown field empty");
-			}
-		} else {
-			Log.e(TAG, "getUserInfo() Hometown permission NOT granted");
-		}
-		/** 3. Add the list item's children to the list view */
-		if(numChildrenAdded > 0) {
-			mGroupData.add(aboutMeGroupMap);
-			mChildData.add(aboutMeList);
-			// Notify that the list contents have changed
-		    mAdapter.notifyDataSetChanged();
-		}
+		if(!items.isEmpty()) mListener.onFacebookCuesAdded(items);
+		if(!priorityItems.isEmpty()) mListener.onFacebookPriorityCuesAdded(priorityItems);
 	}
 	
 	/**
-	 * Callback to handle /me/books.reads response
-	 */
-	private Request.Callback mBooksResponseCallback =  new Request.Callback() {
-		@Override
-		public void onCompleted(Response response) {
-			if(response.getError() == null) {
-				// response.getRequestForPagedResults(PagingDirection.NEXT);
-				String rawResponse = response.getRawResponse();
-				if(!rawResponse.isEmpty()) {
-					GraphObject responseGraphObject = response.getGraphObject();
-					JSONObject json = responseGraphObject.getInnerJSONObject();
-					if(json.has("data")) {
-						JSONArray booksJSON = null;
-						try {
-							booksJSON = json.getJSONArray("data");
-						} catch(JSONException e) {
-							Log.e(TAG, "getUserInfo() Books array extraction error " + e);
-							return;
-						}
-						/** 1. Add the list item header to the list view */
-						Map<String, String> booksGroupMap = new HashMap<String, String>();
-						booksGroupMap.put(ITEM_DATA, "Books");
-						/** 2. Get the children from the JSON response */
-						List<Map<String, String>> booksChildrenList = new ArrayList<Map<String, String>>();
-						int numChildrenAdded = 0;
-						for(int i = 0; i < booksJSON.length() && i < 20; ++i) {
-							JSONObject bookData = null;
-							try {
-								bookData = booksJSON.getJSONObject(i).getJSONObject("data").getJSONObject("book");
-								if(bookData.has("title")) {
-									Map<String, String> bookChild = new HashMap<String, String>();
-									bookChild.put(ITEM_DATA, bookData.getString("title"));
-									booksChildrenList.add(bookChild);
-									++numChildrenAdded;
-								} else {
-									Log.e(TAG, "getUserInfo() Books[" + i + "] no title");
-								}
-							} catch(JSONException e) {
-								Log.e(TAG, "getUserInfo() Books[" + i + "] extraction error " + e);
-							}
-						}
-						/** 3. Add the list item's children to the list view */
-						if(numChildrenAdded > 0) {
-							mGroupData.add(0, booksGroupMap);
-							mChildData.add(0, booksChildrenList);
-							List<CueItem> items = new ArrayList<CueItem>();
-							for(int i = 0; i < numChildrenAdded; ++i) {
-								CueItem bookItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I like " + booksChildrenList.get(i).get(ITEM_DATA), true);
-								mFBList.add(bookItem);
-								items.add(bookItem);
-							}
-							mListener.onFacebookPriorityCuesAdded(items);
-							// Notify list adapter here since this is an async task
-							mAdapter.notifyDataSetChanged();
-						} else {
-							Log.e(TAG, "getUserInfo() Books extraction error ");
-						}
-					} else {
-						Log.e(TAG, "getUserInfo() Books data empty");
-					}
-				} else {
-					Log.e(TAG, "getUserInfo() Books path response empty");
-				}
-			} else {
-				Log.e(TAG, "getUserInfo() Books path error " + response.getError());
-			}
-		}
-	};
-	
-	/**
-	 * Callback to handle /me/music response
+	 * Fetches and parses the further pages of an edge until its group is full
+	 * @param session
+	 * @param response first page
+	 * @param title group of the edge
+	 * Note: runs on a network pool thread
 	 */
-	private Request.Callback mMusicResponseCallback = new Request.Callback() {
-		@Override
-		public void onCompleted(Response response) {
-			if(response.getError() == null) {
-				// response.getRequestForPagedResults(PagingDirection.NEXT);
-				String rawResponse = response.getRawResponse();
-				if(!rawResponse.isEmpty()) {
-					GraphObject responseGraphObject = response.getGraphObject();
-					JSONObject json = responseGraphObject.getInnerJSONObject();
-					if(json.has("data")) {
-						JSONArray musicJSON = null;
-						try {
-							musicJSON = json.getJSONArray("data");
-						} catch(JSONException e) {
-							Log.e(TAG, "getUserInfo() Music array extraction error " + e);
-							return;
-						}
-						/** 1. Add the list item header to the list view */
-						Map<String, String> musicGroupMap = new HashMap<String, String>();
-						musicGroupMap.put(ITEM_DATA, "Music");
-						/** 2. Get the children from the JSON response */
-						List<Map<String, String>> musicChildrenList = new ArrayList<Map<String, String>>();
-						int numChildrenAdded = 0;
-						for(int i = 0; i < musicJSON.length() && i < 20; ++i) {
-							JSONObject musicData = null;
-							try {
-								musicData = musicJSON.getJSONObject(i);
-								if(musicData.has("name")) {
-									Map<String, String> musicChild = new HashMap<String, String>();
-									musicChild.put(ITEM_DATA, musicData.getString("name"));
-									musicChildrenList.add(musicChild);
-									++numChildrenAdded;
-								} else {
-									Log.e(TAG, "getUserInfo() Music[" + i + "] no name");
-								}
-							} catch(JSONException e) {
-								Log.e(TAG, "getUserInfo() Music[" + i + "] extraction error" + e);
-							}
-						}
-						/** 3. Add the list item's children to the list view */
-						if(numChildrenAdded > 0) {
-							mGroupData.add(0, musicGroupMap);
-							mChildData.add(0, musicChildrenList);
-							List<CueItem> items = new ArrayList<CueItem>();
-							for(int i = 0; i < numChildrenAdded; ++i) {
-								CueItem musicItem = new CueItem(-1, InfoType.INFO_FACEBOOK, "I like " + musicChildrenList.get(i).get(ITEM_DATA), true);
-								mFBList.add(musicItem);
-								items.add(musicItem);
-							}
-							mListener.onFacebookPriorityCuesAdded(items);
-							// Notify list adapter here since this is an async task
-							mAdapter.notifyDataSetChanged();
-						} else {
-							Log.e(TAG, "getUserInfo() Music extraction error");
-						}
-					} else {
-						Log.e(TAG, "getUserInfo() Music list null");
-					}
-				} else {
-					Log.e(TAG, "getUserInfo() Music path response empty");
+	private void fetchNextPages(Session session, Response response, String title) {
+		while(response.getError() == null && !mIngestor.isCategoryFull(title)) {
+			Request nextRequest = response.getRequestForPagedResults(PagingDirection.NEXT);
+			if(nextRequest == null) return;
+			response = nextRequest.executeAndWait();
+			final List<Section> sections = new ArrayList<Section>(1);
+			FBProfileParser.addIfNotEmpty(sections, FBProfileParser.parseEdgePage(response, title, mIngestor));
+			if(!postToUi(session, new Runnable() {
+				@Override
+				public void run() {
+					applySections(sections);
 				}
-			} else {
-				Log.e(TAG, "Music path error " + response.getError());
-			}
+			})) return;
 		}
-	};
-	
+	}
 }
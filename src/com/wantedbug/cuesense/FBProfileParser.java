@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+import com.facebook.Response;
+import com.facebook.Session;
+import com.facebook.model.GraphObject;
+import com.facebook.model.GraphUser;
+import com.wantedbug.cuesense.MainActivity.InfoType;
+
+/**
+ * Parses the user's Facebook profile into list sections and cues
+ * @author vikasprabhu
+ * Runs on a worker thread. The sections it returns are immutable, so that
+ * the UI thread only has to add them to the list view.
+ */
+public class FBProfileParser {
+	// Debugging
+	private static final String TAG = "FBProfileParser";
+
+	/**
+	 * Constants
+	 */
+	// List groups
+	static final String GROUP_PEOPLE = "Inspirational people";
+	static final String GROUP_TEAMS = "Sports teams";
+	static final String GROUP_EDUCATION = "Education";
+	static final String GROUP_WORK = "Work history";
+	static final String GROUP_LANGUAGES = "Languages";
+	static final String GROUP_ABOUT_ME = "About me";
+	static final String GROUP_BOOKS = "Books";
+	static final String GROUP_MUSIC = "Music";
+	private static final String[] MONTHS = {
+		"January", "February", "March", "April", "May", "June", "July",
+		"August", "September", "October", "November", "December"
+	};
+
+	/**
+	 * A list group with its children and the cues made from them
+	 */
+	public static final class Section {
+		public final String title;
+		// Whether the cues get preference in the InfoPool and the group goes on top
+		public final boolean priority;
+		public final List<Map<String, String>> children;
+		public final List<CueItem> cues;
+
+		private Section(String title, boolean priority, List<String> rows, List<String> cueTexts) {
+			this.title = title;
+			this.priority = priority;
+			List<Map<String, String>> childList = new ArrayList<Map<String, String>>(rows.size());
+			for(String row : rows) {
+				childList.add(Collections.singletonMap(FBListFragment.ITEM_DATA, row));
+			}
+			List<CueItem> cueList = new ArrayList<CueItem>(cueTexts.size());
+			for(String cueText : cueTexts) {
+				cueList.add(new CueItem(-1, InfoType.INFO_FACEBOOK, cueText, true));
+			}
+			this.children = Collections.unmodifiableList(childList);
+			this.cues = Collections.unmodifiableList(cueList);
+		}
+	}
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private FBProfileParser() { }
+
+	/**
+	 * Parses the sections of the /me user object
+	 * @param session
+	 * @param user
+	 * @param ingestor
+	 * @return non-empty sections, in list order
+	 */
+	public static List<Section> parseProfile(Session session, GraphUser user, CueIngestor ingestor) {
+		List<Section> sections = new ArrayList<Section>();
+		/** INSPIRATIONAL PEOPLE */
+		addIfNotEmpty(sections, parseNames((JSONArray) user.getProperty("inspirational_people"),
+				null, GROUP_PEOPLE, "I'm inspired by ", ingestor));
+		/** FAVOURITE SPORTS TEAMS */
+		addIfNotEmpty(sections, parseNames((JSONArray) user.getProperty("favorite_teams"),
+				null, GROUP_TEAMS, "I like ", ingestor));
+		/** EDUCATION */
+		if(session.isPermissionGranted("user_education_history")) {
+			addIfNotEmpty(sections, parseNames((JSONArray) user.getProperty("education"),
+					"school", GROUP_EDUCATION, "I studied at ", ingestor));
+		} else {
+			Log.i(TAG, "parseProfile() Education permission NOT granted");
+		}
+		/** WORK HISTORY */
+		if(session.isPermissionGranted("user_work_history")) {
+			addIfNotEmpty(sections, parseNames((JSONArray) user.getProperty("work"),
+					"employer", GROUP_WORK, "I worked at ", ingestor));
+		} else {
+			Log.i(TAG, "parseProfile() Work permission NOT granted");
+		}
+		/** LANGUAGES */
+		addIfNotEmpty(sections, parseNames((JSONArray) user.getProperty("languages"),
+				null, GROUP_LANGUAGES, "I speak ", ingestor));
+		/** PERSONAL DETAILS */
+		addIfNotEmpty(sections, parseAboutMe(session, user, ingestor));
+		return sections;
+	}
+
+	/**
+	 * Parses a page of /me/books.reads or /me/music
+	 * @param response
+	 * @param title group of the edge
+	 * @param ingestor
+	 * @return null if the response has no data
+	 */
+	public static Section parseEdgePage(Response response, String title, CueIngestor ingestor) {
+		if(response.getError() != null) {
+			Log.e(TAG, "parseEdgePage() " + title + " path error " + response.getError());
+			return null;
+		}
+		GraphObject responseGraphObject = response.getGraphObject();
+		if(responseGraphObject == null) {
+			Log.e(TAG, "parseEdgePage() " + title + " path response empty");
+			return null;
+		}
+		JSONArray dataJSON = responseGraphObject.getInnerJSONObject().optJSONArray("data");
+		if(dataJSON == null) {
+			Log.e(TAG, "parseEdgePage() " + title + " data empty");
+			return null;
+		}
+		List<String> rows = new ArrayList<String>();
+		List<String> cueTexts = new ArrayList<String>();
+		for(int i = 0; i < dataJSON.length() && !ingestor.isCategoryFull(title); ++i) {
+			try {
+				JSONObject itemJSON = dataJSON.getJSONObject(i);
+				// Books are wrapped in a books.reads action, music pages aren't
+				String name = GROUP_BOOKS.equals(title) ?
+						itemJSON.getJSONObject("data").getJSONObject("book").getString("title") :
+						itemJSON.getString("name");
+				if(ingestor.accept(title, "I like " + name)) {
+					rows.add(name);
+					cueTexts.add("I like " + name);
+				}
+			} catch(JSONException e) {
+				Log.e(TAG, "parseEdgePage() " + title + "[" + i + "] extraction error " + e);
+			}
+		}
+		return new Section(title, true, rows, cueTexts);
+	}
+
+	/**
+	 * Adds the section to the list if it has any children
+	 * @param sections
+	 * @param section
+	 */
+	public static void addIfNotEmpty(List<Section> sections, Section section) {
+		if(section != null && !section.children.isEmpty()) sections.add(section);
+	}
+
+	/**
+	 * Parses an array of named objects
+	 * @param array
+	 * @param wrapper key of the object holding the name, or null if the name is at the top level
+	 * @param title
+	 * @param cuePrefix
+	 * @param ingestor
+	 * @return null if the array is empty
+	 */
+	private static Section parseNames(JSONArray array, String wrapper, String title, String cuePrefix,
+			CueIngestor ingestor) {
+		if(array == null || array.length() == 0) {
+			Log.i(TAG, "parseNames() " + title + " list empty");
+			return null;
+		}
+		List<String> rows = new ArrayList<String>();
+		List<String> cueTexts = new ArrayList<String>();
+		for(int j = 0; j < array.length() && !ingestor.isCategoryFull(title); ++j) {
+			try {
+				JSONObject itemJSON = array.getJSONObject(j);
+				if(wrapper != null) itemJSON = itemJSON.getJSONObject(wrapper);
+				if(!itemJSON.has("name")) {
+					Log.e(TAG, "parseNames() " + title + "[" + j + "] no name");
+					continue;
+				}
+				String name = itemJSON.getString("name");
+				if(ingestor.accept(title, cuePrefix + name)) {
+					rows.add(name);
+					cueTexts.add(cuePrefix + name);
+				}
+			} catch(JSONException e) {
+				Log.e(TAG, "parseNames() " + title + "[" + j + "] extraction error " + e);
+			}
+		}
+		return new Section(title, false, rows, cueTexts);
+	}
+
+	/**
+	 * Parses the birthday month and the hometown
+	 * @param session
+	 * @param user
+	 * @param ingestor
+	 * @return
+	 */
+	private static Section parseAboutMe(Session session, GraphUser user, CueIngestor ingestor) {
+		List<String> rows = new ArrayList<String>();
+		List<String> cueTexts = new ArrayList<String>();
+		/** BIRTHDAY */
+		if(session.isPermissionGranted("user_birthday")) {
+			String birthday = user.getBirthday();
+			if(birthday != null && birthday.length() >= 2) {
+				try {
+					int month = Integer.parseInt(birthday.substring(0, 2));
+					if(month >= 1 && month <= MONTHS.length) {
+						String bdayMonth = "Born in " + MONTHS[month - 1];
+						if(ingestor.accept(GROUP_ABOUT_ME, bdayMonth)) {
+							rows.add(bdayMonth);
+							cueTexts.add(bdayMonth);
+						}
+					}
+				} catch(NumberFormatException e) {
+					Log.e(TAG, "parseAboutMe() Birthday format error " + birthday);
+				}
+			} else {
+				Log.e(TAG, "parseAboutMe() Birthday field empty");
+			}
+		} else {
+			Log.i(TAG, "parseAboutMe() Birthday permission NOT granted");
+		}
+		/** HOMETOWN */
+		if(session.isPermissionGranted("user_hometown")) {
+			JSONObject hometownJSON = (JSONObject) user.getProperty("hometown");
+			if(hometownJSON != null && hometownJSON.has("name")) {
+				String hometown = hometownJSON.optString("name");
+				if(ingestor.accept(GROUP_ABOUT_ME, "I'm from " + hometown)) {
+					rows.add(hometown);
+					cueTexts.add("I'm from " + hometown);
+				}
+			} else {
+				Log.e(TAG, "parseAboutMe() Hometown field empty");
+			}
+		} else {
+			Log.i(TAG, "parseAboutMe() Hometown permission NOT granted");
+		}
+		return new Section(GROUP_ABOUT_ME, false, rows, cueTexts);
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.Arrays;
+
+/**
+ * Utility class to perform set operations on Twitter user id arrays
+ * @author vikasprabhu
+ * Works on primitive long[] to avoid boxing. Friend id lists are up to 5000
+ * ids each, so the intersection is linear rather than a nested loop.
+ * Note: plain Java only so that it can be benchmarked off the device
+ */
+public class IdSets {
+	/**
+	 * Constants
+	 */
+	// Marker for an empty slot in the hash table
+	// Note: Twitter user ids are positive
+	private static final long EMPTY = 0;
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private IdSets() { }
+
+	/**
+	 * Returns the ids in a that are also in b, in the order of a
+	 * @param a
+	 * @param b
+	 * @param limit max number of common ids to return
+	 * @return
+	 * Builds an open-addressing hash table from b and probes it with a,
+	 * stopping as soon as limit common ids are found.
+	 * Note: not used by the app, which keeps its ids sorted and uses
+	 * intersectWithSorted(). Kept as the baseline of FriendIdsBenchmark.
+	 */
+	public static long[] intersect(long[] a, long[] b, int limit) {
+		if(a == null || b == null || a.length == 0 || b.length == 0 || limit <= 0) {
+			return new long[0];
+		}
+		long[] table = buildTable(b);
+		int mask = table.length - 1;
+		long[] common = new long[Math.min(limit, Math.min(a.length, b.length))];
+		int count = 0;
+		for(int i = 0; i < a.length && count < common.length; ++i) {
+			long id = a[i];
+			if(id != EMPTY && contains(table, mask, id)) {
+				common[count++] = id;
+			}
+		}
+		return (count == common.length) ? common : Arrays.copyOf(common, count);
+	}
+
+	/**
+	 * Returns the ids in a that are also in the sorted array b, in the order of a
+	 * @param a
+	 * @param sortedB sorted
+	 * @param limit max number of common ids to return
+	 * @return
+	 * Binary searches b for each id in a, so that nothing needs to be built
+	 * when b is a cached sorted set.
+	 */
+	public static long[] intersectWithSorted(long[] a, long[] sortedB, int limit) {
+		if(a == null || sortedB == null || sortedB.length == 0 || limit <= 0) return new long[0];
+		long[] common = new long[Math.min(limit, Math.min(a.length, sortedB.length))];
+		int count = 0;
+		for(int i = 0; i < a.length && count < common.length; ++i) {
+			if(Arrays.binarySearch(sortedB, a[i]) >= 0) {
+				common[count++] = a[i];
+			}
+		}
+		return (count == common.length) ? common : Arrays.copyOf(common, count);
+	}
+
+	/**
+	 * Returns a sorted copy of the ids without duplicates
+	 * @param ids
+	 * @return
+	 */
+	public static long[] toSortedSet(long[] ids) {
+		long[] sorted = Arrays.copyOf(ids, ids.length);
+		Arrays.sort(sorted);
+		int count = 0;
+		for(int i = 0; i < sorted.length; ++i) {
+			if(i == 0 || sorted[i] != sorted[i - 1]) sorted[count++] = sorted[i];
+		}
+		return (count == sorted.length) ? sorted : Arrays.copyOf(sorted, count);
+	}
+
+	/**
+	 * Builds an open-addressing (linear probing) hash table of the ids
+	 * @param ids
+	 * @return table with a power of 2 length and a load factor of at most 0.5
+	 */
+	private static long[] buildTable(long[] ids) {
+		int capacity = Integer.highestOneBit(Math.max(ids.length, 1) * 2 - 1) << 1;
+		long[] table = new long[capacity];
+		int mask = capacity - 1;
+		for(long id : ids) {
+			if(id == EMPTY) continue;
+			int slot = hash(id) & mask;
+			while(table[slot] != EMPTY && table[slot] != id) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id;
+		}
+		return table;
+	}
+
+	/**
+	 * Returns true if the id is in the hash table
+	 * @param table
+	 * @param mask
+	 * @param id
+	 * @return
+	 */
+	private static boolean contains(long[] table, int mask, long id) {
+		int slot = hash(id) & mask;
+		while(table[slot] != EMPTY) {
+			if(table[slot] == id) return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Mixes the bits of an id
+	 * @param id
+	 * @return
+	 * Ids are often close together, so they are spread with a multiplicative
+	 * hash before masking.
+	 */
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -5,15 +5,20 @@
 package com.wantedbug.cuesense;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.util.Base64;
 import android.util.Log;
 
 import com.wantedbug.cuesense.MainActivity.InfoType;
@@ -23,7 +28,7 @@ import com.wantedbug.cuesense.MainActivity.InfoType;
  * @author vikasprabhu
  * This class is a simple thread-safe singleton.
  */
-public class InfoPool {
+public class InfoPool implements CueRepository.Observer {
 	// Debugging
 	private static final String TAG = "InfoPool";
 	
@@ -31,11 +36,35 @@ public class InfoPool {
 	 * Constants
 	 */
 	private static final int INIT_SIZE = 50;
+	// Number of random picks from a list before giving up on it
+	private static final int NUM_PICK_TRIES = 100;
+	// Most matched cues kept, from all encounters
+	private static final int MAX_MATCHED_CUES = 100;
+	// Returned by getNext() when there's nothing to show
+	private static final CueItem EMPTY_ITEM = new CueItem(-1, InfoType.INFO_SENTINEL, "CueSense", true);
 	
 	// Name identifiers for the JSONArray
 	public static final String JSON_DISTANCE_NAME = "dist";
 	public static final String JSON_ARRAY_NAME = "d";
 	public static final String JSON_TWITTERSCREENNAME_NAME = "tSN";
+	public static final String JSON_VERSION_NAME = "v";
+	// Version of the exchange protocol of the data we send
+	// Note: peers that don't send a version only know about the cues
+	// themselves. From version 2 on, a filter or sketches are answered with
+	// the cues that may match them, see getCandidateData().
+	public static final int PROTOCOL_VERSION = 2;
+	public static final int SUMMARY_PROTOCOL_VERSION = 2;
+	// Most nearby users whose protocol version is remembered
+	private static final int MAX_PEER_VERSIONS = 64;
+	// Name identifiers for a CueFilter sent instead of the cues
+	public static final String JSON_FILTER_NAME = "bf";
+	public static final String JSON_FILTER_HASHES_NAME = "bfk";
+	// Name identifiers for CueSketches sent instead of the cues
+	public static final String JSON_SKETCH_NAME = "sk";
+	public static final String JSON_SKETCH_ROWS_NAME = "skr";
+	// Smallest number of cues for which a filter or sketches are sent instead
+	// of the cues
+	private static final int SUMMARY_MIN_CUES = 32;
 	
 	/**
 	 * Members
@@ -45,9 +74,14 @@ public class InfoPool {
 	
 	// List for newly added CueSense cues - highest priority
 	private ArrayList<CueItem> mNewCuesList = new ArrayList<CueItem>();
+	// Ids of the CueSense cues added through CueRepository, which the
+	// database may also hold by the time it's read at startup
+	private final Set<Integer> mAddedCueIds = new HashSet<Integer>();
 	
-	// List for cues matched with another user - next highest priority
-	private List<CueItem> mMatchedCuesList = new ArrayList<CueItem>(INIT_SIZE);
+	// Cues matched with other users - next highest priority
+	private final MatchedCueStore mMatchedCues = new MatchedCueStore(MAX_MATCHED_CUES);
+	// Number of cues matched by the last matching operation
+	private int mLastMatchedCueCount = 0;
 	
 	// Global list for everything else - lowest priority
 	private ArrayList<CueItem> mGlobalList = new ArrayList<CueItem>(INIT_SIZE);
@@ -65,16 +99,49 @@ public class InfoPool {
 	// 2. Facebook and Twitter Cues are transmitted at the near range
 	private List<CueItem> mNearList = new ArrayList<CueItem>();
 	private List<CueItem> mFarList = new ArrayList<CueItem>();
+	// Filters of the above lists, kept in step with them once built
+	// Note: they're only built when one is first asked for, see getFilterData()
+	private final CueFilter mNearFilter = new CueFilter();
+	private final CueFilter mFarFilter = new CueFilter();
+	private boolean mFiltersBuilt = false;
+	// Sketches of the cues in the above lists, computed as they're added
+	// Note: a nearby user may send sketches whatever we send, see
+	// getCandidateData(), and a sketch is cheap to compute
+	private final Map<CueItem, byte[]> mSketches = new IdentityHashMap<CueItem, byte[]>();
+	
+	// Protocol versions of the nearby users we've received data from, by address
+	private final LinkedHashMap<String, Integer> mPeerVersions = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_PEER_VERSIONS;
+		}
+	};
 	
 	// Thread to perform matching
 	private MatchThread mMatchThread = null;
 	
+	/**
+	 * Interface for the end of a matching operation
+	 */
+	public interface MatchListener {
+		/** Handle new matched cues. Called on the matching thread. */
+		void onCuesMatched(int distanceRange);
+	}
+	
+	// Listener notified when matching is done
+	private volatile MatchListener mMatchListener = null;
+	
+	// Cue returned last by getNext()
 	private CueItem mPrevItem = new CueItem(-1, InfoType.INFO_SENTINEL, "", false);
+	// Picks cues in getNext()
+	private final Random mRandom = new Random();
 	
 	/**
-	 * Private c'tor to defeat instantiation
+	 * Package-private c'tor; the app uses INSTANCE
+	 * Note: CueSenseSimulator creates a pool per virtual user
 	 */
-	private InfoPool() { }
+	InfoPool() { }
 	
 	/**
 	 * Adds a new Cue to the pool
@@ -101,20 +168,74 @@ public class InfoPool {
 		// Clear CueItem lists
 		mGlobalList.clear();
 		mNewCuesList.clear();
+		mAddedCueIds.clear();
 		clearMatchedCues();
 		// Clear distance level lists
 		mNearList.clear();
 		mFarList.clear();
+		mNearFilter.clear();
+		mFarFilter.clear();
+		mFiltersBuilt = false;
+		mSketches.clear();
 		// Cancel any ongoing matching operation, if any
 		stopMatchThread();
 	}
 	
+	/**
+	 * Returns the number of matched cues
+	 * @return
+	 */
+	synchronized int matchedCueCount() {
+		return mMatchedCues.size();
+	}
+	
+	/**
+	 * Returns the number of cues matched by the last matching operation
+	 * @return
+	 */
+	synchronized int lastMatchedCueCount() {
+		return mLastMatchedCueCount;
+	}
+	
+	/**
+	 * Adds the matches of a matching operation to the matched cues
+	 * @param matches
+	 * @param peerAddress address of the user matched with, null if unknown
+	 */
+	private synchronized void addMatchedCues(List<TopMatches.Match> matches, String peerAddress) {
+		long now = now();
+		for(TopMatches.Match match : matches) {
+			mMatchedCues.add(match.item(), peerAddress, match.score(), now);
+		}
+		mLastMatchedCueCount = matches.size();
+	}
+	
+	/**
+	 * Notes that another user has been seen, which keeps the cues matched with
+	 * them from expiring
+	 * @param peerAddress
+	 */
+	public synchronized void onPeerSeen(String peerAddress) {
+		mMatchedCues.onPeerSeen(peerAddress, now());
+	}
+	
 	/**
 	 * Deletes matched cues
 	 */
 	public synchronized void clearMatchedCues() {
 		Log.d(TAG, "clearMatchedCues()");
-		mMatchedCuesList.clear();
+		mMatchedCues.clear();
+		mLastMatchedCueCount = 0;
+	}
+	
+	/**
+	 * Returns the current time for the matched cues, in ms
+	 * @return
+	 * Note: monotonic, and unlike SystemClock also available off the device
+	 * for the benchmarks
+	 */
+	private static long now() {
+		return System.nanoTime() / 1000000;
 	}
 
 	/**
@@ -133,6 +254,23 @@ public class InfoPool {
 		onCuesAdded(items);
 	}
 	
+	/**
+	 * Adds a list of CueSense cues read from the database to the InfoPool
+	 * @param items
+	 * Cues already added through CueRepository are left out.
+	 */
+	public synchronized void addStoredCueItems(List<CueItem> items) {
+		if(mAddedCueIds.isEmpty()) {
+			addCueItems(items);
+			return;
+		}
+		List<CueItem> stored = new ArrayList<CueItem>(items.size());
+		for(CueItem item : items) {
+			if(!mAddedCueIds.contains(item.id())) stored.add(item);
+		}
+		addCueItems(stored);
+	}
+	
 	/**
 	 * Adds a list of InfoItems to the InfoPool at the top of other items
 	 * of the same type.
@@ -182,15 +320,13 @@ public class InfoPool {
 			}
 		}
 		
-		// Check in matched list as well
-		it = mMatchedCuesList.iterator();
-		while(it.hasNext()) {
-			CueItem temp = it.next();
+		// Check in matched cues as well
+		for(CueItem temp : mMatchedCues.items()) {
 			if(item.id() == temp.id() ||
 					(item.data().equals(temp.data()) && item.type().equals(temp.type())) ) {
 				Log.i(TAG, "removing from matched list " + item.type() + "," + item.data());
-				// Remove from the list
-				it.remove();
+				// Remove from the matched cues
+				mMatchedCues.remove(temp);
 				// Remove from the data package
 				onCueDeleted(item);
 				break;
@@ -233,6 +369,7 @@ public class InfoPool {
 				it.setType(item.type());
 				it.setData(item.data());
 				it.setChecked(item.isChecked());
+				onCueTextChanged(it);
 				if(!it.isChecked()) {
 					mGlobalList.add(it);
 					mNewCuesList.remove(it);
@@ -243,13 +380,14 @@ public class InfoPool {
 			}
 		}
 
-		// Search in matched list as well
-		for(CueItem it : mMatchedCuesList) {
+		// Search in matched cues as well
+		for(CueItem it : mMatchedCues.items()) {
 			if(it.id() == item.id() ||
 					(item.data().equals(it.data()) && item.type().equals(it.type())) ) {
 				it.setType(item.type());
 				it.setData(item.data());
 				it.setChecked(item.isChecked());
+				onCueTextChanged(it);
 				onCueUpdated(item);
 				break;
 			}
@@ -265,12 +403,103 @@ public class InfoPool {
 				it.setType(item.type());
 				it.setData(item.data());
 				it.setChecked(item.isChecked());
+				onCueTextChanged(it);
 				onCueUpdated(item);
 				break;
 			}
 		}
 	}
 	
+	/**
+	 * Keeps the lists in step with changes to the CueSense cues
+	 * Note: the pool is filled from the database at startup, so reloads are
+	 * ignored
+	 */
+	@Override
+	public synchronized void onCuesChanged(CueRepository.ChangeSet changes) {
+		for(CueRepository.Change change : changes.changes()) {
+			switch(change.kind()) {
+			case INSERT:
+				mAddedCueIds.add(change.item().id());
+				addCueItem(copyOf(change.item()));
+				break;
+			case UPDATE:
+				updateCueItem(change.item());
+				break;
+			case REMOVE:
+				mAddedCueIds.remove(change.item().id());
+				deleteCueItem(change.item());
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Returns a copy of a CueItem
+	 * Note: the pool doesn't share CueItems with the list views
+	 */
+	private static CueItem copyOf(CueItem item) {
+		return new CueItem(item.id(), item.type(), item.data(), item.isChecked());
+	}
+	
+	/**
+	 * Keeps the filters, sketches and matched cues in step with a cue whose
+	 * text may have changed
+	 * @param item
+	 */
+	private void onCueTextChanged(CueItem item) {
+		mNearFilter.update(item);
+		mFarFilter.update(item);
+		if(mSketches.containsKey(item)) mSketches.put(item, CueSketch.of(item.data()));
+		mMatchedCues.update(item);
+	}
+	
+	/**
+	 * Adds a cue to the filter of a distance level list, if it's been built,
+	 * and computes its sketch
+	 * @param item
+	 * @param filter
+	 */
+	private void addSummary(CueItem item, CueFilter filter) {
+		if(mFiltersBuilt) filter.add(item);
+		mSketches.put(item, CueSketch.of(item.data()));
+	}
+	
+	/**
+	 * Removes a cue from the filter and sketches of a distance level list
+	 * @param item
+	 * @param filter
+	 */
+	private void removeSummary(CueItem item, CueFilter filter) {
+		filter.remove(item);
+		mSketches.remove(item);
+	}
+	
+	/**
+	 * Builds the filters of the distance level lists, if they haven't been
+	 */
+	private void buildFilters() {
+		if(mFiltersBuilt) return;
+		for(CueItem item : mNearList) mNearFilter.add(item);
+		for(CueItem item : mFarList) mFarFilter.add(item);
+		mFiltersBuilt = true;
+	}
+	
+	/**
+	 * Returns the sketch of a cue in one of the distance level lists
+	 * @param item
+	 * @return
+	 */
+	private byte[] sketchOf(CueItem item) {
+		byte[] sketch = mSketches.get(item);
+		if(sketch == null) {
+			Log.e(TAG, "sketchOf: no sketch for " + item.id());
+			sketch = CueSketch.of(item.data());
+			mSketches.put(item, sketch);
+		}
+		return sketch;
+	}
+	
 	/**
 	 * Deletes all entries of a particular InfoType
 	 * @param type
@@ -289,13 +518,11 @@ public class InfoPool {
 			}
 		}
 		
-		// Delete from matched list
-		it = mMatchedCuesList.iterator();
-		while(it.hasNext()) {
-			CueItem item = it.next();
+		// Delete from matched cues
+		for(CueItem item : mMatchedCues.items()) {
 			if(item.type().equals(type)) {
 				Log.i(TAG, "removing from matched list " + item.type() + "," + item.data());
-				it.remove();
+				mMatchedCues.remove(item);
 			}
 		}
 
@@ -309,6 +536,24 @@ public class InfoPool {
 			}
 		}
 		
+		// Delete from the data packages
+		it = mNearList.iterator();
+		while(it.hasNext()) {
+			CueItem item = it.next();
+			if(item.type().equals(type)) {
+				it.remove();
+				removeSummary(item, mNearFilter);
+			}
+		}
+		it = mFarList.iterator();
+		while(it.hasNext()) {
+			CueItem item = it.next();
+			if(item.type().equals(type)) {
+				it.remove();
+				removeSummary(item, mFarFilter);
+			}
+		}
+		
 		// Delete from the neighbour lists as well
 		it = mNeighbourNearList.iterator();
 		while(it.hasNext()) {
@@ -331,19 +576,13 @@ public class InfoPool {
 	 * @return
 	 */
 	public boolean hasNext() {
-		Log.d(TAG, "getNext()");
-		if(mNewCuesList.isEmpty() && mGlobalList.isEmpty() && mMatchedCuesList.isEmpty()) {
+		if(mNewCuesList.isEmpty() && mGlobalList.isEmpty() && mMatchedCues.isEmpty()) {
 			Log.i(TAG, "getNext() lists empty");
 			return false;
 		}
 		return true;
 	}
 	
-	private void updatePrevItem(CueItem ret) {
-		mPrevItem = null;
-		mPrevItem = ret;
-	}
-	
 	/**
 	 * Gets next Cue from the appropriate list
 	 * @return
@@ -353,68 +592,63 @@ public class InfoPool {
 	 * 3. Global list
 	 * If there is any data in the matched list, the global list will never
 	 * be searched.
+	 * Note: called for every cue displayed, so this doesn't allocate
 	 */
 	public synchronized CueItem getNext() {
-		Log.d(TAG, "getNext()");
-		
-		int count = 0;
-		final int NUMTRIES = 100;
-		
 		// Return an item that the user entered
 		// and add the same to the end of the global list
-		if(!mNewCuesList.isEmpty()) {
-			boolean found = false;
-			CueItem ret = new CueItem(-1, InfoType.INFO_SENTINEL, "", false); // to make the silly Android compiler happy
-			while(!found && count < NUMTRIES) {
-				ret = mNewCuesList.get(new Random().nextInt(mNewCuesList.size()));
-				if(ret.isChecked() && !ret.data().equals(mPrevItem.data())) {
-					found = true;
-					mGlobalList.add(ret);
-					boolean removed = mNewCuesList.remove(ret);
-					Log.i(TAG, "item removed = " + removed + " from mNewCuesList " + ret.data());
-					Log.i(TAG, "getNext() from new list " + ret.data());
-					updatePrevItem(ret);
-					return ret;
-				}
-				++count;
-			}
+		CueItem ret = pickFrom(mNewCuesList);
+		if(ret != null) {
+			mGlobalList.add(ret);
+			mNewCuesList.remove(ret);
+			mPrevItem = ret;
+			return ret;
 		}
 		
 		// If there's a matched Cue, return that
-		count = 0;
-		if(!mMatchedCuesList.isEmpty()) {
-			boolean found = false;
-			CueItem ret = new CueItem(-1, InfoType.INFO_SENTINEL, "", false); // to make the silly Android compiler happy
-			while(!found && count < NUMTRIES) {
-				ret = mMatchedCuesList.get(new Random().nextInt(mMatchedCuesList.size()));
-				if(ret.isChecked() && !ret.data().equals(mPrevItem.data())) {
-					found = true;
-					Log.i(TAG, "getNext() from matched list " + ret.data());
-					updatePrevItem(ret);
-					return ret;
-				}
-				++count;
-			}
+		ret = pickFrom(mMatchedCues);
+		if(ret != null) {
+			Metrics.onMatchedCueShown();
+		} else {
+			// If not, then return an item from the global list
+			ret = pickFrom(mGlobalList);
 		}
-		
-		// If not, then return an item from the global list
-		boolean found = false;
-		count = 0;
-		CueItem ret = new CueItem(-1, InfoType.INFO_SENTINEL, "", false); // to make the silly Android compiler happy
-		while(!found && count < NUMTRIES) {
-			ret = mGlobalList.get(new Random().nextInt(mGlobalList.size()));
-			if(ret.isChecked() && !ret.data().equals(mPrevItem.data())) {
-				found = true;
-				Log.i(TAG, "getNext() from global list " + ret.data());
-				updatePrevItem(ret);
-				return ret;
-			}
-			++count;
+		if(ret != null) {
+			mPrevItem = ret;
+			EventLog.record(EventLog.Event.NEXT_CUE, ret.id(), ret.type().ordinal());
+			return ret;
 		}
 		
 		// If all the lists are empty
-		Log.i(TAG, "getNext() lists empty");
-		return new CueItem(-1, InfoType.INFO_SENTINEL, "CueSense", true);
+		return EMPTY_ITEM;
+	}
+	
+	/**
+	 * Returns a random checked Cue from the list that isn't the one shown last
+	 * @param list
+	 * @return null if none was found within NUM_PICK_TRIES tries
+	 */
+	private CueItem pickFrom(List<CueItem> list) {
+		if(list.isEmpty()) return null;
+		for(int count = 0; count < NUM_PICK_TRIES; ++count) {
+			CueItem item = list.get(mRandom.nextInt(list.size()));
+			if(item.isChecked() && !item.data().equals(mPrevItem.data())) {
+				return item;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns a random checked matched Cue that isn't the one shown last
+	 * @param store
+	 * @return null if none was found
+	 * Matched cues that have expired are dropped along the way.
+	 */
+	private CueItem pickFrom(MatchedCueStore store) {
+		if(store.isEmpty()) return null;
+		CueItem item = store.sample(mRandom, now(), mPrevItem);
+		return (item != null && item.isChecked()) ? item : null;
 	}
 	
 	/**
@@ -430,12 +664,15 @@ public class InfoPool {
 		switch(item.type()) {
 		case INFO_FACEBOOK: 
 			mNearList.add(item);
+			addSummary(item, mNearFilter);
 			break;
 		case INFO_TWITTER: 
 			mNearList.add(item);
+			addSummary(item, mNearFilter);
 			break;
 		case INFO_CUESENSE:
 			mFarList.add(item);
+			addSummary(item, mFarFilter);
 			break;
 		case INFO_SENTINEL:
 		default:
@@ -470,6 +707,7 @@ public class InfoPool {
 				if(item.id() == temp.id() ||
 						(item.data().equals(temp) && item.type().equals(temp.type())) ) {
 					it.remove();
+					removeSummary(temp, mNearFilter);
 					break;
 				}
 			}
@@ -482,6 +720,7 @@ public class InfoPool {
 				if(item.id() == temp.id() ||
 						(item.data().equals(temp) && item.type().equals(temp.type())) ) {
 					it.remove();
+					removeSummary(temp, mNearFilter);
 					break;
 				}
 			}
@@ -494,6 +733,7 @@ public class InfoPool {
 				if(item.id() == temp.id() ||
 						(item.data().equals(temp) && item.type().equals(temp.type())) ) {
 					it.remove();
+					removeSummary(temp, mFarFilter);
 					break;
 				}
 			}
@@ -549,12 +789,22 @@ public class InfoPool {
 		}
 	}
 	
+	/**
+	 * Sets the listener to be notified when matching is done
+	 * @param listener
+	 */
+	public void setMatchListener(MatchListener listener) {
+		mMatchListener = listener;
+	}
+	
 	/**
 	 * Returns a JSONObject constructed from the appropriate distance level list
 	 * @param distanceRange
 	 * @return
+	 * Note: synchronized since this is called from the exchange thread while
+	 * the lists are modified from the UI thread
 	 */
-	public JSONObject getData(int distanceRange) {
+	public synchronized JSONObject getData(int distanceRange) {
 		Log.d(TAG, "getData()");
 		
 		// Construct a JSONArray from the appropriate Cues list. Then put that
@@ -578,6 +828,7 @@ public class InfoPool {
 				if(!twitterScreenName.isEmpty())
 					dataObject.put(JSON_TWITTERSCREENNAME_NAME, twitterScreenName);
 				dataObject.put(JSON_DISTANCE_NAME, distanceRange);
+				dataObject.put(JSON_VERSION_NAME, PROTOCOL_VERSION);
 				dataObject.put(JSON_ARRAY_NAME, dataArray);
 			} catch(JSONException e) {
 				Log.e(TAG, "DISTANCE_NEAR JSON creation error " + e);
@@ -597,6 +848,7 @@ public class InfoPool {
 			dataObject = new JSONObject();
 			try {
 				dataObject.put(JSON_DISTANCE_NAME, distanceRange);
+				dataObject.put(JSON_VERSION_NAME, PROTOCOL_VERSION);
 				if(dataArray.length() != 0) dataObject.put(JSON_ARRAY_NAME, dataArray);
 			} catch(JSONException e) {
 				Log.e(TAG, "DISTANCE_FAR JSON creation error " + e);
@@ -611,6 +863,225 @@ public class InfoPool {
 		return null;
 	}
 	
+	/**
+	 * Returns the protocol version of a nearby user's last data
+	 * @param address
+	 * @return 1 if we haven't received any data from the user
+	 * A filter or sketches are only sent to users with at least
+	 * SUMMARY_PROTOCOL_VERSION, who reply with their candidate cues.
+	 */
+	public synchronized int peerVersion(String address) {
+		Integer version = address != null ? mPeerVersions.get(address) : null;
+		return version != null ? version : 1;
+	}
+	
+	private synchronized void setPeerVersion(String address, int version) {
+		mPeerVersions.put(address, version);
+	}
+	
+	/**
+	 * Returns a JSONObject without any cues, to tell the other user that we
+	 * have nothing to send rather than leave it waiting
+	 * @param distanceRange
+	 * @return
+	 */
+	public static JSONObject getEmptyData(int distanceRange) {
+		JSONObject dataObject = new JSONObject();
+		try {
+			dataObject.put(JSON_DISTANCE_NAME, distanceRange);
+			dataObject.put(JSON_VERSION_NAME, PROTOCOL_VERSION);
+			dataObject.put(JSON_ARRAY_NAME, new JSONArray());
+		} catch(JSONException e) {
+			Log.e(TAG, "empty JSON creation error " + e);
+		}
+		return dataObject;
+	}
+	
+	/**
+	 * Returns a JSONObject with a filter of the appropriate distance level
+	 * list, to be sent instead of the cues
+	 * @param distanceRange
+	 * @return null if there are too few cues for a filter to be worth it
+	 * The other user replies with those of its cues that may be in the filter,
+	 * see getCandidateData(), so only exact matches are found this way.
+	 */
+	public synchronized JSONObject getFilterData(int distanceRange) {
+		buildFilters();
+		CueFilter filter = filterFor(distanceRange);
+		if(filter == null || filter.size() < SUMMARY_MIN_CUES) return null;
+		JSONObject dataObject = new JSONObject();
+		try {
+			putScreenName(dataObject, distanceRange);
+			dataObject.put(JSON_DISTANCE_NAME, distanceRange);
+			dataObject.put(JSON_VERSION_NAME, PROTOCOL_VERSION);
+			dataObject.put(JSON_FILTER_NAME, Base64.encodeToString(filter.toBits(), Base64.NO_WRAP));
+			dataObject.put(JSON_FILTER_HASHES_NAME, CueFilter.NUM_HASHES);
+		} catch(JSONException e) {
+			Log.e(TAG, "filter JSON creation error " + e);
+			return null;
+		}
+		return dataObject;
+	}
+	
+	/**
+	 * Returns a JSONObject with sketches of the cues of the appropriate
+	 * distance level list, to be sent instead of the cues
+	 * @param distanceRange
+	 * @return null if there are too few cues for sketches to be worth it
+	 * The other user replies with those of its cues that may be similar to
+	 * one of ours, see getCandidateData(), and we match them as usual.
+	 */
+	public synchronized JSONObject getSketchData(int distanceRange) {
+		List<CueItem> list = listFor(distanceRange);
+		if(list == null || list.size() < SUMMARY_MIN_CUES) return null;
+		byte[] sketches = new byte[list.size() * CueSketch.ROWS];
+		for(int i = 0; i < list.size(); ++i) {
+			System.arraycopy(sketchOf(list.get(i)), 0, sketches, i * CueSketch.ROWS, CueSketch.ROWS);
+		}
+		JSONObject dataObject = new JSONObject();
+		try {
+			putScreenName(dataObject, distanceRange);
+			dataObject.put(JSON_DISTANCE_NAME, distanceRange);
+			dataObject.put(JSON_VERSION_NAME, PROTOCOL_VERSION);
+			dataObject.put(JSON_SKETCH_NAME, Base64.encodeToString(sketches, Base64.NO_WRAP));
+			dataObject.put(JSON_SKETCH_ROWS_NAME, CueSketch.ROWS);
+		} catch(JSONException e) {
+			Log.e(TAG, "sketch JSON creation error " + e);
+			return null;
+		}
+		return dataObject;
+	}
+	
+	/**
+	 * Returns a JSONObject with those cues of the appropriate distance level
+	 * list that may match a filter or sketches received from another user
+	 * @param distanceRange
+	 * @param summaryData received data, see getFilterData() and getSketchData()
+	 * @return
+	 * The cues array is there even if it's empty, so that the other user
+	 * knows that nothing matched.
+	 */
+	public synchronized JSONObject getCandidateData(int distanceRange, JSONObject summaryData) {
+		List<CueItem> list = listFor(distanceRange);
+		if(list == null) return null;
+		JSONArray dataArray = new JSONArray();
+		if(summaryData.has(JSON_SKETCH_NAME)) {
+			byte[] sketches = decodeSketches(summaryData);
+			if(sketches == null) return null;
+			Map<Long, List<Integer>> buckets = CueSketch.buckets(sketches);
+			for(CueItem item : list) {
+				if(CueSketch.candidates(buckets, sketchOf(item)).isEmpty()) continue;
+				JSONObject itemJSON = item.toJSONObject();
+				if(itemJSON != null) dataArray.put(itemJSON);
+			}
+		} else {
+			byte[] bits = decodeFilter(summaryData);
+			if(bits == null) return null;
+			for(CueItem item : list) {
+				if(!CueFilter.mightContain(bits, CueFilter.NUM_HASHES, item.data())) continue;
+				JSONObject itemJSON = item.toJSONObject();
+				if(itemJSON != null) dataArray.put(itemJSON);
+			}
+		}
+		JSONObject dataObject = new JSONObject();
+		try {
+			putScreenName(dataObject, distanceRange);
+			dataObject.put(JSON_DISTANCE_NAME, distanceRange);
+			dataObject.put(JSON_VERSION_NAME, PROTOCOL_VERSION);
+			dataObject.put(JSON_ARRAY_NAME, dataArray);
+		} catch(JSONException e) {
+			Log.e(TAG, "candidates JSON creation error " + e);
+			return null;
+		}
+		return dataObject;
+	}
+	
+	/**
+	 * Adds the Twitter screen name for the near distance range, if any
+	 * @param dataObject
+	 * @param distanceRange
+	 * @throws JSONException
+	 */
+	private static void putScreenName(JSONObject dataObject, int distanceRange) throws JSONException {
+		if(distanceRange != MainActivity.DISTANCE_NEAR) return;
+		String twitterScreenName = TwitterUtils.INSTANCE.getScreenName();
+		if(!twitterScreenName.isEmpty())
+			dataObject.put(JSON_TWITTERSCREENNAME_NAME, twitterScreenName);
+	}
+	
+	/**
+	 * Returns the filter bits in received data
+	 * @param data
+	 * @return null if there's no valid filter
+	 * Only filters with CueFilter.NUM_HASHES hashes are accepted, which also
+	 * bounds the work a received filter can cause.
+	 */
+	static byte[] decodeFilter(JSONObject data) {
+		if(data.optInt(JSON_FILTER_HASHES_NAME, CueFilter.NUM_HASHES) != CueFilter.NUM_HASHES) {
+			Log.e(TAG, "unsupported filter " + data.optInt(JSON_FILTER_HASHES_NAME));
+			return null;
+		}
+		return decode(data, JSON_FILTER_NAME);
+	}
+	
+	/**
+	 * Returns the concatenated sketches in received data
+	 * @param data
+	 * @return null if there are no valid sketches
+	 */
+	static byte[] decodeSketches(JSONObject data) {
+		if(data.optInt(JSON_SKETCH_ROWS_NAME, CueSketch.ROWS) != CueSketch.ROWS) {
+			Log.e(TAG, "unsupported sketches " + data.optInt(JSON_SKETCH_ROWS_NAME));
+			return null;
+		}
+		byte[] sketches = decode(data, JSON_SKETCH_NAME);
+		if(sketches == null || sketches.length % CueSketch.ROWS != 0) return null;
+		return sketches;
+	}
+	
+	/**
+	 * Returns the bytes of a Base64 encoded value in received data
+	 * @param data
+	 * @param name
+	 * @return null if there's no valid value
+	 */
+	private static byte[] decode(JSONObject data, String name) {
+		String encoded = data.optString(name, null);
+		if(encoded == null) return null;
+		try {
+			return Base64.decode(encoded, Base64.DEFAULT);
+		} catch(IllegalArgumentException e) {
+			Log.e(TAG, name + " decode error " + e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the list for a distance range
+	 * @param distanceRange
+	 * @return null if there's none
+	 */
+	private List<CueItem> listFor(int distanceRange) {
+		switch(distanceRange) {
+		case MainActivity.DISTANCE_NEAR: return mNearList;
+		case MainActivity.DISTANCE_FAR: return mFarList;
+		default: return null;
+		}
+	}
+	
+	/**
+	 * Returns the filter for a distance range
+	 * @param distanceRange
+	 * @return null if there's none
+	 */
+	private CueFilter filterFor(int distanceRange) {
+		switch(distanceRange) {
+		case MainActivity.DISTANCE_NEAR: return mNearFilter;
+		case MainActivity.DISTANCE_FAR: return mFarFilter;
+		default: return null;
+		}
+	}
+	
 	/**
 	 * Stops ongoing matching operation
 	 */
@@ -626,15 +1097,34 @@ public class InfoPool {
 	 * @param data
 	 * Performs basic approximate string matching 
 	 */
-	public synchronized void matchData(String data) {
+	public void matchData(String data) {
+		matchData(data, null);
+	}
+	
+	/**
+	 * Extracts and matches received with what we currently have
+	 * @param data
+	 * @param peerAddress address of the user the data came from, null if unknown
+	 * The cues matched are kept until that user hasn't been seen for a while.
+	 */
+	public synchronized void matchData(String data, String peerAddress) {
 		Log.d(TAG, "matchData()");
 		
 		// Cancel any ongoing matching operation and start a new one
 		stopMatchThread();
-		mMatchThread = new MatchThread(data);
+		mMatchThread = new MatchThread(data, peerAddress);
 		mMatchThread.start();
 	}
 	
+	/**
+	 * Matches received data on the caller's thread
+	 * @param data
+	 * Note: for the benchmarks; the app uses matchData()
+	 */
+	void matchDataNow(String data) {
+		new MatchThread(data, null).run();
+	}
+	
 	/**
 	 * Tries to fix problems with the raw data received, if any
 	 * @param rawData
@@ -642,6 +1132,8 @@ public class InfoPool {
 	 * Incoming raw JSON data may be incomplete due to problems in the transmissions
 	 */
 	public String fixRawData(String rawData) {
+		long start = Metrics.start();
+		int rawLength = rawData.length();
 		JSONObject obj = null;
 		boolean recovered = false;
 		boolean triedAppend = false;
@@ -658,7 +1150,7 @@ public class InfoPool {
 				recovered = true;
 				rawData = temp;
 			} catch(JSONException e) {
-				Log.d(TAG, "doesn't work: " + rawData);
+				EventLog.record(EventLog.Event.FIX_RAW_DATA_TRY, rawData.length(), rawLength);
 				if(rawData.isEmpty()) {
 					rawData = "Couldn't recover";
 					break;
@@ -675,9 +1167,70 @@ public class InfoPool {
 			}
 		}
 		
+		Metrics.record(Metrics.Stage.FIX_RAW_DATA, start);
 		return rawData;
 	}
 	
+	/**
+	 * Returns the minimum of 3 numbers
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @return
+	 */
+	private static int minimum(int a, int b, int c) {                            
+		return Math.min(Math.min(a, b), c);                                      
+	}
+
+	/**
+	 * Returns Levenshtein edit distance between 2 strings
+	 * @param s1
+	 * @param s2
+	 * @return
+	 * Levenshtein distance is defined as the minimum number of edits
+	 * (add/delete/change) required to make one string identical to the
+	 * other
+	 * Note: package-private so that the benchmarks can reach it
+	 */
+	static int computeLevenshteinDistance(String s1, String s2) {
+		int len1 = s1.length() + 1;
+		int len2 = s2.length() + 1;
+
+		// Array of distances
+		int[] cost = new int[len1];
+		int[] newcost = new int[len1];
+
+		// Initial cost of skipping prefix in String s1
+		for (int i = 0; i < len1; i++)
+			cost[i] = i;
+
+		// Compute the array of distances
+		// Transformation cost for each letter in s2
+		for (int j = 1; j < len2; j++) {
+			// Initial cost of skipping prefix in String s2
+			newcost[0] = j;
+
+			// Transformation cost for each letter in s1
+			for(int i = 1; i < len1; i++) {
+				// Matching current letters in both strings
+				int match = (s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 1;
+
+				// Cost for each type of operation
+				int cost_replace = cost[i - 1] + match;
+				int cost_insert  = cost[i] + 1;
+				int cost_delete  = newcost[i - 1] + 1;
+
+				// Keep minimum cost
+				newcost[i] = minimum(cost_insert, cost_delete, cost_replace);
+			}
+			// Swap cost/newcost arrays
+			int[] swap = cost; cost = newcost; newcost = swap;
+		}
+
+		// The distance is the cost for transforming all letters in both strings
+		return cost[len1 - 1];
+	}
+	
 	private List<CueItem> mNeighbourNearList = new ArrayList<CueItem>();
 	private List<CueItem> mNeighbourFarList = new ArrayList<CueItem>();
 	
@@ -694,6 +1247,14 @@ public class InfoPool {
 		 */
 		private static final double THRESHOLD_NEAR = 0.8;
 		private static final double THRESHOLD_FAR = 0.5;
+		// Most matched cues kept per exchange
+		private static final int MAX_MATCHES = 20;
+		// Most of those that can be tweets of common followings
+		// Note: the rest are left for matched cues
+		private static final int MAX_TWEETS = 5;
+		// Score of the tweets of common followings, above any matched cue so
+		// that cue matching can't push them out
+		private static final double TWEET_SCORE = 2.0;
 		
 		/**
 		 * Members
@@ -708,26 +1269,39 @@ public class InfoPool {
 		private int mDistance = MainActivity.DISTANCE_OUTOFRANGE;
 		// Twitter screen name of the nearby user
 		private String mTargetUserScreenName = "";
+		// Best matches found
+		private final TopMatches mTopMatches = new TopMatches(MAX_MATCHES);
+		// Address of the nearby user, null if unknown
+		private final String mPeerAddress;
 		//
 		private boolean mHasContent = false;
 		
-		public MatchThread(String data) {
-			Log.d(TAG, "create MatchThread " + data.length());
-			mRawData = fixRawData(data);
+		public MatchThread(String data, String peerAddress) {
+			mRawData = data;
+			mPeerAddress = peerAddress;
 			mNeighbourItems = new ArrayList<CueItem>();
 		}
 		
 		public void run() {
-			Log.d(TAG, "run()");
 			if(!mRunning) return;
 			// Extract data from received JSON
 			try {
-				JSONObject root = new JSONObject(mRawData);
+				// Note: recovering the raw data can take a while, so it's done here
+				// rather than on the caller's thread
+				String fixedData = fixRawData(mRawData);
+				long decodeStart = Metrics.start();
+				JSONObject root = new JSONObject(fixedData);
 				if(root.has(JSON_DISTANCE_NAME))
 					mDistance = root.getInt(JSON_DISTANCE_NAME);
+				if(mPeerAddress != null)
+					setPeerVersion(mPeerAddress, root.optInt(JSON_VERSION_NAME, 1));
 				if(root.has(JSON_TWITTERSCREENNAME_NAME))
 					mTargetUserScreenName = root.getString(JSON_TWITTERSCREENNAME_NAME);
 				JSONArray itemsArray = null;
+				// Note: a filter or sketches sent instead of the cues don't say
+				// which of the nearby user's cues matched ours, or let us check
+				// that one did, so nothing is matched with them here. The nearby
+				// user matches the cues we send back with their own.
 				if(root.has(JSON_ARRAY_NAME)) {
 					mHasContent = true;
 					itemsArray = root.getJSONArray(JSON_ARRAY_NAME);
@@ -743,8 +1317,11 @@ public class InfoPool {
 				} else {
 					mHasContent = false;
 				}
+				Metrics.record(Metrics.Stage.JSON_DECODE, decodeStart);
+				EventLog.record(EventLog.Event.MATCH_STARTED, mNeighbourItems.size(), mDistance);
 			} catch (JSONException e) {
 				Log.e(TAG, "JSONObject creation/extraction error " + e);
+				Metrics.count(Metrics.Counter.FAIL_JSON);
 				return;
 			}
 			
@@ -755,6 +1332,14 @@ public class InfoPool {
 			} else {
 				return;
 			}
+			if(!mRunning) return;
+			addMatchedCues(mTopMatches.sorted(), mPeerAddress);
+			
+			// Let the listener know that new matched cues are available
+			Metrics.onCuesMatched();
+			EventLog.record(EventLog.Event.MATCH_DONE, mTopMatches.size(), mDistance);
+			MatchListener listener = mMatchListener;
+			if(mRunning && listener != null) listener.onCuesMatched(mDistance);
 		}
 		
 		/**
@@ -763,53 +1348,56 @@ public class InfoPool {
 		 */
 		private void match() {
 			Log.i(TAG, "match() mHasContent=" + mHasContent);
-			// Clear any matches previously generated
-			clearMatchedCues();
+			
+			// Get common followings tweets if we have the target user's screen name
+			// Note: first, so that they take their slots before cue matching
+			// raises the score to beat
+			if(mDistance != MainActivity.DISTANCE_FAR && !mTargetUserScreenName.isEmpty()) {
+				getCommonTweets();
+				if(!mRunning) return;
+			}
 
-			if(mHasContent) {
-				switch(mDistance) {
-				case MainActivity.DISTANCE_NEAR:
-					mNeighbourNearList.clear();
-					mNeighbourNearList.addAll(mNeighbourItems);
-					match(mNearList, mNeighbourItems, THRESHOLD_NEAR);
-					// Get common followings tweets if we have the target user's screen name
-					if(!mTargetUserScreenName.isEmpty())
-						getCommonTweets();
-					break;
-				case MainActivity.DISTANCE_FAR:
-					mNeighbourFarList.clear();
-					mNeighbourFarList.addAll(mNeighbourItems);
-					// Match data
-					match(mFarList, mNeighbourItems, THRESHOLD_FAR);
-					break;
-				default: // If distance item is not received for some reason, fall back to matching with everything we have
-					match(mNearList, mNeighbourItems, THRESHOLD_NEAR);
-					// Get common followings tweets if we have the target user's screen name
-					if(!mTargetUserScreenName.isEmpty())
-						getCommonTweets();
-					match(mFarList, mNeighbourItems, THRESHOLD_FAR);
-					break;
-				}
-			} else {
-				switch(mDistance) {
-				case MainActivity.DISTANCE_NEAR:
-					match(mNearList, mNeighbourNearList, THRESHOLD_NEAR);
-					// Get common followings tweets if we have the target user's screen name
-					if(!mTargetUserScreenName.isEmpty())
-						getCommonTweets();
-					break;
-				case MainActivity.DISTANCE_FAR:
-					// Match data
-					match(mFarList, mNeighbourFarList, THRESHOLD_FAR);
-					break;
-				default: // If distance item is not received for some reason, fall back to matching with everything we have
-					match(mNearList, mNeighbourNearList, THRESHOLD_NEAR);
-					// Get common followings tweets if we have the target user's screen name
-					if(!mTargetUserScreenName.isEmpty())
-						getCommonTweets();
-					match(mFarList, mNeighbourFarList, THRESHOLD_FAR);
-					break;
+			// Copy the lists to match against under the pool's lock
+			// Note: loading, social batches and the repository change them
+			// meanwhile, and the distance-only data of an unchanged peer is
+			// matched with the cues they sent last
+			List<CueItem> nearList;
+			List<CueItem> farList;
+			List<CueItem> neighbourNearList;
+			List<CueItem> neighbourFarList;
+			synchronized (InfoPool.this) {
+				if(mHasContent) {
+					switch(mDistance) {
+					case MainActivity.DISTANCE_NEAR:
+						mNeighbourNearList.clear();
+						mNeighbourNearList.addAll(mNeighbourItems);
+						break;
+					case MainActivity.DISTANCE_FAR:
+						mNeighbourFarList.clear();
+						mNeighbourFarList.addAll(mNeighbourItems);
+						break;
+					default:
+						break;
+					}
 				}
+				nearList = new ArrayList<CueItem>(mNearList);
+				farList = new ArrayList<CueItem>(mFarList);
+				neighbourNearList = mHasContent ? mNeighbourItems : new ArrayList<CueItem>(mNeighbourNearList);
+				neighbourFarList = mHasContent ? mNeighbourItems : new ArrayList<CueItem>(mNeighbourFarList);
+			}
+			
+			switch(mDistance) {
+			case MainActivity.DISTANCE_NEAR:
+				match(nearList, neighbourNearList, THRESHOLD_NEAR);
+				break;
+			case MainActivity.DISTANCE_FAR:
+				// Match data
+				match(farList, neighbourFarList, THRESHOLD_FAR);
+				break;
+			default: // If distance item is not received for some reason, fall back to matching with everything we have
+				match(nearList, neighbourNearList, THRESHOLD_NEAR);
+				match(farList, neighbourFarList, THRESHOLD_FAR);
+				break;
 			}
 		}
 		
@@ -819,7 +1407,9 @@ public class InfoPool {
 		public void getCommonTweets() {
 			Log.d(TAG, "getCommonTweets()");
 			
+			long start = Metrics.start();
 			List<String> commonFollowingsTweets = TwitterUtils.INSTANCE.getCommonFollowingsTweets(mTargetUserScreenName);
+			Metrics.record(Metrics.Stage.COMMON_TWEETS, start);
 			if(commonFollowingsTweets == null)
 				return;
 			Log.i(TAG, commonFollowingsTweets.size() + " common tweets found " + mRunning);
@@ -828,115 +1418,68 @@ public class InfoPool {
 			// Check if we're canceled and then proceed
 			if(!mRunning) return;
 			
-			// Add the tweets to the top of matched cues
+			// Add the tweets to the top of matched cues, once each
+			int count = 0;
 			for(String tweet : commonFollowingsTweets) {
-				mMatchedCuesList.add(0, new CueItem(-1, InfoType.INFO_TWITTER, tweet, true));
+				if(count >= MAX_TWEETS) break;
+				if(mTopMatches.offer(new CueItem(-1, InfoType.INFO_TWITTER, tweet, true), tweet, TWEET_SCORE)) ++count;
 			}
 		}
 		
 		/**
-		 * Matches items in one list with another adding matched items to mMatchedCuesList
+		 * Matches items in one list with another adding matched items to mTopMatches
 		 * @param myItems
 		 * @param theirItems
 		 * @param threshold
 		 * Algorithm (for 1 string):
-		 * 1. Match a string directly. If identical, add to the mMatchedCuesList
-		 * 2. If not, compute Levenshtein distance. If it's above the specified threshold
-		 *    value, add to the mMatchedCuesList
-		 * 3. If not, then ignore the string
+		 * 1. Match a string directly. If identical, that's its best match
+		 * 2. If not, compute Levenshtein distance to find its most similar string
+		 *    above the specified threshold value
+		 * 3. Offer the best match, if any, to mTopMatches
+		 * A pair is skipped without computing the distance if the difference in
+		 * lengths alone keeps it from beating the threshold, the worst match in
+		 * a full mTopMatches or the best match of the string so far.
 		 */
 		private void match(List<CueItem> myItems, List<CueItem> theirItems, double threshold) {
-			// Create trimmed lower case copies
+			long start = Metrics.start();
+			// Create normalized copies
 			List<String> list1 = new ArrayList<String>();
 			for(CueItem item : myItems) {
-				list1.add(item.data().trim().toLowerCase(Locale.getDefault()));
+				list1.add(CueFilter.normalize(item.data()));
 			}
 			List<String> list2 = new ArrayList<String>();
 			for(CueItem item : theirItems) {
-				list2.add(item.data().trim().toLowerCase(Locale.getDefault()));
+				list2.add(CueFilter.normalize(item.data()));
 			}
 			
 			// Match every string in one list against the other
-			// Note: If there's a match found, the matching string is removed from
-			// subsequent comparisons
 			for(int i = 0; mRunning && i < list1.size(); ++i) {
 				String s1 = list1.get(i);
+				int bestIndex = -1;
+				double bestSim = Math.max(threshold, mTopMatches.minScore());
 				for(int j = 0; mRunning && j < list2.size(); ++j) {
 					String s2 = list2.get(j);
 					if(s2.equals(s1)) {
-						Log.i(TAG, "match found: " + myItems.get(i).data());
-						mMatchedCuesList.add(myItems.get(i));
+						bestIndex = j;
+						bestSim = 1;
 						break;
-					} else {
-						int ld = computeLevenshteinDistance(s1, s2);
-						double sim = (1 - (ld / (double)Math.max(s1.length(), s2.length())));
-						if(sim >= threshold) {
-								Log.i(TAG, "match found: " + myItems.get(i).data());
-								mMatchedCuesList.add(myItems.get(i));
-								break;
-						}
+					}
+					int maxLength = Math.max(s1.length(), s2.length());
+					// The distance is at least the difference in lengths
+					double bound = 1 - Math.abs(s1.length() - s2.length()) / (double) maxLength;
+					if(bound < bestSim || (bestIndex >= 0 && bound == bestSim)) continue;
+					int ld = computeLevenshteinDistance(s1, s2);
+					double sim = 1 - ld / (double) maxLength;
+					if(sim > bestSim || (bestIndex < 0 && sim == bestSim)) {
+						bestIndex = j;
+						bestSim = sim;
 					}
 				}
-			}
-		}
-		
-		/**
-		 * Returns the minimum of 3 numbers
-		 * @param a
-		 * @param b
-		 * @param c
-		 * @return
-		 */
-		private int minimum(int a, int b, int c) {                            
-			return Math.min(Math.min(a, b), c);                                      
-		}
-
-		/**
-		 * Returns Levenshtein edit distance between 2 strings
-		 * @param s1
-		 * @param s2
-		 * @return
-		 * Levenshtein distance is defined as the minimum number of edits
-		 * (add/delete/change) required to make one string identical to the
-		 * other
-		 */
-		public int computeLevenshteinDistance(String s1, String s2) {
-			int len1 = s1.length() + 1;
-			int len2 = s2.length() + 1;
-
-			// Array of distances
-			int[] cost = new int[len1];
-			int[] newcost = new int[len1];
-
-			// Initial cost of skipping prefix in String s1
-			for (int i = 0; i < len1; i++)
-				cost[i] = i;
-
-			// Compute the array of distances
-			// Transformation cost for each letter in s2
-			for (int j = 1; j < len2; j++) {
-				// Initial cost of skipping prefix in String s2
-				newcost[0] = j;
-
-				// Transformation cost for each letter in s1
-				for(int i = 1; i < len1; i++) {
-					// Matching current letters in both strings
-					int match = (s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 1;
-
-					// Cost for each type of operation
-					int cost_replace = cost[i - 1] + match;
-					int cost_insert  = cost[i] + 1;
-					int cost_delete  = newcost[i - 1] + 1;
-
-					// Keep minimum cost
-					newcost[i] = minimum(cost_insert, cost_delete, cost_replace);
+				if(bestIndex >= 0 && mTopMatches.offer(myItems.get(i), theirItems.get(bestIndex).data(), bestSim)) {
+					EventLog.record(EventLog.Event.MATCH_FOUND, myItems.get(i).id(), (long) (bestSim * 1000));
 				}
-				// Swap cost/newcost arrays
-				int[] swap = cost; cost = newcost; newcost = swap;
 			}
-
-			// The distance is the cost for transforming all letters in both strings
-			return cost[len1 - 1];
+			Metrics.record(Metrics.Stage.MATCH, start);
 		}
 		
 		/**
@@ -5,6 +5,8 @@
 package com.wantedbug.cuesense;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
 
@@ -22,14 +24,21 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnCompletionListener;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Parcelable;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.support.v4.app.DialogFragment;
 //import android.app.Fragment;
 import android.support.v4.app.Fragment;
@@ -43,13 +52,19 @@ import android.support.v4.view.ViewPager;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
 import com.wantedbug.cuesense.BluetoothManager.DistanceRangeListener;
-import com.wantedbug.cuesense.CueSenseListFragment.CueSenseListener;
+import com.wantedbug.cuesense.DBHelper.CueItemSink;
 import com.wantedbug.cuesense.DeleteCueSenseItemDialog.DeleteCueSenseItemListener;
+import com.wantedbug.cuesense.ExchangeModeDialog.ExchangeModeListener;
 import com.wantedbug.cuesense.FBListFragment.FacebookCueListener;
+import com.wantedbug.cuesense.InfoPool.MatchListener;
 import com.wantedbug.cuesense.NewCueSenseItemDialog.NewCueSenseItemListener;
+import com.wantedbug.cuesense.PeerRegistry.Peer;
+import com.wantedbug.cuesense.StartupTracer.ReadyPhase;
 import com.wantedbug.cuesense.TwitterListFragment.TwitterCueListener;
 
 
@@ -58,10 +73,12 @@ import com.wantedbug.cuesense.TwitterListFragment.TwitterCueListener;
  * @author vikasprabhu
  */
 public class MainActivity extends FragmentActivity implements ActionBar.TabListener,
-		CueSenseListener, NewCueSenseItemListener, DeleteCueSenseItemListener,
+		CueRepository.Observer, NewCueSenseItemListener, DeleteCueSenseItemListener,
 		FacebookCueListener,
 		TwitterCueListener,
-		DistanceRangeListener {
+		DistanceRangeListener,
+		MatchListener,
+		ExchangeModeListener {
 	// Debugging
 	private static final String TAG = "MainActivity";
 	public static final boolean DEBUG = true;
@@ -73,9 +90,21 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	private static final int REQUEST_ENABLE_BT = 1;
 	
 	private static final boolean PLAY_NOTIFICATION = true;
+	// What the user who initiates an exchange sends: the cues themselves, a
+	// filter of them or sketches of them, see InfoPool
+	// Note: in the order of R.array.exchange_modes. A filter only finds exact
+	// matches and sketches can miss fuzzy ones, so the cues themselves are
+	// sent by default. The mode is a debug setting, see ExchangeModeDialog.
+	static final int EXCHANGE_CUES = 0;
+	static final int EXCHANGE_FILTER = 1;
+	static final int EXCHANGE_SKETCHES = 2;
+	private static final String PREF_KEY_EXCHANGE_MODE = "exchange_mode";
+	// Bluetooth name the user had before we tagged it, see ensureBTNameTagged()
+	private static final String PREF_KEY_BT_ORIGINAL_NAME = "bt_original_name";
 
 	// Time interval between successive Bluetooth discovery scans
-	private static final int SCAN_INTERVAL_MS = 5000;
+	// Note: package-private for CueSenseSimulator
+	static final int SCAN_INTERVAL_MS = 5000;
 	// Tab content identifiers
 	public enum InfoType {
 		INFO_CUESENSE(2),
@@ -111,6 +140,7 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	// Key message names received from BTManager
 	public static final String BT_MSG_ERROR = "error";
 	public static final String BT_MSG_SENDRECV_DATA = "data";
+	public static final String BT_MSG_SENDRECV_ADDRESS = "address";
 	// Error message values
 	public static final int BT_ERR_CONN_LOST = 1;
 	public static final int BT_ERR_CONN_FAILED = 2;
@@ -118,8 +148,9 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	// Bluetooth RSSI range values
 	// Note: calibrate these for every test environment since Bluetooth RSSI
 	// values are dependent on the surroundings, surfaces, objects, obstacles, etc.
-	private static final int BT_RSSI_NEAR = 65;
-	private static final int BT_RSSI_FAR = 100;
+	// Note: package-private for CueSenseSimulator
+	static final int BT_RSSI_NEAR = 65;
+	static final int BT_RSSI_FAR = 100;
 	
 	// Distance levels
 	public static final int DISTANCE_OUTOFRANGE = -1;
@@ -146,10 +177,18 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	 * Members
 	 */
 	private BluetoothAdapter mBTAdapter = BluetoothAdapter.getDefaultAdapter();
-	private BluetoothManager mBTManager = null;
-	// A handler to deal with callbacks from BTManager
+	private volatile BluetoothManager mBTManager = null;
+	// Thread that runs the discover -> exchange -> decode stages of data exchange
+	// with other users. Matching is done by InfoPool on its own thread, and only
+	// the final "new matched cues" notification is posted to the UI thread.
+	// Note: state used by these stages (peers, Cues data and its versions) is
+	// only touched on this thread
+	private final HandlerThread mExchangeThread = startExchangeThread();
+	// A handler to run tasks on the exchange thread
+	private final Handler mExchangeHandler = new Handler(mExchangeThread.getLooper());
+	// A handler to deal with callbacks from BTManager, on the exchange thread
     @SuppressLint("HandlerLeak")
-	private final Handler mBTMessageHandler = new Handler() {
+	private final Handler mBTMessageHandler = new Handler(mExchangeThread.getLooper()) {
         @Override
         public void handleMessage(Message msg) {
         	Log.d(TAG, "handleMessage()");
@@ -164,19 +203,36 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
             	break;
             case BT_MSG_PAIREDUSERCONNECTED:
             	Log.i(TAG, "users connected");
-            	if(mBTAdapter.getAddress().equals(USER1))
-            		mBTManager.writeToPairedUser(getCuesData(mCurrDistance).toString().getBytes());
-            	setDataChanged(mCurrDistance, false);
+            	// Only the user who initiated the exchange sends first
+            	if(mCurrPeer != null) {
+            		JSONObject data = null;
+            		// Only send a summary to peers known to answer it with candidates
+            		int mode = mExchangeMode;
+            		if(mPool.peerVersion(mCurrPeer.address()) < InfoPool.SUMMARY_PROTOCOL_VERSION) {
+            			mode = EXCHANGE_CUES;
+            		}
+            		switch(mode) {
+            		case EXCHANGE_FILTER: data = mPool.getFilterData(mCurrDistance); break;
+            		case EXCHANGE_SKETCHES: data = mPool.getSketchData(mCurrDistance); break;
+            		default: break;
+            		}
+            		if(data == null) data = getCuesData(mCurrDistance);
+            		// Tell the peer we have nothing rather than leave it waiting
+            		if(data == null) data = InfoPool.getEmptyData(mCurrDistance);
+            		mBTManager.writeToPairedUser(data.toString().getBytes());
+            	}
             	break;
             case BT_MSG_SENDRECV_ERROR: {
-            	mCurrDevice = null;
+            	// Retry the exchange with this peer after it cools down
+            	if(mCurrPeer != null) mPeerRegistry.onExchangeFailed(mCurrPeer);
+            	mCurrPeer = null;
             	// Unpair the users' phones if they were bonded
             	// Note: we have to do this because the low level implementation may change between
             	// device manufacturers
             	Log.i(TAG, "Unpairing phones");
     			Set<BluetoothDevice> devices = mBTAdapter.getBondedDevices();
     			for(BluetoothDevice dev : devices) {
-    				if(dev.getName().equals(USER1) || dev.getName().equals(USER2)) {
+    				if(mPeerRegistry.isPeer(dev.getAddress())) {
     					Log.i(TAG, dev.getName() + " bonded after BT_MSG_SENDRECV_DONE");
     					try {
     						Method method = dev.getClass().getMethod("removeBond", (Class[]) null);
@@ -191,20 +247,18 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
             	// Restart listening and discovery
             	Log.i(TAG, "Restarting user threads and discovery");
             	mBTManager.startPairedUserThreads();
-            	if(mBTAdapter.getAddress().equals(USER1))
-            		mBTScanHandler.postDelayed(mBTScanRunnable, SCAN_INTERVAL_MS);
+            	restartScan();
             }
             	break;
             case BT_MSG_SENDRECV_DONE: {
-            	mCurrDevice = null;
+            	Metrics.count(Metrics.Counter.EXCHANGES_DONE);
+            	if(mCurrPeer != null) Metrics.record(Metrics.Stage.EXCHANGE, mExchangeStart);
+            	mCurrPeer = null;
             	// Send received data to InfoPool for matching
+            	// Note: the UI is notified through onCuesMatched() when matching is done
             	String data = msg.getData().getString(BT_MSG_SENDRECV_DATA);
             	if(!data.isEmpty()) {
-            		mPool.matchData(data);
-            		// Play an audio cue when data send/receive is done
-            		playSound(mCurrDistance);
-            		// Preempt animation in the TextScrollFragment if any to display new data
-            		if(mTextScrollFragment != null && mTextScrollFragment.isAdded()) mTextScrollFragment.clearAndGetNextText();
+            		mPool.matchData(data, msg.getData().getString(BT_MSG_SENDRECV_ADDRESS));
             	}
     			// Unpair the users' phones if they were bonded
             	// Note: we have to do this because the low level implementation may change between
@@ -212,7 +266,7 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
             	Log.i(TAG, "Unpairing phones");
     			Set<BluetoothDevice> devices = mBTAdapter.getBondedDevices();
     			for(BluetoothDevice dev : devices) {
-    				if(dev.getName().equals(USER1) || dev.getName().equals(USER2)) {
+    				if(mPeerRegistry.isPeer(dev.getAddress())) {
     					Log.i(TAG, dev.getName() + " bonded after BT_MSG_SENDRECV_DONE");
     					try {
     						Method method = dev.getClass().getMethod("removeBond", (Class[]) null);
@@ -227,8 +281,7 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
             	// Restart listening and discovery
             	Log.i(TAG, "Restarting user threads and discovery");
             	mBTManager.startPairedUserThreads();
-            	if(mBTAdapter.getAddress().equals(USER1))
-            		mBTScanHandler.postDelayed(mBTScanRunnable, SCAN_INTERVAL_MS);
+            	restartScan();
             }
             	break;
             }
@@ -242,8 +295,20 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	
 	// Database helper class
 	private DBHelper mDBHelper;
+	// Types of social cues fetched during this session
+	// Note: the cached cues of a type are replaced when its first fresh cue comes in
+	// Note: guarded by itself, since the cached cues are loaded on the exchange thread
+	private final Set<InfoType> mFetchedTypes = EnumSet.noneOf(InfoType.class);
+	// Bumped whenever the social cues of a type in the InfoPool are replaced
+	// or removed, so that cached cues still being loaded are dropped
+	// Note: guarded by mFetchedTypes
+	private final int[] mSocialGenerations = new int[InfoType.values().length];
+	// Set once the work deferred until after the first frame has started
+	private boolean mDeferredInitStarted = false;
 	// InfoPool instance
 	InfoPool mPool = InfoPool.INSTANCE;
+	// Repository of the CueSense cues
+	private final CueRepository mCueRepository = CueRepository.INSTANCE;
 	
 	// Contents of the CueSense profile tab
 	private CueSenseListFragment mCSListFragment;
@@ -264,107 +329,178 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	// Note: one object for each distance range
 	private JSONObject mNearData;
 	private JSONObject mFarData;
-	// Flags set when above data changes
-	private boolean mNearDataChanged = true;
-	private boolean mFarDataChanged = true;
-	
-	// Distance levels to determine what data to send
-	private int mPrevDistance = DISTANCE_OUTOFRANGE;
-	private int mCurrDistance = DISTANCE_OUTOFRANGE;
+	// Versions of the above data, incremented when the data changes
+	private int mNearDataVersion = 1;
+	private int mFarDataVersion = 1;
 	
-	// BluetoothDevice cache to avoid multiple discovery callbacks interfering with
-	// an ongoing transmission
-	private BluetoothDevice mCurrDevice = null;
+	// Distance level of the user we're exchanging data with
+	// Note: volatile since it's also read by BTManager's threads
+	private volatile int mCurrDistance = DISTANCE_OUTOFRANGE;
 	
-//	private static final String USER1 = "6C:F3:73:65:65:19"; // timo@s3mini, GT-I8190N
-//	private static final String USER2 = "6C:F3:73:65:66:A3"; // nikkis@s3mini, nikkis@s3mini
-	private static final String USER1 = "34:BE:00:57:29:33"; // sg2ting
-	private static final String USER2 = "34:BE:00:57:26:B9"; // sg2tung
+	// Nearby CueSense users
+	private final PeerRegistry mPeerRegistry = new PeerRegistry();
+	// Peer of the exchange we initiated, if any, to avoid multiple discovery
+	// callbacks interfering with an ongoing transmission
+	private Peer mCurrPeer = null;
+	// What we send as the initiator, see EXCHANGE_CUES
+	// Note: volatile since it's read on the exchange thread
+	private volatile int mExchangeMode = EXCHANGE_CUES;
+	// Start times of the current discovery scan and of the exchange we initiated, for Metrics
+	private long mDiscoveryStart = 0;
+	private long mExchangeStart = 0;
 	
-	// BroadcastReceiver to listen for another user's Bluetooth device
+	// BroadcastReceiver to listen for other users' Bluetooth devices
 	private BroadcastReceiver mBTScanReceiver = new BroadcastReceiver() {
         @Override
         public synchronized void onReceive(Context context, Intent intent) {
-        	Log.d(TAG, "BroadcastReceiver::onReceive()");
             String action = intent.getAction();
+            long now = SystemClock.elapsedRealtime();
             if(BluetoothDevice.ACTION_FOUND.equals(action)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                // Discard devices that aren't CueSense users before doing anything else
+                if(device == null || mPeerRegistry.isIgnored(device.getAddress(), now)) return;
             	// Get signal strength and device details
                 int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI,Short.MIN_VALUE);
                 String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
-                Log.i(TAG, "onReceive() " + name + "," + rssi + "dBm" +
-                		", pairedState=" + mBTManager.getPairedUserState());
-                BluetoothDevice temp = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                BluetoothDevice device = temp; // mBTAdapter.getRemoteDevice(temp.getAddress());
-                Log.i(TAG, "device=" + device + "mCurrDevice=" + mCurrDevice);
-                // Send if we find the right device and if we're ready to accept the connection
-                if(device != null && device.getAddress().equals(USER2) &&
-                		(mCurrDevice == null || !mCurrDevice.getAddress().equals(device.getAddress())) &&
-                		mBTManager.getPairedUserState() >= BluetoothManager.STATE_LISTEN) {
-                	mCurrDistance = getDistanceFromRSSI(rssi);
-                	Toast.makeText(getApplicationContext(), "RSSI: " + rssi + "dBm", Toast.LENGTH_SHORT).show();
-                	synchronized (this) {
-                		// Send if in range and distance range is different from the last scan
-                		if(mCurrDistance != DISTANCE_OUTOFRANGE && mPrevDistance != mCurrDistance) {
-                			Log.i(TAG, "Sending to " + device.getName() + "," + device.getAddress());
-                			// Cache the BluetoothDevice and distance range
-                			mCurrDevice = device;
-                			mPrevDistance = mCurrDistance;
-                			// Stop discovery
-                        	mBTAdapter.cancelDiscovery();
-                        	mBTScanHandler.removeCallbacks(mBTScanRunnable);
-                        	// Get the data to be sent
-                			JSONObject data = getCuesData(mCurrDistance);
-                			if(null != data) {
-                				// If data hasn't changed from the last time a transmission was made
-                				// for this distance range, we basically only need to send the
-                				// distance range to the other device
-                				if(!isDataChanged(mCurrDistance)) {
-                					String dummyData = "{\"" + InfoPool.JSON_DISTANCE_NAME + "\":" + mCurrDistance + "}";
-                					try {
-                    					JSONObject tempData = new JSONObject(dummyData);
-                    					data = null;
-                    					data = tempData;
+                Peer peer = mPeerRegistry.onDeviceFound(device, name, rssi, getDistanceFromRSSI(rssi), now);
+                if(peer != null) {
+                	// Keep the cues matched with this user on display
+                	mPool.onPeerSeen(peer.address());
+                	Metrics.count(Metrics.Counter.PEERS_FOUND);
+                	if(mDiscoveryStart != 0) Metrics.record(Metrics.Stage.DISCOVERY, mDiscoveryStart);
+                	onPeerFound(peer, now);
+                }
+            } else if(BluetoothDevice.ACTION_UUID.equals(action)) {
+            	// Result of an SDP query for a device that couldn't be classified during discovery
+            	BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            	Parcelable[] uuids = intent.getParcelableArrayExtra(BluetoothDevice.EXTRA_UUID);
+            	Peer peer = mPeerRegistry.onUuidsFetched(device, uuids, now);
+            	if(peer != null) {
+            		mPool.onPeerSeen(peer.address());
+            		Metrics.count(Metrics.Counter.PEERS_FOUND);
+            		onPeerFound(peer, now);
+            	}
+            } else if(BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+            	mPeerRegistry.querySdpCandidates();
+            }
+        }
+    };
+    
+    /**
+     * Starts an exchange with a peer found during discovery, if needed
+     * @param peer
+     * @param now
+     */
+    private void onPeerFound(Peer peer, long now) {
+    	Log.i(TAG, "onPeerFound() " + peer.name() + "," + peer.rssi() + "dBm" +
+    			", pairedState=" + mBTManager.getPairedUserState());
+    	// Only one user of a pair initiates the exchange, the other one accepts it
+    	if(!isInitiator(peer)) return;
+    	// Send if we're not busy with another peer and if we're ready to accept the connection
+    	if(mCurrPeer == null &&
+    			mBTManager.getPairedUserState() >= BluetoothManager.STATE_LISTEN) {
+        	mCurrDistance = peer.band();
+        	final int rssi = peer.rssi();
+        	runOnUiThread(new Runnable() {
+        		@Override
+        		public void run() {
+        			Toast.makeText(getApplicationContext(), "RSSI: " + rssi + "dBm", Toast.LENGTH_SHORT).show();
+        		}
+        	});
+        	BluetoothDevice device = peer.device();
+        	synchronized (this) {
+        		// Send if in range and distance range or data is different from the last exchange
+        		if(mPeerRegistry.shouldExchange(peer, getDataVersion(mCurrDistance), now)) {
+        			Log.i(TAG, "Sending to " + device.getName() + "," + device.getAddress());
+        			// Cache the peer
+        			mCurrPeer = peer;
+        			// Stop discovery
+                	mBTAdapter.cancelDiscovery();
+                	mBTScanHandler.removeCallbacks(mBTScanRunnable);
+                	// Get the data to be sent
+        			JSONObject data = getCuesData(mCurrDistance);
+        			if(null != data) {
+        				// If data hasn't changed from the last time a transmission was made
+        				// to this peer for this distance range, we basically only need to send the
+        				// distance range to the other device
+        				if(!isDataChanged(peer, mCurrDistance)) {
+        					String dummyData = "{\"" + InfoPool.JSON_DISTANCE_NAME + "\":" + mCurrDistance
+        							+ ",\"" + InfoPool.JSON_VERSION_NAME + "\":" + InfoPool.PROTOCOL_VERSION + "}";
+        					try {
+            					JSONObject tempData = new JSONObject(dummyData);
+            					data = null;
+            					data = tempData;
 									} catch (JSONException e) {
 										Log.e(TAG, "dummy data JSON creation error" + e);
 										// But this is ok since we know the JSON is valid
 									}
-                				}
-                				// Connect and send
-                				mBTManager.connectAndSend(device, data);
-                				// Note: Devices are unbonded later after send/receive succeeds
-                				if(device.getBondState() == BluetoothDevice.BOND_BONDED) {
-                					Log.i(TAG, device.getName() + " bonded after connectAndSend()");
-                				}
-                			} else {
-                				// Restart listening and discovery
-                            	Log.i(TAG, "no data for distance " + mCurrDistance);
-                            	mCurrDevice = null;
-                            	setDataChanged(mCurrDistance, false);
+        				}
+        				// Connect and send
+        				mPeerRegistry.onExchangeStarted(peer, mCurrDistance, getDataVersion(mCurrDistance), now);
+        				mExchangeStart = Metrics.start();
+        				mBTManager.connectAndSend(device, data);
+        				// Note: Devices are unbonded later after send/receive succeeds
+        				if(device.getBondState() == BluetoothDevice.BOND_BONDED) {
+        					Log.i(TAG, device.getName() + " bonded after connectAndSend()");
+        				}
+        			} else {
+        				// Restart listening and discovery
+                    	Log.i(TAG, "no data for distance " + mCurrDistance);
+                    	mCurrPeer = null;
+                    	mPeerRegistry.onExchangeStarted(peer, mCurrDistance, getDataVersion(mCurrDistance), now);
 //                            	mBTManager.startPairedUserThreads();
-                            	if(mBTAdapter.getAddress().equals(USER1))
-                            		mBTScanHandler.postDelayed(mBTScanRunnable, SCAN_INTERVAL_MS);
-                			}
-                		} else {
-                			Log.i(TAG, "not sending data " + mCurrDistance + mPrevDistance + isDataChanged(mCurrDistance));
-                			mBTScanHandler.removeCallbacks(mBTScanRunnable);
-                			if(mBTAdapter.getAddress().equals(USER1))
-                        		mBTScanHandler.postDelayed(mBTScanRunnable, SCAN_INTERVAL_MS);
-                		}
-                	}
-                }
-            }
-        }
-    };
+                    	restartScan();
+        			}
+        		} else {
+        			Log.i(TAG, "not sending data " + mCurrDistance + isDataChanged(peer, mCurrDistance));
+        			restartScan();
+        		}
+        	}
+    	}
+    }
+    
+    /**
+     * Returns true if we initiate the exchange with the peer
+     * @param peer
+     * @return
+     * Both users scan, so the one with the lower Bluetooth address initiates
+     * the exchange and the other one accepts it.
+     */
+    private boolean isInitiator(Peer peer) {
+    	return mBTAdapter.getAddress().compareTo(peer.address()) < 0;
+    }
+    
+    /**
+     * Reschedules the next Bluetooth discovery scan
+     */
+    private void restartScan() {
+    	mBTScanHandler.removeCallbacks(mBTScanRunnable);
+    	mBTScanHandler.postDelayed(mBTScanRunnable, SCAN_INTERVAL_MS);
+    }
+    
+    /**
+     * Creates and starts the exchange thread
+     * @return
+     */
+    private static HandlerThread startExchangeThread() {
+    	HandlerThread thread = new HandlerThread("ExchangeThread", Process.THREAD_PRIORITY_BACKGROUND);
+    	thread.start();
+    	return thread;
+    }
     
     // A Handler and Runnable to continuously scan for another user's Bluetooth device
     // specifically for signal strength
-    Handler mBTScanHandler = new Handler();
+    // Note: scans are scheduled on the exchange thread
+    Handler mBTScanHandler = new Handler(mExchangeThread.getLooper());
     Runnable mBTScanRunnable = new Runnable() {
         @Override
         public void run() {
+        	// Forget users who have walked away
+        	mPeerRegistry.evictStale(SystemClock.elapsedRealtime());
         	if(mBTAdapter != null) {
         		if(!mBTAdapter.isDiscovering()) {
         			Log.d(TAG, "performing BT scan");
+        			mDiscoveryStart = Metrics.start();
         			mBTAdapter.startDiscovery();
         		} else {
         			Log.d(TAG, "BT scan discovery in progress");
@@ -377,7 +513,12 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	/** MainActivity lifecycle methods*/
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
+		StartupTracer.onLaunchStarted();
 		super.onCreate(savedInstanceState);
+		// Keep the recent hot path events if the app crashes
+		EventLog.installCrashHandler(this);
+		/** Startup phase 1: UI, before the first frame */
+		long phaseStart = StartupTracer.beginPhase("ui");
 		setContentView(R.layout.activity_main);
 		
 		/** Bluetooth setup */
@@ -385,12 +526,10 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         if (mBTAdapter == null) {
         	Log.e(TAG, "BT not available");
             Toast.makeText(this, R.string.bt_not_available, Toast.LENGTH_LONG).show();
+            StartupTracer.endPhase("ui", phaseStart);
             finish();
             return;
         }
-        
-        /** Set up TwitterUtils */
-		mTwitterUtils.init(getApplicationContext());
 		
 		/** Action bar and tabs setup */
 		// Set up the action bar.
@@ -418,8 +557,133 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 		}
 		
 		/** Database and InfoPool setup */
-		mDBHelper = new DBHelper(getApplication());
-		mPool.addCueItems(mDBHelper.getItems(InfoType.INFO_CUESENSE));
+		// Note: the database isn't opened until it's first used
+		mDBHelper = DBHelper.getInstance(getApplication());
+		mPool.setMatchListener(this);
+		mCueRepository.setStore(mDBHelper);
+		mCueRepository.addObserver(mPool);
+		mCueRepository.addObserver(this);
+		StartupTracer.endPhase("ui", phaseStart);
+		
+		/** Startup phase 2: everything else, after the first frame */
+		runAfterFirstFrame(new Runnable() {
+			@Override
+			public void run() {
+				startDeferredInit();
+			}
+		});
+	}
+	
+	/**
+	 * Runs the action on the UI thread once the first frame has been drawn
+	 * @param action
+	 */
+	private void runAfterFirstFrame(final Runnable action) {
+		final View decorView = getWindow().getDecorView();
+		decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+			@Override
+			public boolean onPreDraw() {
+				decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+				// Posted now, the action runs after this frame is drawn
+				decorView.post(new Runnable() {
+					@Override
+					public void run() {
+						StartupTracer.onFirstFrame();
+						action.run();
+					}
+				});
+				return true;
+			}
+		});
+	}
+	
+	/**
+	 * Starts the work deferred until after the first frame, in this order:
+	 * the Bluetooth link, then on the exchange thread the Bluetooth server
+	 * socket, InfoPool hydration from the database and Twitter init.
+	 */
+	private void startDeferredInit() {
+		if(isFinishing()) return;
+		mDeferredInitStarted = true;
+		
+		/** Bluetooth link, unless we're still waiting for BT to be enabled */
+		if(mBTAdapter.isEnabled() && mBTManager == null) {
+			long phaseStart = StartupTracer.beginPhase("bluetooth");
+			setupBTLink();
+			StartupTracer.endPhase("bluetooth", phaseStart);
+		}
+		
+		/** Database hydration */
+		mExchangeHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				long phaseStart = StartupTracer.beginPhase("db");
+				mExchangeMode = PreferenceManager.getDefaultSharedPreferences(getApplicationContext())
+						.getInt(PREF_KEY_EXCHANGE_MODE, EXCHANGE_CUES);
+				// Note: items are read a page at a time straight into the InfoPool
+				// The CueSense cues also go to the repository, as copies, the
+				// first time around
+				final boolean loadRepository = !mCueRepository.isLoaded();
+				final List<CueItem> repositoryItems = new ArrayList<CueItem>();
+				mDBHelper.streamItems(InfoType.INFO_CUESENSE, new CueItemSink() {
+					@Override
+					public void onCueItems(List<CueItem> items) {
+						// Note: leaving out cues added before the database was read
+						mPool.addStoredCueItems(items);
+						if(!loadRepository) return;
+						for(CueItem item : items) {
+							repositoryItems.add(new CueItem(item.id(), item.type(), item.data(), item.isChecked()));
+						}
+					}
+				});
+				if(loadRepository) mCueRepository.load(repositoryItems);
+				// Use the cached Facebook and Twitter cues until the fresh ones come in
+				// so that we're ready to exchange without waiting for the network
+				// Note: unless fresh ones have already come in
+				loadCachedCues(InfoType.INFO_FACEBOOK);
+				loadCachedCues(InfoType.INFO_TWITTER);
+				setDataChanged(DISTANCE_NEAR);
+				setDataChanged(DISTANCE_FAR);
+				StartupTracer.endPhase("db", phaseStart);
+				StartupTracer.onReady(ReadyPhase.POOL);
+			}
+		});
+		
+		/** Twitter */
+		mExchangeHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				long phaseStart = StartupTracer.beginPhase("twitter");
+				mTwitterUtils.init(getApplicationContext());
+				StartupTracer.endPhase("twitter", phaseStart);
+			}
+		});
+	}
+	
+	/**
+	 * Loads the cached cues of a type into the InfoPool, unless fresh ones
+	 * have come in
+	 * @param type
+	 * Note: run on the exchange thread. The cache is read without holding
+	 * mFetchedTypes, so that the callbacks on the UI thread don't wait for the
+	 * database. Pages are dropped once fresh cues of the type have come in or
+	 * the user has logged out.
+	 */
+	private void loadCachedCues(final InfoType type) {
+		final int generation;
+		synchronized (mFetchedTypes) {
+			if(mFetchedTypes.contains(type)) return;
+			generation = mSocialGenerations[type.ordinal()];
+		}
+		mDBHelper.streamCachedItems(type, new CueItemSink() {
+			@Override
+			public void onCueItems(List<CueItem> items) {
+				synchronized (mFetchedTypes) {
+					if(generation != mSocialGenerations[type.ordinal()]) return;
+					mPool.addCueItems(items);
+				}
+			}
+		});
 	}
 	
 	@Override
@@ -437,7 +701,9 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         } else {
         	Log.i(TAG, "BT enabled. Setting up link..");
         	ensureBTDiscoverable();
-            if (mBTManager == null) setupBTLink();
+        	ensureBTNameTagged();
+        	// Note: on launch, the link is set up after the first frame
+            if (mBTManager == null && mDeferredInitStarted) setupBTLink();
         }
 	}
 	
@@ -445,6 +711,8 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	public synchronized void onPause() {
 		super.onPause();
         Log.d(TAG, "onPause()");
+        // Don't keep database changes waiting while we're in the background
+        if(mDBHelper != null) mDBHelper.flush();
 	}
 	
 	@Override
@@ -461,12 +729,30 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
               // Start the Bluetooth threads
 //              mBTManager.setup();
             }
-            if (mBTManager.getPairedUserState() == BluetoothManager.STATE_NONE) {
-            	mBTManager.startPairedUserThreads();
-            }
+            startPairedUserThreadsAsync();
         }
     }
 	
+	/**
+	 * Starts listening for the nearby user on the exchange thread, if not listening yet
+	 * Note: opening the server socket registers an SDP record, which can take a while
+	 */
+	private void startPairedUserThreadsAsync() {
+		mExchangeHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				BluetoothManager btManager = mBTManager;
+				if(btManager == null) return;
+				if(btManager.getPairedUserState() == BluetoothManager.STATE_NONE) {
+					long phaseStart = StartupTracer.beginPhase("bt-server");
+					btManager.startPairedUserThreads();
+					StartupTracer.endPhase("bt-server", phaseStart);
+				}
+				StartupTracer.onReady(ReadyPhase.BLUETOOTH);
+			}
+		});
+	}
+	
 	@Override
     public void onDestroy() {
 		Log.d(TAG, "onDestroy()");
@@ -479,7 +765,8 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         // Stop the send and scan handler runnables
 //        mSendCueHandler.removeCallbacks(mSendCueRunnable);
         mBTScanHandler.removeCallbacks(mBTScanRunnable);
-        if(mBTScanReceiver != null && mBTAdapter.getAddress().equals(USER1)) {
+        if(mBTAdapter != null) restoreBTName();
+        if(mBTScanReceiver != null) {
         	try {
         		unregisterReceiver(mBTScanReceiver);
         	} catch(IllegalArgumentException e) {
@@ -487,6 +774,15 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         		mBTScanReceiver = null;
         	}
         }
+        // Stop the exchange thread once it's done with pending messages
+        // Note: before JB MR2 there's no quitSafely(), and pending messages are dropped
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        	mExchangeThread.quitSafely();
+        } else {
+        	mExchangeThread.quit();
+        }
+        mPool.setMatchListener(null);
+        mCueRepository.removeObserver(this);
         mPool.clear();
     }
 	/** End MainActivity lifecycle methods*/
@@ -525,10 +821,14 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         // Start Bluetooth discovery to continuously monitor signal strength of the nearby user
         // Note: This is being done without Bluetooth LE. Therefore discovery being started is MANDATORY.
         // Register the BroadcastReceiver
-        if(mBTAdapter.getAddress().equals(USER1)) {
-	        registerReceiver(mBTScanReceiver, new IntentFilter(BluetoothDevice.ACTION_FOUND));
-			mBTScanHandler.post(mBTScanRunnable);
-        }
+        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothDevice.ACTION_UUID);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        // Note: discovery broadcasts are received on the exchange thread
+        registerReceiver(mBTScanReceiver, filter, null, mBTScanHandler);
+		mBTScanHandler.post(mBTScanRunnable);
+		// Start listening for the nearby user
+		startPairedUserThreadsAsync();
     }
 	
 //	/**
@@ -561,6 +861,40 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
     	}
 	}
 	
+	/**
+	 * Ensures that the Bluetooth name carries the CueSense tag, so that other
+	 * CueSense users recognise us without an SDP query
+	 * Note: the original name is kept in the preferences, rather than a member,
+	 * so that it's restored even if the app was killed while tagged
+	 */
+	private void ensureBTNameTagged() {
+		String name = mBTAdapter.getName();
+		if(name != null && name.contains(PeerRegistry.CUESENSE_NAME_TAG)) return;
+		String tagged = (name == null || name.isEmpty()) ?
+				PeerRegistry.CUESENSE_NAME_TAG : name + " " + PeerRegistry.CUESENSE_NAME_TAG;
+		if(mBTAdapter.setName(tagged)) {
+			PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).edit()
+					.putString(PREF_KEY_BT_ORIGINAL_NAME, name != null ? name : "").apply();
+		} else {
+			Log.e(TAG, "failed to set BT name " + tagged);
+		}
+	}
+	
+	/**
+	 * Gives the Bluetooth name back its original value, if we tagged it
+	 */
+	private void restoreBTName() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+		String name = prefs.getString(PREF_KEY_BT_ORIGINAL_NAME, null);
+		if(name == null) return;
+		// Note: this fails if Bluetooth is off, in which case it's tried again next time
+		if(mBTAdapter.setName(name)) {
+			prefs.edit().remove(PREF_KEY_BT_ORIGINAL_NAME).apply();
+		} else {
+			Log.e(TAG, "failed to restore BT name " + name);
+		}
+	}
+	
 	/**
 	 *  This routine is called when an activity completes.
 	 */
@@ -572,6 +906,7 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 		case REQUEST_ENABLE_BT:
             if (resultCode == Activity.RESULT_OK) {
             	ensureBTDiscoverable();
+            	ensureBTNameTagged();
                 setupBTLink();
             } else {
                 Log.d(TAG, "BT not enabled");
@@ -588,6 +923,9 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 		getMenuInflater().inflate(R.menu.main, menu);
 		mAddMenuItem = menu.findItem(R.id.action_add);
 		mAddMenuItem.setVisible(false);
+		// Encounter metrics are for debugging only
+		menu.findItem(R.id.action_metrics).setVisible(DEBUG);
+		menu.findItem(R.id.action_exchange_mode).setVisible(DEBUG);
 		return true;
 	}
 
@@ -607,6 +945,14 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 			DialogFragment dialog = new NewCueSenseItemDialog();
 			dialog.show(getSupportFragmentManager(), "new_cuesense_item");
 			return true;
+		} else if(id == R.id.action_metrics) {
+			DialogFragment dialog = new MetricsDialog();
+			dialog.show(getSupportFragmentManager(), "metrics");
+			return true;
+		} else if(id == R.id.action_exchange_mode) {
+			DialogFragment dialog = new ExchangeModeDialog(mExchangeMode);
+			dialog.show(getSupportFragmentManager(), "exchange_mode");
+			return true;
 		} else if(id == R.id.action_showTextScrollDisplay) {
 			if(mPool.hasNext()) {
 				mTextScrollFragment = null;
@@ -712,33 +1058,49 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
     
     /**
      * Returns true if there are new Cues available for the specified distance
-     * range
+     * range since the last exchange with the peer
+     * @param peer
      * @param distanceRange
      * @return
      */
-    private boolean isDataChanged(int distanceRange) {
-    	switch(distanceRange) {
-    	case DISTANCE_NEAR: return mNearDataChanged;
-    	case DISTANCE_FAR: return mFarDataChanged;
-    	case DISTANCE_OUTOFRANGE:
-    	default: return false;
-    	}
+    private boolean isDataChanged(Peer peer, int distanceRange) {
+    	return peer.lastPayloadVersion(distanceRange) != getDataVersion(distanceRange);
     }
     
     /**
-     * Sets/resets the data changed flag for the specified distance range
+     * Returns the current version of the Cues data for the specified distance range
      * @param distanceRange
-     * @param dataChanged
+     * @return
      */
-    private void setDataChanged(int distanceRange, boolean dataChanged) {
+    private int getDataVersion(int distanceRange) {
     	switch(distanceRange) {
-    	case DISTANCE_NEAR: mNearDataChanged = dataChanged; break;
-    	case DISTANCE_FAR: mFarDataChanged = dataChanged; break;
+    	case DISTANCE_NEAR: return mNearDataVersion;
+    	case DISTANCE_FAR: return mFarDataVersion;
     	case DISTANCE_OUTOFRANGE:
-		default: break;
+    	default: return 0;
     	}
     }
     
+    /**
+     * Marks the Cues data for the specified distance range as changed
+     * @param distanceRange
+     * The data is rebuilt the next time it is needed.
+     * Note: Cues data belongs to the exchange thread, so the change is posted there
+     */
+    private void setDataChanged(final int distanceRange) {
+    	mExchangeHandler.post(new Runnable() {
+    		@Override
+    		public void run() {
+    			switch(distanceRange) {
+    			case DISTANCE_NEAR: mNearData = null; ++mNearDataVersion; break;
+    			case DISTANCE_FAR: mFarData = null; ++mFarDataVersion; break;
+    			case DISTANCE_OUTOFRANGE:
+    			default: break;
+    			}
+    		}
+    	});
+    }
+    
     /**
 	 * Returns the appropriate Cues JSONObject
 	 * @param distanceRange
@@ -768,12 +1130,10 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 		case DISTANCE_NEAR:
 			mNearData = null;
 			mNearData = mPool.getData(distanceRange);
-			mNearDataChanged = true;
 			break;
 		case DISTANCE_FAR:
 			mFarData = null;
 			mFarData = mPool.getData(distanceRange);
-			mFarDataChanged = true;
 			break;
 		case DISTANCE_OUTOFRANGE:
 		default:
@@ -783,29 +1143,14 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	}
 	
 	/**
-	 * Constructs a new CueItem and adds it to the database and InfoPool
+	 * Constructs a new CueItem and adds it to the repository
 	 */
 	@Override
 	public void onCueAdded(String itemData) {
-		// Construct a new CueItem and push to database and InfoPool
+		// Construct a new CueItem and push to the repository, which takes it
+		// to the list view, database and InfoPool
 		CueItem item = new CueItem(0, InfoType.INFO_CUESENSE, itemData, true);
-		onCueSenseCueAdded(item);
-	}
-
-	/**
-	 * Keep data model, database and InfoPool in sync when a CueItem is added
-	 */
-	@Override
-	public void onCueSenseCueAdded(CueItem item) {
-//		Log.d(TAG, "onCueSenseCueAdded()");
-		// Push to database
-		mDBHelper.addCueItem(item);
-		// Push to InfoPool
-		mPool.addCueItem(item);
-		// Refresh CueSense list
-		mCSListFragment.refreshList();
-		// Refresh Cues data
-		setDataChanged(DISTANCE_FAR, true);
+		mCueRepository.add(item);
 	}
 
 	@Override
@@ -813,44 +1158,37 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 		mCSListFragment.onCueDeleted(itemPosition);
 	}
 	
-	/**
-	 * Keep data model, database and InfoPool in sync when a CueItem is deleted
-	 */
 	@Override
-	public void onCueSenseCueDeleted(CueItem item) {
-//		Log.d(TAG, "onCueSenseCueDeleted()");
-		// Push to database
-		mDBHelper.deleteCueItem(item);
-		// Push to InfoPool
-		mPool.deleteCueItem(item);
-		// Refresh Cues data
-		setDataChanged(DISTANCE_FAR, true);
+	public void onExchangeModeChanged(int mode) {
+		mExchangeMode = mode;
+		PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).edit()
+				.putInt(PREF_KEY_EXCHANGE_MODE, mode).apply();
 	}
-
+	
 	/**
-	 * Keep data model, database and InfoPool in sync when a CueItem is modified
+	 * Refresh Cues data when the CueSense cues change
+	 * Note: the InfoPool is kept in step by the repository itself
 	 */
 	@Override
-	public void onCueSenseCueChanged(CueItem item) {
-//		Log.d(TAG, "onCueSenseCueChanged()");
-		// Push to database
-		mDBHelper.updateCueItem(item);
-		// Push to InfoPool
-		mPool.updateCueItem(item);
-		// Refresh Cues data
-		setDataChanged(DISTANCE_FAR, true);
+	public void onCuesChanged(CueRepository.ChangeSet changes) {
+		if(changes.isReload()) return;
+		setDataChanged(DISTANCE_FAR);
 	}
 
 	/**
-	 * Keep InfoPool updated when a Facebook cue is added
+	 * Keep InfoPool updated when Facebook cues are added
 	 */
 	@Override
-	public void onFacebookCueAdded(CueItem item) {
-//		Log.d(TAG, "onFacebookCueAdded()");
-		// Push to InfoPool
-		mPool.addCueItem(item);
+	public void onFacebookCuesAdded(List<CueItem> items) {
+//		Log.d(TAG, "onFacebookCuesAdded()");
+		synchronized (mFetchedTypes) {
+			// Push to the cache
+			for(CueItem item : items) cacheSocialCue(item);
+			// Push to InfoPool
+			mPool.addCueItems(items);
+		}
 		// Refresh Cues data
-		setDataChanged(DISTANCE_NEAR, true);
+		setDataChanged(DISTANCE_NEAR);
 	}
 
 	/**
@@ -859,10 +1197,15 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	@Override
 	public void onFacebookLogout() {
 //		Log.d(TAG, "onFacebookLogout()");
-		// Remove Facebook items from InfoPool
-		mPool.deleteType(InfoType.INFO_FACEBOOK);
+		// Remove Facebook items from InfoPool and the cache
+		synchronized (mFetchedTypes) {
+			mPool.deleteType(InfoType.INFO_FACEBOOK);
+			mDBHelper.clearCachedItems(InfoType.INFO_FACEBOOK);
+			mFetchedTypes.remove(InfoType.INFO_FACEBOOK);
+			++mSocialGenerations[InfoType.INFO_FACEBOOK.ordinal()];
+		}
 		// Refresh Cues data
-		setDataChanged(DISTANCE_NEAR, false);
+		setDataChanged(DISTANCE_NEAR);
 	}
 	
 	/**
@@ -873,22 +1216,30 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	@Override
 	public void onFacebookPriorityCuesAdded(List<CueItem> items) {
 //		Log.d(TAG, "onFacebookPriorityCuesAdded()");
-		// Add Facebook items to InfoPool
-		mPool.addCueItemsToTop(items, InfoType.INFO_FACEBOOK);
+		synchronized (mFetchedTypes) {
+			// Push to the cache
+			for(CueItem item : items) cacheSocialCue(item);
+			// Add Facebook items to InfoPool
+			mPool.addCueItemsToTop(items, InfoType.INFO_FACEBOOK);
+		}
 		// Refresh Cues data
-		setDataChanged(DISTANCE_NEAR, true);
+		setDataChanged(DISTANCE_NEAR);
 	}
 
 	/**
-	 * Keep InfoPool updated when a Twitter cue is added
+	 * Keep InfoPool updated when Twitter cues are added
 	 */
 	@Override
-	public void onTwitterCueAdded(CueItem item) {
-//		Log.d(TAG, "onTwitterCueAdded()");
-		// Push to InfoPool
-		mPool.addCueItem(item);
+	public void onTwitterCuesAdded(List<CueItem> items) {
+//		Log.d(TAG, "onTwitterCuesAdded()");
+		synchronized (mFetchedTypes) {
+			// Push to the cache
+			for(CueItem item : items) cacheSocialCue(item);
+			// Push to InfoPool
+			mPool.addCueItems(items);
+		}
 		// Refresh Cues data
-		setDataChanged(DISTANCE_NEAR, true);
+		setDataChanged(DISTANCE_NEAR);
 	}
 
 	/**
@@ -897,17 +1248,56 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
 	@Override
 	public void onTwitterLogout() {
 //		Log.d(TAG, "onTwitterLogout()");
-		// Remove Twitter items from InfoPool
-		mPool.deleteType(InfoType.INFO_TWITTER);
+		// Remove Twitter items from InfoPool and the cache
+		synchronized (mFetchedTypes) {
+			mPool.deleteType(InfoType.INFO_TWITTER);
+			mDBHelper.clearCachedItems(InfoType.INFO_TWITTER);
+			mFetchedTypes.remove(InfoType.INFO_TWITTER);
+			++mSocialGenerations[InfoType.INFO_TWITTER.ordinal()];
+		}
 		// Refresh Cues data
-		setDataChanged(DISTANCE_NEAR, false);
+		setDataChanged(DISTANCE_NEAR);
 	}
 
+	/**
+	 * Adds a freshly fetched Facebook or Twitter cue to the cache
+	 * @param item
+	 * The first fresh cue of a type replaces the cached cues of that type,
+	 * both in the cache and in the InfoPool.
+	 * Note: called with mFetchedTypes locked
+	 */
+	private void cacheSocialCue(CueItem item) {
+		if(mFetchedTypes.add(item.type())) {
+			Log.i(TAG, "refreshing cached " + item.type());
+			++mSocialGenerations[item.type().ordinal()];
+			mPool.deleteType(item.type());
+			mDBHelper.startCacheRefresh(item.type());
+		}
+		mDBHelper.addCueItem(item);
+	}
+	
 	@Override
 	public int currentDistanceRange() {
 		return mCurrDistance;
 	}
 	
+	/**
+	 * Notifies the user when matching of data received from another user is done
+	 * Called on InfoPool's matching thread.
+	 */
+	@Override
+	public void onCuesMatched(final int distanceRange) {
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				// Play an audio cue when data send/receive is done
+				playSound(distanceRange);
+				// Preempt animation in the TextScrollFragment if any to display new data
+				if(mTextScrollFragment != null && mTextScrollFragment.isAdded()) mTextScrollFragment.clearAndGetNextText();
+			}
+		});
+	}
+	
 	/**
 	 * Plays the respective notification sound for the specified distance range
 	 * @param distanceRange
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Bounded store of the cues matched with nearby users
+ * @author vikasprabhu
+ * Matched cues of all encounters are kept, each with the address of the
+ * nearby user it was matched with, its score and when it was matched. A cue
+ * is shown until its user hasn't been seen for TTL_MS, and is kept once by
+ * its normalized text. When the store is full, the cue with the lowest score
+ * decayed by the time since its user was last seen makes room.
+ * A cue is picked with a probability in proportion to its decayed score, so
+ * the better matches and those of the users still around are shown more.
+ * Entries are kept in an array and know their index in it, so one can be
+ * picked or removed in O(1): a random entry is kept with a probability of its
+ * decayed score over the highest score in the store, for a few tries.
+ * Expired cues are swept when a cue is added and dropped when they're picked.
+ * Note: not thread-safe, InfoPool guards it
+ */
+public class MatchedCueStore {
+	/**
+	 * Constants
+	 */
+	// Time a matched cue is kept after its user was last seen
+	private static final long TTL_MS = 10 * 60 * 1000;
+	// Time for the score of a matched cue to halve once its user is gone
+	private static final long HALF_LIFE_MS = 2 * 60 * 1000;
+	// Random entries looked at per sample
+	private static final int MAX_SAMPLE_TRIES = 8;
+
+	/**
+	 * A matched cue
+	 */
+	private static final class Entry {
+		private CueItem mItem;
+		// Normalized text of mItem
+		private String mKey;
+		// Address of the user it was matched with, null if unknown
+		private String mPeer;
+		private double mScore;
+		private long mMatchedAt;
+		// Index in mEntries
+		private int mIndex;
+	}
+
+	/**
+	 * Members
+	 */
+	// Most matched cues kept
+	private final int mCapacity;
+	private final List<Entry> mEntries;
+	// Entries by their key
+	private final Map<String, Entry> mByKey = new HashMap<String, Entry>();
+	// When each user with matched cues was last seen
+	private final Map<String, Long> mLastSeen = new HashMap<String, Long>();
+	// At least the highest score in the store, 0 when it's empty
+	private double mMaxScore = 0;
+
+	public MatchedCueStore(int capacity) {
+		mCapacity = capacity;
+		mEntries = new ArrayList<Entry>(capacity);
+	}
+
+	/**
+	 * Adds a matched cue, or updates it if it's already in the store
+	 * @param item
+	 * @param peer address of the user it was matched with, null if unknown
+	 * @param score similarity, between 0 and 1, or above for tweets
+	 * @param now
+	 * @return true if the cue was kept
+	 */
+	public boolean add(CueItem item, String peer, double score, long now) {
+		expire(now);
+		if(peer != null) mLastSeen.put(peer, now);
+		String key = CueFilter.normalize(item.data());
+		Entry entry = mByKey.get(key);
+		if(entry == null) {
+			if(mEntries.size() >= mCapacity) {
+				Entry weakest = weakest(now);
+				if(decayedScore(weakest, now) >= score) return false;
+				remove(weakest);
+			}
+			entry = new Entry();
+			entry.mKey = key;
+			entry.mIndex = mEntries.size();
+			mEntries.add(entry);
+			mByKey.put(key, entry);
+		} else {
+			score = Math.max(score, decayedScore(entry, now));
+		}
+		entry.mItem = item;
+		entry.mPeer = peer;
+		entry.mScore = score;
+		entry.mMatchedAt = now;
+		mMaxScore = Math.max(mMaxScore, score);
+		return true;
+	}
+
+	/**
+	 * Notes that a user has been seen, which keeps its matched cues
+	 * @param peer address
+	 * @param now
+	 */
+	public void onPeerSeen(String peer, long now) {
+		if(mLastSeen.containsKey(peer)) mLastSeen.put(peer, now);
+	}
+
+	/**
+	 * Returns a random matched cue, weighted by decayed score
+	 * @param random
+	 * @param now
+	 * @param exclude cue not to return, e.g. the one shown last, or null
+	 * @return null if there's no other cue that hasn't expired
+	 * Expired cues picked along the way are removed. If no cue is kept within
+	 * MAX_SAMPLE_TRIES, the last one looked at is returned.
+	 * Note: O(1) and doesn't allocate, it's called for every cue displayed
+	 */
+	public CueItem sample(Random random, long now, CueItem exclude) {
+		for(int count = 0; count < MAX_SAMPLE_TRIES && !mEntries.isEmpty(); ++count) {
+			int size = mEntries.size();
+			int index = random.nextInt(size);
+			if(isSame(mEntries.get(index), exclude)) {
+				if(size == 1) return null;
+				// Any of the others, uniformly
+				index = (index + 1 + random.nextInt(size - 1)) % size;
+			}
+			Entry entry = mEntries.get(index);
+			if(isExpired(entry, now)) {
+				remove(entry);
+				continue;
+			}
+			if(count == MAX_SAMPLE_TRIES - 1 ||
+					random.nextDouble() * mMaxScore < decayedScore(entry, now)) {
+				return entry.mItem;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the matched cues
+	 * @return a copy
+	 */
+	public List<CueItem> items() {
+		List<CueItem> items = new ArrayList<CueItem>(mEntries.size());
+		for(Entry entry : mEntries) items.add(entry.mItem);
+		return items;
+	}
+
+	/**
+	 * Removes a matched cue, if it's in the store
+	 * @param item
+	 */
+	public void remove(CueItem item) {
+		for(Entry entry : mEntries) {
+			if(entry.mItem == item) {
+				remove(entry);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Re-keys a matched cue whose text has changed
+	 * @param item
+	 * If another matched cue has the new text, the better scored one is kept.
+	 */
+	public void update(CueItem item) {
+		for(Entry entry : mEntries) {
+			if(entry.mItem != item) continue;
+			String key = CueFilter.normalize(item.data());
+			if(key.equals(entry.mKey)) return;
+			Entry other = mByKey.get(key);
+			if(other != null && other.mScore >= entry.mScore) {
+				remove(entry);
+				return;
+			}
+			if(other != null) remove(other);
+			mByKey.remove(entry.mKey);
+			entry.mKey = key;
+			mByKey.put(key, entry);
+			return;
+		}
+	}
+
+	/**
+	 * Removes the matched cues of users that haven't been seen for TTL_MS
+	 * @param now
+	 */
+	public void expire(long now) {
+		for(int i = mEntries.size() - 1; i >= 0; --i) {
+			// Note: the entry removed is replaced by the last one, already checked
+			if(isExpired(mEntries.get(i), now)) remove(mEntries.get(i));
+		}
+		// Users that have been gone that long can't keep anything
+		Iterator<Long> it = mLastSeen.values().iterator();
+		while(it.hasNext()) {
+			if(now - it.next() > TTL_MS) it.remove();
+		}
+	}
+
+	/**
+	 * Removes all matched cues
+	 */
+	public void clear() {
+		mEntries.clear();
+		mByKey.clear();
+		mLastSeen.clear();
+		mMaxScore = 0;
+	}
+
+	/**
+	 * Returns the number of matched cues
+	 * @return
+	 */
+	public int size() {
+		return mEntries.size();
+	}
+
+	public boolean isEmpty() {
+		return mEntries.isEmpty();
+	}
+
+	/**
+	 * Returns when the user of a matched cue was last seen
+	 * @param entry
+	 * @return
+	 */
+	private long lastSeen(Entry entry) {
+		Long lastSeen = entry.mPeer != null ? mLastSeen.get(entry.mPeer) : null;
+		return lastSeen != null ? Math.max(lastSeen, entry.mMatchedAt) : entry.mMatchedAt;
+	}
+
+	private static boolean isSame(Entry entry, CueItem item) {
+		return item != null && (entry.mItem == item || entry.mItem.data().equals(item.data()));
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return now - lastSeen(entry) > TTL_MS;
+	}
+
+	private double decayedScore(Entry entry, long now) {
+		return entry.mScore * Math.pow(0.5, Math.max(0, now - lastSeen(entry)) / (double) HALF_LIFE_MS);
+	}
+
+	/**
+	 * Returns the matched cue with the lowest decayed score
+	 * @param now
+	 * @return
+	 * Note: O(capacity), only done when the store is full
+	 */
+	private Entry weakest(long now) {
+		Entry weakest = null;
+		double weakestScore = Double.MAX_VALUE;
+		for(Entry entry : mEntries) {
+			double score = decayedScore(entry, now);
+			if(score < weakestScore) {
+				weakest = entry;
+				weakestScore = score;
+			}
+		}
+		return weakest;
+	}
+
+	/**
+	 * Removes an entry by moving the last one into its place
+	 * @param entry
+	 */
+	private void remove(Entry entry) {
+		Entry last = mEntries.remove(mEntries.size() - 1);
+		if(last != entry) {
+			mEntries.set(entry.mIndex, last);
+			last.mIndex = entry.mIndex;
+		}
+		mByKey.remove(entry.mKey);
+		if(mEntries.isEmpty()) mMaxScore = 0;
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.util.Log;
+
+/**
+ * Latency histograms and counters for the stages of an encounter
+ * @author vikasprabhu
+ * Recording is lock-free and allocation-free, so it's always on and can be
+ * called from any thread. Latencies are kept in log-linear histograms with
+ * 8 sub-buckets per power of 2 (HdrHistogram style, within 12.5%) in
+ * microseconds, up to about 19 hours. The numbers are shown on the hidden
+ * debug screen (MetricsDialog) and can be dumped to a file for offline
+ * analysis, along with the raw histogram buckets.
+ */
+public class Metrics {
+	// Debugging
+	private static final String TAG = "Metrics";
+
+	/**
+	 * Timed stages of an encounter
+	 */
+	public enum Stage {
+		DISCOVERY,		// Discovery started to ACTION_FOUND of a CueSense user
+		EXCHANGE,		// connectAndSend() to send/receive done, as the initiator
+		CONNECT,		// RFCOMM connect()
+		READ,			// PairedUserConnectedThread read loop until the payload is in
+		DECOMPRESS,		// Decompressing the received payload
+		FIX_RAW_DATA,	// Recovering the received payload
+		JSON_DECODE,	// Extracting the peer's cues from the payload
+		MATCH,			// Matching the peer's cues with one of our lists
+		COMMON_TWEETS,	// Getting the tweets of common followings
+		DISPLAY,		// Matching done to the first matched cue displayed
+		ENCOUNTER		// Exchange started to the first matched cue displayed
+	}
+
+	/**
+	 * Counted events, and bytes
+	 */
+	public enum Counter {
+		PEERS_FOUND,
+		EXCHANGES_STARTED,
+		EXCHANGES_DONE,
+		BYTES_IN,			// Compressed payload bytes received
+		BYTES_OUT,			// Compressed payload bytes sent
+		FAIL_CONNECT,		// RFCOMM connect() failed
+		FAIL_READ,			// Connection lost while reading
+		FAIL_DECOMPRESS,	// Received payload couldn't be decompressed
+		FAIL_JSON,			// Received payload couldn't be parsed
+		FAIL_INVALID_DATA,	// Received payload has no cues or a bad distance
+		FAIL_TIMEOUT		// Nothing received before the read deadline
+	}
+
+	/**
+	 * Constants
+	 */
+	// Sub-buckets per power of 2, as a power of 2
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Largest value kept exactly, in microseconds (2^36, about 19 hours)
+	private static final int MAX_EXPONENT = 36;
+	private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	// Percentiles shown in the report
+	private static final double[] PERCENTILES = { 50, 90, 99 };
+
+	/**
+	 * Latency histogram of a stage
+	 * Note: a snapshot taken while values are recorded may be off by the
+	 * values being recorded, which is fine for these purposes
+	 */
+	private static final class Histogram {
+		private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+		private final AtomicLong mCount = new AtomicLong();
+		private final AtomicLong mSum = new AtomicLong();
+		private final AtomicLong mMax = new AtomicLong();
+
+		void record(long micros) {
+			if(micros < 0) micros = 0;
+			mBuckets.incrementAndGet(bucketOf(micros));
+			mCount.incrementAndGet();
+			mSum.addAndGet(micros);
+			long max;
+			while(micros > (max = mMax.get()) && !mMax.compareAndSet(max, micros)) { /* retry */ }
+		}
+
+		/** Returns the value at the specified percentile, as the lower bound of its bucket */
+		long percentile(double percentile) {
+			long count = mCount.get();
+			if(count == 0) return 0;
+			long rank = (long) Math.ceil(percentile / 100 * count);
+			long seen = 0;
+			for(int i = 0; i < NUM_BUCKETS; ++i) {
+				seen += mBuckets.get(i);
+				if(seen >= rank) return lowerBoundOf(i);
+			}
+			return mMax.get();
+		}
+
+		void reset() {
+			for(int i = 0; i < NUM_BUCKETS; ++i) mBuckets.set(i, 0);
+			mCount.set(0);
+			mSum.set(0);
+			mMax.set(0);
+		}
+	}
+
+	/**
+	 * Members
+	 */
+	private static final Histogram[] sHistograms = new Histogram[Stage.values().length];
+	static {
+		for(int i = 0; i < sHistograms.length; ++i) sHistograms[i] = new Histogram();
+	}
+	private static final AtomicLongArray sCounters = new AtomicLongArray(Counter.values().length);
+	// Start of the ongoing encounter and end of its matching, 0 if none
+	private static final AtomicLong sEncounterStart = new AtomicLong();
+	private static final AtomicLong sMatchedAt = new AtomicLong();
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private Metrics() { }
+
+	/**
+	 * Returns the start time of a stage, to be passed to record()
+	 * @return
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the duration of a stage started at the specified time
+	 * @param stage
+	 * @param startNanos from start()
+	 */
+	public static void record(Stage stage, long startNanos) {
+		sHistograms[stage.ordinal()].record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Counts an event
+	 * @param counter
+	 */
+	public static void count(Counter counter) {
+		sCounters.incrementAndGet(counter.ordinal());
+	}
+
+	/**
+	 * Adds to a counter
+	 * @param counter
+	 * @param amount
+	 */
+	public static void add(Counter counter, long amount) {
+		sCounters.addAndGet(counter.ordinal(), amount);
+	}
+
+	/**
+	 * Marks the start of an encounter, when an exchange is started or accepted
+	 */
+	public static void onEncounterStarted() {
+		sEncounterStart.set(System.nanoTime());
+		sMatchedAt.set(0);
+	}
+
+	/**
+	 * Marks the end of matching the peer's cues
+	 */
+	public static void onCuesMatched() {
+		sMatchedAt.set(System.nanoTime());
+	}
+
+	/**
+	 * Marks a matched cue being picked for display
+	 * Only the first one after each match is recorded.
+	 */
+	public static void onMatchedCueShown() {
+		long matchedAt = sMatchedAt.getAndSet(0);
+		if(matchedAt == 0) return;
+		record(Stage.DISPLAY, matchedAt);
+		long encounterStart = sEncounterStart.getAndSet(0);
+		if(encounterStart != 0) record(Stage.ENCOUNTER, encounterStart);
+	}
+
+	/**
+	 * Clears all the histograms and counters
+	 */
+	public static void reset() {
+		for(Histogram histogram : sHistograms) histogram.reset();
+		for(int i = 0; i < sCounters.length(); ++i) sCounters.set(i, 0);
+		sEncounterStart.set(0);
+		sMatchedAt.set(0);
+	}
+
+	/**
+	 * Returns a human readable summary, times in milliseconds
+	 * @return
+	 */
+	public static String report() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(Locale.US, "%-14s %7s %8s %8s %8s %8s %8s\n",
+				"stage", "count", "mean", "p50", "p90", "p99", "max"));
+		for(Stage stage : Stage.values()) {
+			Histogram histogram = sHistograms[stage.ordinal()];
+			long count = histogram.mCount.get();
+			builder.append(String.format(Locale.US, "%-14s %7d %8.1f", stage.name().toLowerCase(Locale.US), count,
+					count == 0 ? 0 : histogram.mSum.get() / (double) count / 1000));
+			for(double percentile : PERCENTILES) {
+				builder.append(String.format(Locale.US, " %8.1f", histogram.percentile(percentile) / 1000.0));
+			}
+			builder.append(String.format(Locale.US, " %8.1f\n", histogram.mMax.get() / 1000.0));
+		}
+		builder.append('\n');
+		for(Counter counter : Counter.values()) {
+			builder.append(String.format(Locale.US, "%-18s %d\n", counter.name().toLowerCase(Locale.US),
+					sCounters.get(counter.ordinal())));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Writes the summary and the raw histogram buckets to a new file
+	 * @param dir
+	 * @return the file, or null if it couldn't be written
+	 * Bucket lines are "stage lower-bound-in-us count", non-empty buckets only.
+	 */
+	public static File dump(File dir) {
+		if(dir == null) return null;
+		File file = new File(dir, "metrics-" + System.currentTimeMillis() + ".txt");
+		Writer writer = null;
+		try {
+			writer = new FileWriter(file);
+			writer.write(report());
+			writer.write("\n# buckets\n");
+			for(Stage stage : Stage.values()) {
+				Histogram histogram = sHistograms[stage.ordinal()];
+				for(int i = 0; i < NUM_BUCKETS; ++i) {
+					long count = histogram.mBuckets.get(i);
+					if(count != 0) writer.write(stage.name().toLowerCase(Locale.US) + " " + lowerBoundOf(i) + " " + count + "\n");
+				}
+			}
+			Log.i(TAG, "dumped to " + file);
+			return file;
+		} catch(IOException e) {
+			Log.e(TAG, "dump error " + e);
+			return null;
+		} finally {
+			if(writer != null) {
+				try {
+					writer.close();
+				} catch(IOException e) {
+					Log.e(TAG, "close error " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 * @param micros
+	 * @return
+	 * Values below SUB_BUCKETS get a bucket each, every power of 2 above that
+	 * is split into SUB_BUCKETS buckets.
+	 */
+	private static int bucketOf(long micros) {
+		if(micros < SUB_BUCKETS) return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent > MAX_EXPONENT) return NUM_BUCKETS - 1;
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the smallest value in a bucket
+	 * @param bucket
+	 * @return
+	 */
+	private static long lowerBoundOf(int bucket) {
+		if(bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+}
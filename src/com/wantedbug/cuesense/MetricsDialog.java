@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.io.File;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v4.app.DialogFragment;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Hidden debug screen that shows the encounter metrics
+ * @author vikasprabhu
+ * Reachable from the overflow menu in debug builds only. The metrics and the
+ * recent events in EventLog can be dumped to the app's external files
+ * directory, to be pulled with adb.
+ */
+public class MetricsDialog extends DialogFragment {
+	@Override
+	public Dialog onCreateDialog(Bundle savedInstanceState) {
+		AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+		LayoutInflater inflater = getActivity().getLayoutInflater();
+		final View dialogView = inflater.inflate(R.layout.metrics_dialog, null);
+		TextView report = (TextView) dialogView.findViewById(R.id.metricsReport);
+		report.setText(Metrics.report());
+
+		builder.setView(dialogView)
+		.setTitle(R.string.metrics_dialog_title)
+		.setPositiveButton(R.string.metrics_dumpbutton, new DialogInterface.OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				File dir = getActivity().getExternalFilesDir(null);
+				File file = Metrics.dump(dir);
+				if(file != null && EventLog.dump(dir, "events") != null) {
+					Toast.makeText(getActivity(), getString(R.string.metrics_dumped, dir.getPath()), Toast.LENGTH_LONG).show();
+				} else {
+					Toast.makeText(getActivity(), R.string.metrics_dump_failed, Toast.LENGTH_LONG).show();
+				}
+			}
+		})
+		.setNeutralButton(R.string.metrics_resetbutton, new DialogInterface.OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				Metrics.reset();
+			}
+		})
+		.setNegativeButton(R.string.metrics_closebutton, new DialogInterface.OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				// Do nothing
+			}
+		});
+		return builder.create();
+	}
+}
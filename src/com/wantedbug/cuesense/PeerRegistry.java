@@ -0,0 +1,386 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.util.Log;
+
+/**
+ * This class keeps track of the nearby CueSense users found during Bluetooth
+ * discovery.
+ * @author vikasprabhu
+ * A device is recognised as a CueSense user either by the CueSense SDP service
+ * UUID or by the CueSense tag in its advertised name. Every other device is
+ * remembered in a bounded ignore cache so that its subsequent ACTION_FOUND events
+ * are discarded with a single map lookup.
+ * Note: This class is not thread-safe. It is meant to be used from the thread
+ * that receives the Bluetooth discovery broadcasts.
+ */
+public class PeerRegistry {
+	// Debugging
+	private static final String TAG = "PeerRegistry";
+
+	/**
+	 * Constants
+	 */
+	// Tag in the Bluetooth name of a device that identifies it as a CueSense user
+	public static final String CUESENSE_NAME_TAG = "CueSense";
+	// Time after which a peer that hasn't been seen in discovery is forgotten
+	// Note: this and PEER_COOLDOWN_MS are package-private for CueSenseSimulator
+	static final long PEER_TTL_MS = 2 * 60 * 1000;
+	// Minimum time between successive exchanges with the same peer
+	static final long PEER_COOLDOWN_MS = 20 * 1000;
+	// Time after which a device that isn't a CueSense user is looked at again
+	private static final long IGNORED_TTL_MS = 30 * 60 * 1000;
+	// Time after which a device that couldn't be queued for an SDP query is
+	// looked at again
+	private static final long SDP_RETRY_MS = 60 * 1000;
+	// Max number of devices in the ignore cache
+	private static final int MAX_IGNORED = 1024;
+	// Max number of devices waiting for an SDP query
+	private static final int MAX_SDP_CANDIDATES = 32;
+	// Max number of SDP queries issued after a discovery scan
+	private static final int MAX_SDP_QUERIES_PER_SCAN = 4;
+
+	/**
+	 * A nearby CueSense user
+	 */
+	public static class Peer {
+		private final String mAddress;
+		private BluetoothDevice mDevice;
+		private String mName;
+		// Signal strength and distance level from the last sighting
+		private int mRssi = Short.MIN_VALUE;
+		private int mBand = MainActivity.DISTANCE_OUTOFRANGE;
+		// Time of the last sighting
+		private long mLastSeen;
+		// Distance level of the last exchange with this peer
+		private int mExchangedBand = MainActivity.DISTANCE_OUTOFRANGE;
+		// Versions of our data last sent to this peer, per distance level
+		private int mNearVersion = 0;
+		private int mFarVersion = 0;
+		// No exchange is started with this peer before this time
+		private long mCooldownUntil = 0;
+
+		Peer(BluetoothDevice device, String name) {
+			mAddress = device.getAddress();
+			mDevice = device;
+			mName = (name != null) ? name : "";
+		}
+
+		/** get methods */
+		public String address() { return mAddress; }
+		public BluetoothDevice device() { return mDevice; }
+		public String name() { return mName; }
+		public int rssi() { return mRssi; }
+		public int band() { return mBand; }
+		public long lastSeen() { return mLastSeen; }
+
+		/**
+		 * Returns the version of our data that was last sent to this peer
+		 * for the specified distance range
+		 * @param distanceRange
+		 * @return
+		 */
+		public int lastPayloadVersion(int distanceRange) {
+			switch(distanceRange) {
+			case MainActivity.DISTANCE_NEAR: return mNearVersion;
+			case MainActivity.DISTANCE_FAR: return mFarVersion;
+			default: return 0;
+			}
+		}
+
+		private void setLastPayloadVersion(int distanceRange, int version) {
+			switch(distanceRange) {
+			case MainActivity.DISTANCE_NEAR: mNearVersion = version; break;
+			case MainActivity.DISTANCE_FAR: mFarVersion = version; break;
+			default: break;
+			}
+		}
+	}
+
+	/**
+	 * Members
+	 */
+	// Known peers by Bluetooth address, least recently seen first
+	// Note: in insertion order, a peer is re-inserted when it's seen
+	private final LinkedHashMap<String, Peer> mPeers = new LinkedHashMap<String, Peer>();
+	// Devices that aren't CueSense users and the time until which they're ignored
+	private final LinkedHashMap<String, Long> mIgnored = new LinkedHashMap<String, Long>(64, 0.75f, false) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAX_IGNORED;
+		}
+	};
+	// Devices whose SDP records need to be queried to classify them
+	// Note: kept as Peers to remember their last sighting
+	private final LinkedHashMap<String, Peer> mSdpCandidates = new LinkedHashMap<String, Peer>();
+	// Devices whose SDP records are being queried
+	private final LinkedHashMap<String, Peer> mSdpQueried = new LinkedHashMap<String, Peer>(16, 0.75f, false) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Peer> eldest) {
+			return size() > MAX_SDP_CANDIDATES;
+		}
+	};
+
+	/**
+	 * Returns true if the device is known not to be a CueSense user
+	 * @param address
+	 * @param now
+	 * @return
+	 * This is the fast path for the many non-CueSense devices around
+	 */
+	public boolean isIgnored(String address, long now) {
+		Long ignoredUntil = mIgnored.get(address);
+		if(ignoredUntil == null) return false;
+		if(now < ignoredUntil) return true;
+		mIgnored.remove(address);
+		return false;
+	}
+
+	/**
+	 * Returns true if the device is a known CueSense user
+	 * @param address
+	 * @return
+	 */
+	public boolean isPeer(String address) {
+		return address != null && mPeers.containsKey(address);
+	}
+
+	/**
+	 * Returns the peer with the specified address, or null
+	 * @param address
+	 * @return
+	 */
+	public Peer get(String address) {
+		return mPeers.get(address);
+	}
+
+	/**
+	 * Handles a device found during discovery
+	 * @param device
+	 * @param name advertised name, if any
+	 * @param rssi
+	 * @param band distance level computed from rssi
+	 * @param now
+	 * @return the updated peer if the device is a CueSense user; null otherwise
+	 */
+	public Peer onDeviceFound(BluetoothDevice device, String name, int rssi, int band, long now) {
+		String address = device.getAddress();
+		Peer peer = mPeers.get(address);
+		if(peer == null) {
+			if(isIgnored(address, now)) return null;
+			if(name == null) name = device.getName();
+			if(!isCueSenseUser(device, name, now)) {
+				// Remember the sighting for when the SDP query comes back
+				Peer candidate = mSdpCandidates.get(address);
+				if(candidate != null) {
+					candidate.mRssi = rssi;
+					candidate.mBand = band;
+				}
+				return null;
+			}
+			peer = addPeer(device, name);
+		}
+		peer.mDevice = device;
+		if(name != null) peer.mName = name;
+		peer.mRssi = rssi;
+		peer.mBand = band;
+		onSeen(peer, now);
+		return peer;
+	}
+
+	/**
+	 * Handles the result of an SDP query started by querySdpCandidates()
+	 * @param device
+	 * @param uuids
+	 * @param now
+	 * @return the new peer if the device turned out to be a CueSense user; null otherwise
+	 * The new peer has the signal strength and distance level of the sighting
+	 * that queued the query.
+	 */
+	public Peer onUuidsFetched(BluetoothDevice device, Parcelable[] uuids, long now) {
+		if(device == null) return null;
+		String address = device.getAddress();
+		// Note: a device seen again while being queried is queued up again,
+		// with its latest sighting
+		Peer candidate = mSdpQueried.remove(address);
+		Peer requeued = mSdpCandidates.remove(address);
+		if(requeued != null) candidate = requeued;
+		if(mPeers.containsKey(address)) return null;
+		if(uuids == null) {
+			// No SDP response; give the device another chance after the ignore period
+			mIgnored.put(address, now + IGNORED_TTL_MS);
+			return null;
+		}
+		if(!hasCueSenseUuid(uuids)) {
+			mIgnored.put(address, now + IGNORED_TTL_MS);
+			return null;
+		}
+		Peer peer = addPeer(device, device.getName());
+		if(candidate != null) {
+			peer.mRssi = candidate.mRssi;
+			peer.mBand = candidate.mBand;
+		}
+		onSeen(peer, now);
+		return peer;
+	}
+
+	/**
+	 * Starts SDP queries for some of the devices that couldn't be classified
+	 * from their cached UUIDs or names
+	 * Note: SDP queries are unreliable while discovery is ongoing, so this is
+	 * called when a discovery scan finishes. Results arrive as ACTION_UUID.
+	 */
+	public void querySdpCandidates() {
+		int count = 0;
+		Iterator<Peer> it = mSdpCandidates.values().iterator();
+		while(it.hasNext() && count < MAX_SDP_QUERIES_PER_SCAN) {
+			Peer candidate = it.next();
+			if(candidate.mDevice.fetchUuidsWithSdp()) {
+				mSdpQueried.put(candidate.mAddress, candidate);
+			} else {
+				Log.e(TAG, "SDP query failed to start " + candidate.mAddress);
+			}
+			it.remove();
+			++count;
+		}
+	}
+
+	/**
+	 * Returns true if an exchange should be started with the peer
+	 * @param peer
+	 * @param version current version of our data for the peer's distance level
+	 * @param now
+	 * @return
+	 * An exchange is made when the peer is in range, it isn't cooling down from
+	 * the last exchange and either the distance level or our data for that
+	 * distance level has changed since the last exchange.
+	 */
+	public boolean shouldExchange(Peer peer, int version, long now) {
+		if(peer.mBand == MainActivity.DISTANCE_OUTOFRANGE) return false;
+		if(now < peer.mCooldownUntil) return false;
+		return peer.mBand != peer.mExchangedBand ||
+				version != peer.lastPayloadVersion(peer.mBand);
+	}
+
+	/**
+	 * Records that an exchange has been started with the peer
+	 * @param peer
+	 * @param distanceRange
+	 * @param version version of our data sent for distanceRange
+	 * @param now
+	 */
+	public void onExchangeStarted(Peer peer, int distanceRange, int version, long now) {
+		peer.mExchangedBand = distanceRange;
+		peer.setLastPayloadVersion(distanceRange, version);
+		peer.mCooldownUntil = now + PEER_COOLDOWN_MS;
+	}
+
+	/**
+	 * Records that an exchange with the peer failed so that it is retried
+	 * once the peer cools down
+	 * @param peer
+	 */
+	public void onExchangeFailed(Peer peer) {
+		peer.mExchangedBand = MainActivity.DISTANCE_OUTOFRANGE;
+		peer.setLastPayloadVersion(MainActivity.DISTANCE_NEAR, 0);
+		peer.setLastPayloadVersion(MainActivity.DISTANCE_FAR, 0);
+	}
+
+	/**
+	 * Forgets peers that haven't been seen for a while
+	 * @param now
+	 */
+	public void evictStale(long now) {
+		// The least recently seen peers come first
+		Iterator<Peer> it = mPeers.values().iterator();
+		while(it.hasNext()) {
+			Peer peer = it.next();
+			if(now - peer.mLastSeen < PEER_TTL_MS) break;
+			Log.i(TAG, "evicting " + peer.mAddress);
+			it.remove();
+		}
+	}
+
+	/**
+	 * Clears the registry
+	 */
+	public void clear() {
+		mPeers.clear();
+		mIgnored.clear();
+		mSdpCandidates.clear();
+		mSdpQueried.clear();
+	}
+
+	/**
+	 * Classifies a newly found device
+	 * @param device
+	 * @param name
+	 * @param now
+	 * @return true if the device is a CueSense user
+	 * Devices that can't be classified yet are queued up for an SDP query.
+	 */
+	private boolean isCueSenseUser(BluetoothDevice device, String name, long now) {
+		if(name != null && name.contains(CUESENSE_NAME_TAG)) return true;
+		ParcelUuid[] uuids = device.getUuids();
+		if(uuids != null) {
+			if(hasCueSenseUuid(uuids)) return true;
+			mIgnored.put(device.getAddress(), now + IGNORED_TTL_MS);
+			return false;
+		}
+		if(mSdpCandidates.containsKey(device.getAddress())) {
+			mSdpCandidates.get(device.getAddress()).mDevice = device;
+		} else if(mSdpCandidates.size() < MAX_SDP_CANDIDATES) {
+			mSdpCandidates.put(device.getAddress(), new Peer(device, name));
+		} else {
+			// No room to query it; don't look at it again on every sighting
+			mIgnored.put(device.getAddress(), now + SDP_RETRY_MS);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the CueSense service UUID is among the specified UUIDs
+	 * @param uuids
+	 * @return
+	 */
+	private static boolean hasCueSenseUuid(Parcelable[] uuids) {
+		for(Parcelable uuid : uuids) {
+			if(uuid instanceof ParcelUuid &&
+					BluetoothManager.UUID_CUESENSE.equals(((ParcelUuid) uuid).getUuid())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records a sighting of a peer, moving it to the end of mPeers
+	 * @param peer
+	 * @param now
+	 */
+	private void onSeen(Peer peer, long now) {
+		peer.mLastSeen = now;
+		mPeers.remove(peer.mAddress);
+		mPeers.put(peer.mAddress, peer);
+	}
+
+	private Peer addPeer(BluetoothDevice device, String name) {
+		Log.i(TAG, "new peer " + name + "," + device.getAddress());
+		Peer peer = new Peer(device, name);
+		mPeers.put(peer.mAddress, peer);
+		mSdpCandidates.remove(peer.mAddress);
+		return peer;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Times the startup phases of MainActivity
+ * @author vikasprabhu
+ * Each phase is a systrace section (API 18+) and its duration is logged.
+ * Time to first frame and time until ready to exchange are logged once per
+ * launch, as cold for the first launch in a process and warm otherwise,
+ * counted from MainActivity.onCreate(). benchmark/startup.sh collects them.
+ */
+public class StartupTracer {
+	// Debugging
+	private static final String TAG = "StartupTracer";
+
+	/**
+	 * Startup phases that must be done before we're ready to exchange
+	 */
+	public enum ReadyPhase {
+		POOL,		// InfoPool hydrated from the database
+		BLUETOOTH	// Server socket listening and discovery scheduled
+	}
+
+	/**
+	 * Members
+	 */
+	// Set once the first launch in this process has started
+	private static boolean sLaunched = false;
+	// Details of the current launch
+	private static boolean sCold = true;
+	private static long sStartMs = 0;
+	private static long sFirstFrameMs = -1;
+	private static final Set<ReadyPhase> sPending = EnumSet.noneOf(ReadyPhase.class);
+
+	/**
+	 * Private c'tor to defeat instantiation
+	 */
+	private StartupTracer() { }
+
+	/**
+	 * Marks the start of a launch
+	 * Called first thing in MainActivity.onCreate()
+	 */
+	public static synchronized void onLaunchStarted() {
+		sCold = !sLaunched;
+		sLaunched = true;
+		sStartMs = SystemClock.elapsedRealtime();
+		sFirstFrameMs = -1;
+		sPending.clear();
+		sPending.addAll(EnumSet.allOf(ReadyPhase.class));
+	}
+
+	/**
+	 * Starts a phase on the current thread
+	 * @param name
+	 * @return start time, to be passed to endPhase()
+	 */
+	public static long beginPhase(String name) {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			Trace.beginSection(name);
+		}
+		return SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Ends a phase started on the current thread by beginPhase()
+	 * @param name
+	 * @param startMs
+	 */
+	public static void endPhase(String name, long startMs) {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			Trace.endSection();
+		}
+		Log.i(TAG, "phase " + name + " " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+	}
+
+	/**
+	 * Marks the first frame of the launch
+	 */
+	public static synchronized void onFirstFrame() {
+		if(sFirstFrameMs >= 0) return;
+		sFirstFrameMs = SystemClock.elapsedRealtime() - sStartMs;
+		Log.i(TAG, launchType() + " first frame " + sFirstFrameMs + "ms");
+	}
+
+	/**
+	 * Marks a phase needed for exchanging as done
+	 * @param phase
+	 * Logs the time until ready once all of them are done
+	 */
+	public static synchronized void onReady(ReadyPhase phase) {
+		if(!sPending.remove(phase) || !sPending.isEmpty()) return;
+		Log.i(TAG, launchType() + " ready " + (SystemClock.elapsedRealtime() - sStartMs) + "ms" +
+				" first frame " + sFirstFrameMs + "ms");
+	}
+
+	private static String launchType() {
+		return sCold ? "cold" : "warm";
+	}
+}
@@ -4,10 +4,13 @@
 
 package com.wantedbug.cuesense;
 
+import java.util.EnumMap;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.res.Resources;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
 import android.util.Log;
@@ -21,6 +24,8 @@ import android.view.animation.AnimationUtils;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.wantedbug.cuesense.MainActivity.InfoType;
+
 /**
  * Fragment that holds the scrolling text simulating a wearable display
  * @author vikasprabhu
@@ -37,6 +42,19 @@ public class TextScrollFragment extends DialogFragment {
 	private static final int DURATION_SHORT = 750;
 	private static final int DURATION_MEDIUM = 1000;
 	private static final int DURATION_LONG = 5000;
+	// Text length limits for the font sizes
+	private static final int TEXT_LEN_FONT_LARGE = 23;
+	private static final int TEXT_LEN_FONT_MEDIUM = 30;
+	// Indexes into mTextSizes
+	private static final int SIZE_LARGE = 0;
+	private static final int SIZE_MEDIUM = 1;
+	private static final int SIZE_SMALL = 2;
+	// Text colours
+	private static final int COLOR_CUESENSE = 0xFFFFA500; // CueSense orange
+	private static final int COLOR_FACEBOOK = 0xFF627AAD; // Facebook blue
+	private static final int COLOR_TWITTER = 0xFF1DCAFF; // Twitter cyan
+	// Indent for the context header
+	private static final String SPACER = "       ";
 	
 	/**
 	 * Members
@@ -54,6 +72,11 @@ public class TextScrollFragment extends DialogFragment {
 	Animation mSlideInRightAnim;
 	Animation mSlideOutLeftAnim;
 	Animation mFadeOutAnim;
+	// Presentation of each InfoType, built once in onCreateDialog()
+	private final EnumMap<InfoType, CueStyle> mStyles = new EnumMap<InfoType, CueStyle>(InfoType.class);
+	// Text sizes indexed by SIZE_*, and the one currently set on mScrollText
+	private final float[] mTextSizes = new float[3];
+	private int mSizeBucket = -1;
 	// Animation listeners to control mScrollText's animation and to get
 	// new item at the end of the animation
 	AnimationListener mSlideInLeftAnimListener = new AnimationListener() {
@@ -244,6 +267,9 @@ public class TextScrollFragment extends DialogFragment {
         mFadeOutAnim.setDuration(DURATION_LONG);
         mFadeOutAnim.setAnimationListener(mFadeOutAnimListener);
         
+        // Presentation of each InfoType
+        buildStyles();
+        
         return builder.create();
 	}
 	
@@ -276,62 +302,89 @@ public class TextScrollFragment extends DialogFragment {
 	/**
 	 * Sets mScrollText by getting the next CueItem from the InfoPool
 	 * and starting its intro animation
+	 * Everything shown is looked up in the precomputed style table, so this
+	 * allocates nothing on the display loop.
 	 */
 	private void getNextText() {
-		final String spacer = "       ";
 		// Get the next item
 		CueItem item = InfoPool.INSTANCE.getNext();
+		CueStyle style = mStyles.get(item.type());
+		if(style == null) {
+			style = mStyles.get(InfoType.INFO_SENTINEL);
+		}
+		CharSequence text = style.mText != null ? style.mText : item.data();
 		
-		final int TEXT_LEN_FONT_LARGE = 23;
-		final int TEXT_LEN_FONT_MEDIUM = 30;
-		
-		// Set text size
-		int strlen = item.data().length(); 
-		if(strlen <= TEXT_LEN_FONT_LARGE) {
-			Log.d(TAG, "font size large");
-			mScrollText.setTextSize(getResources().getDimension(R.dimen.scroll_text_size_large));
-		} else if(strlen > TEXT_LEN_FONT_LARGE && strlen <= TEXT_LEN_FONT_MEDIUM) {
-			Log.d(TAG, "font size medium");
-			mScrollText.setTextSize(getResources().getDimension(R.dimen.scroll_text_size_medium));
-		} else {
-			Log.d(TAG, "font size small");
-			mScrollText.setTextSize(getResources().getDimension(R.dimen.scroll_text_size_small));
+		// Set text size, only when it changes since that causes a layout pass
+		int bucket = sizeBucket(text.length());
+		if(bucket != mSizeBucket) {
+			mScrollText.setTextSize(mTextSizes[bucket]);
+			mSizeBucket = bucket;
 		}
 		
 		// Set text properties and animation
-		switch(item.type()) {
-		case INFO_CUESENSE:
-			mImage.setImageDrawable(getResources().getDrawable(R.drawable.ic_launcher));
-			mImage.setBackgroundColor(0x00000000);
-			mContextHeader.setText(spacer + "About me..");
-			mScrollText.setTextColor(Color.parseColor("#FFA500")); // CueSense orange
-			mScrollText.setText(item.data());
-			mScrollText.startAnimation(mBlinkingAnim);
-			break;
-		case INFO_FACEBOOK:
-			mImage.setImageDrawable(getResources().getDrawable(R.drawable.com_facebook_inverse_icon));
-			mImage.setBackgroundColor(getResources().getColor(R.color.com_facebook_blue));
-			mContextHeader.setText(spacer + "On Facebook..");
-			mScrollText.setTextColor(Color.parseColor("#627AAD")); // Facebook blue
-			mScrollText.setText(item.data());
-			mScrollText.startAnimation(mSlideInTopAnim);
-			break;
-		case INFO_TWITTER:
-			mImage.setImageDrawable(getResources().getDrawable(R.drawable.twitter_logo_blue));
-			mImage.setBackgroundColor(0x00000000);
-			mContextHeader.setText(spacer + "On Twitter..");
-			mScrollText.setTextColor(Color.parseColor("#1dcaff")); // Twitter cyan
-			mScrollText.setText(item.data());
-			mScrollText.startAnimation(mSlideInRightAnim);
-			break;
-		default:
-			mImage.setImageDrawable(getResources().getDrawable(R.drawable.ic_launcher));
-			mImage.setBackgroundColor(0x00000000);
-			mContextHeader.setText(spacer + "CueSense");
-			mScrollText.setTextColor(Color.parseColor("#FFA500")); // CueSense orange
-			mScrollText.setText("Hello!");
-			mScrollText.startAnimation(mSlideInTopAnim);
-			break;
+		mImage.setImageDrawable(style.mIcon);
+		mImage.setBackgroundColor(style.mIconBackground);
+		mContextHeader.setText(style.mHeader);
+		mScrollText.setTextColor(style.mTextColor);
+		mScrollText.setText(text);
+		mScrollText.startAnimation(style.mIntro);
+	}
+	
+	/**
+	 * Returns the index into mTextSizes for text of the specified length
+	 * @param length
+	 * @return
+	 */
+	private static int sizeBucket(int length) {
+		if(length <= TEXT_LEN_FONT_LARGE) return SIZE_LARGE;
+		if(length <= TEXT_LEN_FONT_MEDIUM) return SIZE_MEDIUM;
+		return SIZE_SMALL;
+	}
+	
+	/**
+	 * Builds the style table
+	 * Called once the animations are loaded
+	 */
+	private void buildStyles() {
+		Resources res = getResources();
+		Drawable cueSenseIcon = res.getDrawable(R.drawable.ic_launcher);
+		mStyles.put(InfoType.INFO_CUESENSE, new CueStyle(cueSenseIcon, Color.TRANSPARENT,
+				SPACER + "About me..", COLOR_CUESENSE, mBlinkingAnim, null));
+		mStyles.put(InfoType.INFO_FACEBOOK, new CueStyle(res.getDrawable(R.drawable.com_facebook_inverse_icon),
+				res.getColor(R.color.com_facebook_blue), SPACER + "On Facebook..", COLOR_FACEBOOK,
+				mSlideInTopAnim, null));
+		mStyles.put(InfoType.INFO_TWITTER, new CueStyle(res.getDrawable(R.drawable.twitter_logo_blue),
+				Color.TRANSPARENT, SPACER + "On Twitter..", COLOR_TWITTER, mSlideInRightAnim, null));
+		mStyles.put(InfoType.INFO_SENTINEL, new CueStyle(cueSenseIcon, Color.TRANSPARENT,
+				SPACER + "CueSense", COLOR_CUESENSE, mSlideInTopAnim, "Hello!"));
+		
+		mTextSizes[SIZE_LARGE] = res.getDimension(R.dimen.scroll_text_size_large);
+		mTextSizes[SIZE_MEDIUM] = res.getDimension(R.dimen.scroll_text_size_medium);
+		mTextSizes[SIZE_SMALL] = res.getDimension(R.dimen.scroll_text_size_small);
+		mSizeBucket = -1;
+	}
+	
+	/**
+	 * Presentation of the cues of one InfoType
+	 * @author vikasprabhu
+	 */
+	private static final class CueStyle {
+		final Drawable mIcon;
+		final int mIconBackground;
+		final String mHeader;
+		final int mTextColor;
+		final Animation mIntro;
+		// Text shown instead of the cue's, if any
+		final String mText;
+		
+		CueStyle(Drawable icon, int iconBackground, String header, int textColor,
+				Animation intro, String text) {
+			mIcon = icon;
+			mIconBackground = iconBackground;
+			mHeader = header;
+			mTextColor = textColor;
+			mIntro = intro;
+			mText = text;
 		}
 	}
 }
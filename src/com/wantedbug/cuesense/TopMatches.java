@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2014 Tampere University of Technology
+ */
+
+package com.wantedbug.cuesense;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded collection of the best scored matches of an exchange
+ * @author vikasprabhu
+ * A min-heap by score of at most a given number of matches, so the worst
+ * match kept is always at hand for pruning pairs that can't beat it. A cue is
+ * kept once, with its best score, cues being the same if their normalized
+ * texts are.
+ * Note: not thread-safe, each MatchThread has its own
+ */
+public class TopMatches {
+	/**
+	 * A cue of ours, the nearby user's cue it matched and their similarity
+	 */
+	public static final class Match {
+		private final CueItem mItem;
+		private final String mNeighbourData;
+		private final double mScore;
+		// Normalized text of mItem
+		private final String mKey;
+
+		Match(CueItem item, String neighbourData, double score, String key) {
+			mItem = item;
+			mNeighbourData = neighbourData;
+			mScore = score;
+			mKey = key;
+		}
+
+		public CueItem item() { return mItem; }
+		public String neighbourData() { return mNeighbourData; }
+		public double score() { return mScore; }
+	}
+
+	/**
+	 * Constants
+	 */
+	private static final Comparator<Match> BY_SCORE = new Comparator<Match>() {
+		@Override
+		public int compare(Match lhs, Match rhs) {
+			return Double.compare(lhs.mScore, rhs.mScore);
+		}
+	};
+
+	/**
+	 * Members
+	 */
+	// Most matches kept
+	private final int mCapacity;
+	// Matches kept, worst first
+	private final PriorityQueue<Match> mHeap;
+	// Matches kept by their key
+	private final Map<String, Match> mByKey = new HashMap<String, Match>();
+
+	public TopMatches(int capacity) {
+		mCapacity = capacity;
+		mHeap = new PriorityQueue<Match>(capacity, BY_SCORE);
+	}
+
+	/**
+	 * Returns the score a match has to beat to be kept, 0 until it's full
+	 * @return
+	 */
+	public double minScore() {
+		return mHeap.size() < mCapacity ? 0 : mHeap.peek().mScore;
+	}
+
+	/**
+	 * Keeps a match if it's among the best so far
+	 * @param item our cue
+	 * @param neighbourData the nearby user's cue
+	 * @param score similarity, between 0 and 1, or above for tweets
+	 * @return true if the match was kept
+	 */
+	public boolean offer(CueItem item, String neighbourData, double score) {
+		String key = CueFilter.normalize(item.data());
+		Match existing = mByKey.get(key);
+		if(existing != null) {
+			if(existing.mScore >= score) return false;
+			mHeap.remove(existing);
+			mByKey.remove(key);
+		} else if(mHeap.size() >= mCapacity) {
+			if(score <= mHeap.peek().mScore) return false;
+			mByKey.remove(mHeap.poll().mKey);
+		}
+		Match match = new Match(item, neighbourData, score, key);
+		mHeap.add(match);
+		mByKey.put(key, match);
+		return true;
+	}
+
+	/**
+	 * Returns the matches kept, best first
+	 * @return
+	 */
+	public List<Match> sorted() {
+		List<Match> matches = new ArrayList<Match>(mHeap);
+		Collections.sort(matches, Collections.reverseOrder(BY_SCORE));
+		return matches;
+	}
+
+	/**
+	 * Returns the number of matches kept
+	 * @return
+	 */
+	public int size() {
+		return mHeap.size();
+	}
+}
@@ -5,14 +5,17 @@
 package com.wantedbug.cuesense;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import com.wantedbug.cuesense.MainActivity.InfoType;
 
 import twitter4j.PagableResponseList;
-import twitter4j.ResponseList;
+import twitter4j.Paging;
 import twitter4j.Status;
 import twitter4j.Twitter;
 import twitter4j.TwitterException;
@@ -39,8 +42,8 @@ public class TwitterListFragment extends ListFragment {
 	 * Interfaces
 	 */
 	public interface TwitterCueListener {
-		/** Handle addition of a new Twitter cue */
-		void onTwitterCueAdded(CueItem item);
+		/** Handle addition of new Twitter cues */
+		void onTwitterCuesAdded(List<CueItem> items);
 		
 		/** Handle logging out of Twitter */
 		void onTwitterLogout();
@@ -50,6 +53,12 @@ public class TwitterListFragment extends ListFragment {
 	 * Constants
 	 */
 	private static final String ITEM_DATA = "CATEGORY";
+	// List groups
+	private static final String GROUP_FAVOURITES = "My favourite tweets";
+	private static final String GROUP_FRIENDS = "My friends and followees";
+	private static final String GROUP_FOLLOWERS = "My followers";
+	// Number of items requested per page; the max allowed by the API
+	private static final int PAGE_SIZE = 200;
 	
 	/**
 	 * Members
@@ -66,6 +75,11 @@ public class TwitterListFragment extends ListFragment {
 	// Expandable list data
 	List<Map<String, String>> mGroupData = new ArrayList<Map<String, String>>();
 	List<List<Map<String, String>>> mChildData = new ArrayList<List<Map<String, String>>>();
+	// Children of each group by title, to add later pages to
+	private final Map<String, List<Map<String, String>>> mGroupChildren = new HashMap<String, List<Map<String, String>>>();
+	
+	// Caps and deduplication for the Twitter cues
+	private CueIngestor mIngestor;
 	
 	// Shared Preferences
 	private static SharedPreferences mSharedPreferences;
@@ -78,9 +92,11 @@ public class TwitterListFragment extends ListFragment {
 	
 	private long mUserId = 0;
 	private String mUserName = null;
-	private ResponseList<Status> mFavourites = null;
-	private PagableResponseList<User> mFriends = null;
-	private List<User> mFollowers = null;
+	
+	// Ongoing data fetches
+	private final List<Future<?>> mFetches = new ArrayList<Future<?>>();
+	// Incremented when fetches are cancelled so that late results are dropped
+	private volatile int mFetchGeneration = 0;
 	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -88,6 +104,7 @@ public class TwitterListFragment extends ListFragment {
 	    super.onCreate(savedInstanceState);
 	    
 	    mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(getActivity().getApplicationContext());
+	    mIngestor = CueIngestor.fromResources(getResources());
 	    
 	    TwitterFactory factory = new TwitterFactory();
 		mTwitter = factory.getInstance();
@@ -138,6 +155,7 @@ public class TwitterListFragment extends ListFragment {
 	@Override
 	public void onDestroy() {
 		Log.d(TAG, "onDestroy()");
+		cancelFetches();
 	    super.onDestroy();
 	}
 	
@@ -189,13 +207,19 @@ public class TwitterListFragment extends ListFragment {
 	 */
 	private void logoutFromTwitter() {
 		Log.d(TAG, "logoutFromTwitter()");
+		cancelFetches();
+		clearGroups();
 
-		TwitterUtils.INSTANCE.logoutFromTwitter();
+		TwitterUtils.INSTANCE.logoutFromTwitter(getActivity());
 		mListener.onTwitterLogout();
 	}
 	
 	/**
 	 * Fetch user data on launch
+	 * The three queries run on the shared network pool and page through the
+	 * results until the ingestor's caps are reached. Each page becomes an
+	 * immutable batch built off the UI thread, which is then shown and
+	 * handed to the listener in one go.
 	 */
 	private void getData() {
 		Log.d(TAG, "getData()");
@@ -206,130 +230,210 @@ public class TwitterListFragment extends ListFragment {
 		mTWRequestSubmitted = true;
 		Log.i(TAG, "Twitter user " + mUserId + "," + mUserName);
 		
+		final long userId = mUserId;
 		// Recent favourites
-		new Thread(new Runnable() {
+		submitFetch(new PagedFetch(GROUP_FAVOURITES, false) {
 			@Override
-			public void run() {
-				try {
-					mFavourites = mTwitter.getFavorites();
-				} catch (TwitterException e) {
-					Log.e(TAG, "Twitter favourites query error " + e);
-				}
-				
-				getActivity().runOnUiThread(new Runnable() {
-					@Override
-					public void run() {
-						if(!mFavourites.isEmpty()) {
-							/** 1. Add the list item header to the list view */
-							Map<String, String> favouritesGroupMap = new HashMap<String, String>();
-							favouritesGroupMap.put(ITEM_DATA, "My favourite tweets");
-							/** 2. Get the children from the response */
-							List<Map<String, String>> favouritesList = new ArrayList<Map<String, String>>();
-							int count = 0;
-							for(Status s : mFavourites) {
-								Map<String, String> favouritesChild = new HashMap<String, String>();
-								String data = "@" + s.getUser().getName() + ": " + s.getText();
-								favouritesChild.put(ITEM_DATA, data);
-								favouritesList.add(favouritesChild);
-								CueItem favouriteItem = new CueItem(-1, InfoType.INFO_TWITTER, data, true);
-//								mListener.onTwitterCueAdded(favouriteItem);
-								++count;
-								if(count == 20) break;
-							}
-							/** 3. Add the list item's children to the list view */
-							mGroupData.add(favouritesGroupMap);
-							mChildData.add(favouritesList);
-							// Notify that the list contents have changed
-							mAdapter.notifyDataSetChanged();
-						}
+			void fetchPages() throws TwitterException {
+				for(int page = 1; !isDone(); ++page) {
+					List<Status> statuses = mTwitter.getFavorites(new Paging(page, PAGE_SIZE));
+					List<String> rows = new ArrayList<String>(statuses.size());
+					for(Status s : statuses) {
+						rows.add("@" + s.getUser().getName() + ": " + s.getText());
 					}
-				});
+					if(!deliver(rows) || statuses.size() < PAGE_SIZE) break;
+				}
 			}
-		}).start();
+		});
 		
 		// Recent friends
-		new Thread(new Runnable() {
+		submitFetch(new PagedFetch(GROUP_FRIENDS, true) {
 			@Override
-			public void run() {
+			void fetchPages() throws TwitterException {
 				long cursor = -1;
-				try {
-					mFriends = mTwitter.getFriendsList(mUserId, cursor);
-				} catch (TwitterException e) {
-					Log.e(TAG, "Twitter friends query error " + e);
+				while(!isDone()) {
+					PagableResponseList<User> users = mTwitter.getFriendsList(userId, cursor, PAGE_SIZE);
+					if(!deliver(userNames(users)) || !users.hasNext()) break;
+					cursor = users.getNextCursor();
 				}
-				
-				getActivity().runOnUiThread(new Runnable() {
-					@Override
-					public void run() {
-						if(!mFriends.isEmpty()) {
-							/** 1. Add the list item header to the list view */
-							Map<String, String> friendsGroupMap = new HashMap<String, String>();
-							friendsGroupMap.put(ITEM_DATA, "My friends and followees");
-							/** 2. Get the children from the response */
-							List<Map<String, String>> friendsList = new ArrayList<Map<String, String>>();
-							int count = 0;
-							for(User u : mFriends) {
-								Map<String, String> friendsChild = new HashMap<String, String>();
-								String data = u.getName();
-								friendsChild.put(ITEM_DATA, data);
-								friendsList.add(friendsChild);
-								CueItem friendItem = new CueItem(-1, InfoType.INFO_TWITTER, data, true);
-								mListener.onTwitterCueAdded(friendItem);
-								++count;
-								if(count == 20) break;
-							}
-							/** 3. Add the list item's children to the list view */
-							mGroupData.add(friendsGroupMap);
-							mChildData.add(friendsList);
-							// Notify that the list contents have changed
-							mAdapter.notifyDataSetChanged();
-						}
-					}
-				});
 			}
-		}).start();
+		});
 		
 		// Recent followers
-		new Thread(new Runnable() {
+		submitFetch(new PagedFetch(GROUP_FOLLOWERS, true) {
 			@Override
-			public void run() {
+			void fetchPages() throws TwitterException {
 				long cursor = -1;
-				try {
-					Log.i(TAG, "TWitter user " + mUserId + mUserName);
-					mFollowers = mTwitter.getFollowersList(mUserId, cursor);
-				} catch (TwitterException e) {
-					Log.e(TAG, "Twitter followers query error " + e);
+				while(!isDone()) {
+					PagableResponseList<User> users = mTwitter.getFollowersList(userId, cursor, PAGE_SIZE);
+					if(!deliver(userNames(users)) || !users.hasNext()) break;
+					cursor = users.getNextCursor();
 				}
-				
-				getActivity().runOnUiThread(new Runnable() {
-					@Override
-					public void run() {
-						if(!mFollowers.isEmpty()) {
-							/** 1. Add the list item header to the list view */
-							Map<String, String> followersGroupMap = new HashMap<String, String>();
-							followersGroupMap.put(ITEM_DATA, "My followers");
-							/** 2. Get the children from the response */
-							List<Map<String, String>> followersList = new ArrayList<Map<String, String>>();
-							int count = 0;
-							for(User u : mFollowers) {
-								Map<String, String> followersChild = new HashMap<String, String>();
-								String data = u.getName();
-								followersChild.put(ITEM_DATA, data);
-								followersList.add(followersChild);
-								CueItem followerItem = new CueItem(-1, InfoType.INFO_TWITTER, data, true);
-								mListener.onTwitterCueAdded(followerItem);
-								++count;
-								if(count == 20) break;
-							}
-							/** 3. Add the list item's children to the list view */
-							mGroupData.add(followersGroupMap);
-							mChildData.add(followersList);
-							// Notify that the list contents have changed
-							mAdapter.notifyDataSetChanged();
-						}
-					}
-				});
 			}
-		}).start();
+		});
+	}
+	
+	/**
+	 * Runs a fetch on the network pool
+	 * @param fetch
+	 */
+	private void submitFetch(PagedFetch fetch) {
+		// Forget the fetches that are done
+		Iterator<Future<?>> it = mFetches.iterator();
+		while(it.hasNext()) {
+			if(it.next().isDone()) it.remove();
+		}
+		mFetches.add(BackgroundExecutors.network().submit(fetch));
+	}
+	
+	/**
+	 * Cancels ongoing fetches so that their results are dropped
+	 */
+	private void cancelFetches() {
+		++mFetchGeneration;
+		for(Future<?> fetch : mFetches) {
+			fetch.cancel(true);
+		}
+		mFetches.clear();
+		mIngestor.reset();
+		mTWRequestSubmitted = false;
+	}
+	
+	/**
+	 * Empties the list, so that the next fetches don't add to it
+	 */
+	private void clearGroups() {
+		mGroupData.clear();
+		mChildData.clear();
+		mGroupChildren.clear();
+		if(mAdapter != null) mAdapter.notifyDataSetChanged();
+	}
+	
+	/**
+	 * Shows a fetched batch and passes its cues on to the listener
+	 * @param batch
+	 * Pages after the first one are appended to the group of the first one
+	 */
+	private void onBatchFetched(TwitterBatch batch) {
+		List<Map<String, String>> children = mGroupChildren.get(batch.title);
+		if(children == null) {
+			children = new ArrayList<Map<String, String>>(batch.children);
+			mGroupChildren.put(batch.title, children);
+			Map<String, String> groupMap = new HashMap<String, String>();
+			groupMap.put(ITEM_DATA, batch.title);
+			mGroupData.add(groupMap);
+			mChildData.add(children);
+		} else {
+			children.addAll(batch.children);
+		}
+		// Notify that the list contents have changed
+		mAdapter.notifyDataSetChanged();
+		if(!batch.cues.isEmpty()) {
+			mListener.onTwitterCuesAdded(batch.cues);
+		}
+	}
+	
+	/**
+	 * Returns the names of the users
+	 * @param users
+	 * @return
+	 */
+	private static List<String> userNames(List<User> users) {
+		List<String> names = new ArrayList<String>(users.size());
+		for(User u : users) {
+			names.add(u.getName());
+		}
+		return names;
+	}
+	
+	/**
+	 * A paged Twitter query for one list group
+	 * Note: run on a network pool thread
+	 */
+	private abstract class PagedFetch implements Runnable {
+		private final String mTitle;
+		// Whether the rows are used as cues or only shown
+		private final boolean mIsCue;
+		// Generation at submission; results are dropped once it changes
+		private final int mGeneration = mFetchGeneration;
+		// Number of rows delivered so far
+		private int mCount = 0;
+		
+		PagedFetch(String title, boolean isCue) {
+			mTitle = title;
+			mIsCue = isCue;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				fetchPages();
+			} catch (TwitterException e) {
+				Log.e(TAG, "Twitter " + mTitle + " query error " + e);
+			}
+		}
+		
+		/** Fetches pages and passes each one to deliver() */
+		abstract void fetchPages() throws TwitterException;
+		
+		/**
+		 * Returns true if no more pages are needed
+		 */
+		boolean isDone() {
+			if(mGeneration != mFetchGeneration || Thread.currentThread().isInterrupted()) return true;
+			return mIsCue ? mIngestor.isCategoryFull(mTitle) : mCount >= mIngestor.maxPerCategory();
+		}
+		
+		/**
+		 * Builds a batch from the rows of a page and posts it to the UI thread
+		 * @param rows
+		 * @return false if fetching should stop
+		 */
+		boolean deliver(List<String> rows) {
+			if(isDone()) return false;
+			// Keep the rows that are within the caps, and not duplicates for cues
+			List<String> accepted = new ArrayList<String>(rows.size());
+			for(String row : rows) {
+				if(mIsCue ? mIngestor.accept(mTitle, row) : mCount < mIngestor.maxPerCategory()) {
+					accepted.add(row);
+					++mCount;
+				}
+			}
+			if(accepted.isEmpty()) return !rows.isEmpty();
+			final TwitterBatch batch = new TwitterBatch(mTitle, accepted, mIsCue);
+			Activity activity = getActivity();
+			if(activity == null) return false;
+			activity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					// Drop results of fetches cancelled in the meantime
+					if(mGeneration != mFetchGeneration || !isAdded()) return;
+					onBatchFetched(batch);
+				}
+			});
+			return true;
+		}
+	}
+	
+	/**
+	 * Immutable page of results of one Twitter query: the list view children
+	 * and the cues made from them
+	 */
+	private static final class TwitterBatch {
+		final String title;
+		final List<Map<String, String>> children;
+		final List<CueItem> cues;
+		
+		TwitterBatch(String title, List<String> rows, boolean isCue) {
+			this.title = title;
+			List<Map<String, String>> childList = new ArrayList<Map<String, String>>(rows.size());
+			List<CueItem> cueList = new ArrayList<CueItem>(isCue ? rows.size() : 0);
+			for(String row : rows) {
+				childList.add(Collections.singletonMap(ITEM_DATA, row));
+				if(isCue) cueList.add(new CueItem(-1, InfoType.INFO_TWITTER, row, true));
+			}
+			this.children = Collections.unmodifiableList(childList);
+			this.cues = Collections.unmodifiableList(cueList);
+		}
 	}
 }
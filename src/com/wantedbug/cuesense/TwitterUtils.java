@@ -4,10 +4,32 @@
 
 package com.wantedbug.cuesense;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import twitter4j.IDs;
+import twitter4j.Paging;
+import twitter4j.RateLimitStatus;
+import twitter4j.ResponseList;
 import twitter4j.Status;
 import twitter4j.Twitter;
 import twitter4j.TwitterException;
@@ -25,6 +47,15 @@ import android.util.Log;
  * Class to hold some Twitter functionality
  * @author vikasprabhu
  * The class is a singleton
+ * The Twitter client and the user's details are loaded off the UI thread
+ * and published as an immutable TwitterSession. Until then, callers get a
+ * "not ready" answer instead of waiting.
+ * The authenticated user's friend ids are cached in memory and in a file
+ * for a day, and other users' friend ids are cached in memory for a while,
+ * so that an encounter doesn't always cost two friends/ids requests.
+ * The common followings' latest tweets are fetched in parallel, cached for
+ * a few minutes and not requested at all while the timeline rate limit is
+ * exhausted.
  */
 public class TwitterUtils {
 	// Debugging
@@ -49,6 +80,27 @@ public class TwitterUtils {
 	static final String URL_TWITTER_AUTH = "auth_url";
 	static final String URL_TWITTER_OAUTH_VERIFIER = "oauth_verifier";
 	static final String URL_TWITTER_OAUTH_TOKEN = "oauth_token";
+	// Max number of common followings whose tweets are fetched
+	private static final int MAX_COMMON_FOLLOWINGS = 5;
+	// Friend ids cache details
+	private static final String FRIEND_IDS_FILE = "twitter_friend_ids";
+	private static final int FRIEND_IDS_FILE_VERSION = 1;
+	private static final long MY_FRIEND_IDS_TTL_MS = 24 * 60 * 60 * 1000L;
+	private static final long PEER_FRIEND_IDS_TTL_MS = 60 * 60 * 1000L;
+	private static final int MAX_PEER_FRIEND_IDS = 32;
+	// Max number of friends/ids pages (5000 ids each) fetched per user
+	// Note: we fetch all of our own friends, but only the most recent ones
+	// of other users to keep encounters quick
+	private static final int MAX_MY_FRIEND_ID_PAGES = 20;
+	private static final int MAX_PEER_FRIEND_ID_PAGES = 2;
+	// Latest tweets cache details
+	private static final long LATEST_TWEET_TTL_MS = 5 * 60 * 1000L;
+	private static final int MAX_LATEST_TWEETS = 128;
+	// Time allowed for fetching the common followings' tweets
+	// Note: tweets that aren't fetched by then are left out of the match
+	private static final long TIMELINE_DEADLINE_MS = 4000;
+	// Time to back off for when the rate limit is hit without a reset time
+	private static final long DEFAULT_RATE_LIMIT_BACKOFF_MS = 60 * 1000L;
 	
 	/**
 	 * Members
@@ -56,15 +108,86 @@ public class TwitterUtils {
 	// Static singleton instance
 	public static final TwitterUtils INSTANCE = new TwitterUtils();
 	// Application context to build SharedPreferences
-	private Context mContext;
+	private volatile Context mContext;
 	// Shared Preferences
-	private static SharedPreferences mSharedPreferences;
+	private static volatile SharedPreferences mSharedPreferences;
 	
-	// Twitter handle and details
-	private static Twitter mTwitter;
-	private static AccessToken mAccessToken;
-	private static long mUserId = -1;
-	private static String mScreenName = "";
+	// Twitter handle and details; null until loaded or when logged out
+	private static final AtomicReference<TwitterSession> mSession = new AtomicReference<TwitterSession>();
+	// Set while the session is being loaded
+	private static final AtomicBoolean mSessionLoading = new AtomicBoolean(false);
+	// Incremented on logout so that a load started before it isn't published
+	private static final AtomicInteger mSessionGeneration = new AtomicInteger(0);
+	
+	// Friend ids of the authenticated user, sorted, and the time they were fetched
+	// Note: guarded by mFriendIdsLock
+	private static long[] mMyFriendIds = null;
+	private static long mMyFriendIdsFetchedAt = 0;
+	// Friend ids of other users by screen name, least recently used first
+	// Note: guarded by mFriendIdsLock
+	private static final Map<String, PeerFriendIds> mPeerFriendIds =
+			new LinkedHashMap<String, PeerFriendIds>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PeerFriendIds> eldest) {
+			return size() > MAX_PEER_FRIEND_IDS;
+		}
+	};
+	private static final Object mFriendIdsLock = new Object();
+	// Lock held while our own friend ids are fetched so that only one fetch happens at a time
+	private static final Object mMyFriendIdsFetchLock = new Object();
+	
+	// Latest tweets by user id
+	// Note: guarded by itself
+	private static final Map<Long, LatestTweet> mLatestTweets =
+			new LinkedHashMap<Long, LatestTweet>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, LatestTweet> eldest) {
+			return size() > MAX_LATEST_TWEETS;
+		}
+	};
+	// No timelines are requested before this time because the rate limit is exhausted
+	private static volatile long mTimelineBlockedUntil = 0;
+	
+	/**
+	 * Immutable Twitter client and details of the authenticated user
+	 */
+	private static final class TwitterSession {
+		final Twitter twitter;
+		final long userId;
+		final String screenName;
+		TwitterSession(Twitter twitter, long userId, String screenName) {
+			this.twitter = twitter;
+			this.userId = userId;
+			this.screenName = screenName;
+		}
+	}
+	
+	/**
+	 * Latest tweet of a user
+	 */
+	private static class LatestTweet {
+		// Formatted tweet; null if the user has no tweets
+		final String text;
+		final long fetchedAt;
+		LatestTweet(String text, long fetchedAt) {
+			this.text = text;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+	
+	/**
+	 * Friend ids of another user, most recently followed first
+	 */
+	private static class PeerFriendIds {
+		final long[] ids;
+		final long fetchedAt;
+		PeerFriendIds(long[] ids, long fetchedAt) {
+			this.ids = ids;
+			this.fetchedAt = fetchedAt;
+		}
+	}
 	
 	/**
 	 * Private c'tor to defeat instantiation
@@ -75,64 +198,127 @@ public class TwitterUtils {
 	 * Initialize the singleton instance
 	 * @param context
 	 * MUST be called by the MainActivity
+	 * The session is loaded in the background.
 	 */
 	public void init(Context context) {
 		mContext = context;
 		mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
-		if(isTwitterLoggedIn()) {
-			getTwitter();
-	    	String token = mSharedPreferences.getString(PREF_KEY_OAUTH_TOKEN, "");
-	    	String tokenSecret = mSharedPreferences.getString(PREF_KEY_OAUTH_SECRET, "");
-	    	if(!token.isEmpty() && !tokenSecret.isEmpty()) {
-	    		mAccessToken = new AccessToken(token, tokenSecret);
-	    		mTwitter.setOAuthAccessToken(mAccessToken);
-	    	} else {
-	    		Log.e(TAG, "Twitter token and secret empty");
-	    	}
-	    	
-	    	mUserId = mSharedPreferences.getLong(PREF_KEY_TWITTER_USERID, -1);
-	    	mScreenName  = mSharedPreferences.getString(PREF_KEY_TWITTER_SCREENNAME, "");
-		}
+		loadSessionAsync();
 	}
 	
 	/**
 	 * Returns Twitter login boolean flag from SharedPreferences  
 	 */
 	private boolean isTwitterLoggedIn() {
-		return mSharedPreferences.getBoolean(PREF_KEY_TWITTER_LOGIN, false);
+		SharedPreferences prefs = mSharedPreferences;
+		return prefs != null && prefs.getBoolean(PREF_KEY_TWITTER_LOGIN, false);
 	}
 	
-	public Twitter getTwitter() {
-		if(mTwitter == null) {
-			ConfigurationBuilder builder = new ConfigurationBuilder();
-			builder.setOAuthConsumerKey(TWITTER_CONSUMER_KEY);
-			builder.setOAuthConsumerSecret(TWITTER_CONSUMER_SECRET);
-			Configuration configuration = builder.build();
-			TwitterFactory factory = new TwitterFactory(configuration);
-			mTwitter = factory.getInstance();
+	/**
+	 * Returns the session if it is ready
+	 * @return null if not logged in or still loading
+	 * Starts loading the session if the user has logged in since init(), so
+	 * that a later call gets it. Drops the session if the user has logged out
+	 * without going through logoutFromTwitter(), e.g. from SettingsActivity.
+	 */
+	private TwitterSession getSession() {
+		TwitterSession session = mSession.get();
+		if(session != null && !isTwitterLoggedIn()) {
+			Log.i(TAG, "logged out, dropping session");
+			dropSession(mContext);
+			return null;
+		}
+		if(session == null) loadSessionAsync();
+		return session;
+	}
+	
+	/**
+	 * Loads the session on the network pool if logged in, unless already loading
+	 */
+	private void loadSessionAsync() {
+		if(mSession.get() != null || !isTwitterLoggedIn()) return;
+		if(!mSessionLoading.compareAndSet(false, true)) return;
+		final int generation = mSessionGeneration.get();
+		BackgroundExecutors.network().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					TwitterSession session = loadSession();
+					if(session == null || generation != mSessionGeneration.get()) return;
+					mSession.compareAndSet(null, session);
+					Log.i(TAG, "session ready " + session.screenName);
+				} finally {
+					mSessionLoading.set(false);
+				}
+				// Have our friend ids ready before the first encounter
+				try {
+					getMyFriendIds(mSession.get());
+				} catch(TwitterException e) {
+					Log.e(TAG, "friend ids refresh error " + e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Builds the session from the tokens and details in SharedPreferences
+	 * @return null if the tokens are missing
+	 */
+	private TwitterSession loadSession() {
+		SharedPreferences prefs = mSharedPreferences;
+		String token = prefs.getString(PREF_KEY_OAUTH_TOKEN, "");
+		String tokenSecret = prefs.getString(PREF_KEY_OAUTH_SECRET, "");
+		if(token.isEmpty() || tokenSecret.isEmpty()) {
+			Log.e(TAG, "Twitter token and secret empty");
+			return null;
 		}
-		return mTwitter;
+		ConfigurationBuilder builder = new ConfigurationBuilder();
+		builder.setOAuthConsumerKey(TWITTER_CONSUMER_KEY);
+		builder.setOAuthConsumerSecret(TWITTER_CONSUMER_SECRET);
+		Configuration configuration = builder.build();
+		TwitterFactory factory = new TwitterFactory(configuration);
+		Twitter twitter = factory.getInstance(new AccessToken(token, tokenSecret));
+		return new TwitterSession(twitter,
+				prefs.getLong(PREF_KEY_TWITTER_USERID, -1),
+				prefs.getString(PREF_KEY_TWITTER_SCREENNAME, ""));
 	}
 	
+	/**
+	 * Returns the Twitter client
+	 * @return null if it isn't ready
+	 */
+	public Twitter getTwitter() {
+		TwitterSession session = getSession();
+		return (session != null) ? session.twitter : null;
+	}
+	
+	/**
+	 * Returns the authenticated user's id
+	 * @return -1 if it isn't ready
+	 */
 	public long getUserID() {
-		if(mUserId < 0)
-			mUserId = mSharedPreferences.getLong(PREF_KEY_TWITTER_USERID, -1);
-		return mUserId;
+		TwitterSession session = getSession();
+		return (session != null) ? session.userId : -1;
 	}
 	
+	/**
+	 * Returns the authenticated user's screen name
+	 * @return empty if it isn't ready
+	 */
 	public String getScreenName() {
-		if(mScreenName.isEmpty())
-			mScreenName  = mSharedPreferences.getString(PREF_KEY_TWITTER_SCREENNAME, "");
-		return mScreenName;
+		TwitterSession session = getSession();
+		return (session != null) ? session.screenName : "";
 	}
 	
 	/**
 	 * Logs user out of Twitter by clearing out all tokens
 	 * from shared preferences
+	 * @param context
+	 * Note: works before init() has run, which is deferred
 	 */
-	public void logoutFromTwitter() {
+	public void logoutFromTwitter(Context context) {
 		// Clear the shared preferences
-		Editor e = mSharedPreferences.edit();
+		Editor e = PreferenceManager.getDefaultSharedPreferences(context).edit();
 		e.remove(TwitterUtils.PREF_KEY_OAUTH_TOKEN);
 		e.remove(TwitterUtils.PREF_KEY_OAUTH_SECRET);
 		e.remove(TwitterUtils.PREF_KEY_TWITTER_LOGIN);
@@ -140,11 +326,30 @@ public class TwitterUtils {
 		e.remove(TwitterUtils.PREF_KEY_TWITTER_NAME);
 		e.remove(TwitterUtils.PREF_KEY_TWITTER_SCREENNAME);
 		e.commit();
+		dropSession(context);
+	}
+	
+	/**
+	 * Forgets the session and everything cached for its user
+	 * @param context for the friend ids file, null if not known yet
+	 */
+	private void dropSession(Context context) {
+		mSessionGeneration.incrementAndGet();
+		mSession.set(null);
 		
-		mUserId = -1;
-		mScreenName = "";
-		mAccessToken = null;
-		mTwitter = null;
+		// Clear the friend ids caches
+		synchronized (mFriendIdsLock) {
+			mMyFriendIds = null;
+			mMyFriendIdsFetchedAt = 0;
+			mPeerFriendIds.clear();
+		}
+		synchronized (mLatestTweets) {
+			mLatestTweets.clear();
+		}
+		mTimelineBlockedUntil = 0;
+		if(context != null && !new File(context.getFilesDir(), FRIEND_IDS_FILE).delete()) {
+			Log.d(TAG, "no friend ids file to delete");
+		}
 	}
 	
 	/**
@@ -154,55 +359,329 @@ public class TwitterUtils {
 	 * IMPORTANT: MUST BE RUN ON NON-UI THREAD
 	 */
 	public List<String> getCommonFollowingsTweets(String targetUserScreenName) {
-		if(!isTwitterLoggedIn())
+		TwitterSession session = getSession();
+		if(session == null)
 			return null;
 		
-		IDs myFriendsIDs;
-		IDs targetUserFriendsIDs;
-		List<Status> statuses;
 		List<String> commonFollowingsTweets = new ArrayList<String>();
 		
-		long cursor = -1;
 		try {
-			// Get authenticated user's friends
-			myFriendsIDs = mTwitter.getFriendsIDs(cursor);
-			for(long id : myFriendsIDs.getIDs()) {
-				Log.i(TAG, "user " + mScreenName + " ~ " + id);
-			}
+			// Get authenticated user's friends, from the cache if possible
+			long[] myFriendsIDs = getMyFriendIds(session);
+			if(myFriendsIDs == null) return commonFollowingsTweets;
 
-			// Get targetUser's friends
-			cursor = -1;
-			targetUserFriendsIDs = mTwitter.getFriendsIDs(targetUserScreenName, cursor);
-			for(long id : targetUserFriendsIDs.getIDs()) {
-				Log.i(TAG, "user " + targetUserScreenName + " ~ " + id);
-			}
+			// Get targetUser's friends, from the cache if possible
+			long[] targetUserFriendsIDs = getPeerFriendIds(session, targetUserScreenName);
 
-			// Get common friends
-			List<Long> commonIDs = new ArrayList<Long>();
-			for(long id1 : myFriendsIDs.getIDs()) {
-				for(long id2 : targetUserFriendsIDs.getIDs()) {
-					if(id1 == id2) {
-						commonIDs.add(Long.valueOf(id1));
-					}
-				}
-			}
+			// Get common friends, in the order of the targetUser's friends
+			long[] commonIDs = IdSets.intersectWithSorted(targetUserFriendsIDs, myFriendsIDs,
+					MAX_COMMON_FOLLOWINGS);
+			EventLog.record(EventLog.Event.COMMON_FRIENDS, commonIDs.length, targetUserFriendsIDs.length);
 
 			// Get the common friends' recent tweets
-			int count = 0;
-			for(long id : commonIDs) {
-				if(count == 5) break; // max 5 such tweets
-				++count;
-				statuses = mTwitter.getUserTimeline(id);
-				if(!statuses.isEmpty()) {
-					Status tweet = statuses.get(0); // latest tweet only
-					Log.i(TAG, "@" + tweet.getUser().getName() + ": " + tweet.getText());
-					commonFollowingsTweets.add("@" + tweet.getUser().getName() + ": " + tweet.getText());
-				}
-			}
+			commonFollowingsTweets.addAll(getLatestTweets(session, commonIDs));
 		} catch(TwitterException e) {
 			Log.e(TAG, "friends lookup error " + e);
 		}
 
 		return commonFollowingsTweets;
 	}
+	
+	/**
+	 * Returns the latest tweets of the specified users, in the same order
+	 * @param session
+	 * @param userIds
+	 * @return tweets of the users that have tweeted
+	 * Cached tweets are used as is. The rest are fetched in parallel on the
+	 * network pool and whatever hasn't arrived by TIMELINE_DEADLINE_MS is left
+	 * out. Nothing is fetched while the rate limit is exhausted.
+	 * IMPORTANT: MUST BE RUN ON NON-UI THREAD
+	 */
+	private List<String> getLatestTweets(TwitterSession session, long[] userIds) {
+		long now = System.currentTimeMillis();
+		String[] tweets = new String[userIds.length];
+		List<TimelineTask> tasks = new ArrayList<TimelineTask>();
+		synchronized (mLatestTweets) {
+			for(int i = 0; i < userIds.length; ++i) {
+				LatestTweet cached = mLatestTweets.get(userIds[i]);
+				if(cached != null && now - cached.fetchedAt < LATEST_TWEET_TTL_MS) {
+					tweets[i] = cached.text;
+				} else {
+					tasks.add(new TimelineTask(session.twitter, i, userIds[i]));
+				}
+			}
+		}
+		
+		if(!tasks.isEmpty()) {
+			if(now < mTimelineBlockedUntil) {
+				Log.i(TAG, "rate limited, skipping " + tasks.size() + " timelines");
+			} else {
+				fetchLatestTweets(tasks, tweets);
+			}
+		}
+		
+		List<String> result = new ArrayList<String>(tweets.length);
+		for(String tweet : tweets) {
+			if(tweet != null) result.add(tweet);
+		}
+		return result;
+	}
+	
+	/**
+	 * Runs the timeline tasks on the network pool and fills in their results
+	 * @param tasks
+	 * @param tweets
+	 */
+	private void fetchLatestTweets(List<TimelineTask> tasks, String[] tweets) {
+		List<Future<String>> futures;
+		try {
+			// Unfinished tasks are cancelled at the deadline
+			futures = BackgroundExecutors.network().invokeAll(tasks, TIMELINE_DEADLINE_MS, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		for(int i = 0; i < futures.size(); ++i) {
+			Future<String> future = futures.get(i);
+			try {
+				tweets[tasks.get(i).mIndex] = future.get();
+			} catch(CancellationException e) {
+				Log.i(TAG, "timeline deadline passed " + tasks.get(i).mUserId);
+			} catch(ExecutionException e) {
+				Log.e(TAG, "timeline error " + e.getCause());
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Fetches the latest tweet of a user and caches it
+	 */
+	private static class TimelineTask implements Callable<String> {
+		final Twitter mTwitter;
+		// Position of the user in the result
+		final int mIndex;
+		final long mUserId;
+		
+		TimelineTask(Twitter twitter, int index, long userId) {
+			mTwitter = twitter;
+			mIndex = index;
+			mUserId = userId;
+		}
+		
+		@Override
+		public String call() throws TwitterException {
+			if(System.currentTimeMillis() < mTimelineBlockedUntil) return null;
+			ResponseList<Status> statuses;
+			try {
+				// Latest tweet only
+				statuses = mTwitter.getUserTimeline(mUserId, new Paging(1, 1));
+			} catch(TwitterException e) {
+				if(e.exceededRateLimitation() || e.getStatusCode() == 429) {
+					onRateLimited(e.getRateLimitStatus(), e.getRetryAfter());
+					return null;
+				}
+				throw e;
+			}
+			RateLimitStatus status = statuses.getRateLimitStatus();
+			if(status != null && status.getRemaining() == 0) {
+				onRateLimited(status, 0);
+			}
+			String text = null;
+			if(!statuses.isEmpty()) {
+				Status tweet = statuses.get(0);
+				text = "@" + tweet.getUser().getName() + ": " + tweet.getText();
+			}
+			synchronized (mLatestTweets) {
+				mLatestTweets.put(mUserId, new LatestTweet(text, System.currentTimeMillis()));
+			}
+			return text;
+		}
+	}
+	
+	/**
+	 * Stops timeline requests until the rate limit resets
+	 * @param status rate limit status from the response, if any
+	 * @param retryAfterSecs Retry-After from the response, if any
+	 */
+	private static void onRateLimited(RateLimitStatus status, int retryAfterSecs) {
+		long backoff;
+		if(status != null && status.getSecondsUntilReset() > 0) {
+			backoff = status.getSecondsUntilReset() * 1000L;
+		} else if(retryAfterSecs > 0) {
+			backoff = retryAfterSecs * 1000L;
+		} else {
+			backoff = DEFAULT_RATE_LIMIT_BACKOFF_MS;
+		}
+		mTimelineBlockedUntil = System.currentTimeMillis() + backoff;
+		Log.i(TAG, "timeline rate limit hit, backing off " + backoff + "ms");
+	}
+	
+	/**
+	 * Returns the authenticated user's friend ids, sorted
+	 * @param session
+	 * @return null if they aren't available
+	 * @throws TwitterException
+	 * The ids come from memory, then the file, and are fetched if both are
+	 * older than MY_FRIEND_IDS_TTL_MS. Stale ids are used if fetching fails.
+	 * IMPORTANT: MUST BE RUN ON NON-UI THREAD
+	 */
+	private long[] getMyFriendIds(TwitterSession session) throws TwitterException {
+		if(session == null) return null;
+		// Ids fetched for a session dropped in the meantime mustn't be kept
+		final int generation = mSessionGeneration.get();
+		if(session != mSession.get()) return null;
+		synchronized (mMyFriendIdsFetchLock) {
+			long now = System.currentTimeMillis();
+			synchronized (mFriendIdsLock) {
+				if(mMyFriendIds == null) readMyFriendIds(session.userId);
+				if(mMyFriendIds != null && now - mMyFriendIdsFetchedAt < MY_FRIEND_IDS_TTL_MS &&
+						now >= mMyFriendIdsFetchedAt) {
+					return mMyFriendIds;
+				}
+			}
+			
+			long[] ids;
+			try {
+				ids = IdSets.toSortedSet(fetchFriendIds(session, null, MAX_MY_FRIEND_ID_PAGES));
+			} catch(TwitterException e) {
+				synchronized (mFriendIdsLock) {
+					if(mMyFriendIds == null) throw e;
+					Log.e(TAG, "using stale friend ids " + e);
+					return mMyFriendIds;
+				}
+			}
+			synchronized (mFriendIdsLock) {
+				if(generation != mSessionGeneration.get()) {
+					Log.i(TAG, "session dropped, discarding friend ids");
+					return null;
+				}
+				mMyFriendIds = ids;
+				mMyFriendIdsFetchedAt = now;
+			}
+			writeMyFriendIds(session.userId, ids, now);
+			return ids;
+		}
+	}
+	
+	/**
+	 * Returns the friend ids of another user, most recently followed first
+	 * @param session
+	 * @param screenName
+	 * @return
+	 * @throws TwitterException
+	 * IMPORTANT: MUST BE RUN ON NON-UI THREAD
+	 */
+	private long[] getPeerFriendIds(TwitterSession session, String screenName) throws TwitterException {
+		long now = System.currentTimeMillis();
+		synchronized (mFriendIdsLock) {
+			PeerFriendIds cached = mPeerFriendIds.get(screenName);
+			if(cached != null && now - cached.fetchedAt < PEER_FRIEND_IDS_TTL_MS) {
+				return cached.ids;
+			}
+		}
+		long[] ids = fetchFriendIds(session, screenName, MAX_PEER_FRIEND_ID_PAGES);
+		synchronized (mFriendIdsLock) {
+			mPeerFriendIds.put(screenName, new PeerFriendIds(ids, now));
+		}
+		return ids;
+	}
+	
+	/**
+	 * Fetches friend ids following the cursor from page to page
+	 * @param session
+	 * @param screenName user whose friends are fetched; null for the authenticated user
+	 * @param maxPages
+	 * @return
+	 * @throws TwitterException
+	 */
+	private long[] fetchFriendIds(TwitterSession session, String screenName, int maxPages) throws TwitterException {
+		long[] ids = new long[0];
+		long cursor = -1;
+		for(int page = 0; page < maxPages; ++page) {
+			IDs result = (screenName == null) ?
+					session.twitter.getFriendsIDs(cursor) : session.twitter.getFriendsIDs(screenName, cursor);
+			long[] pageIds = result.getIDs();
+			int size = ids.length;
+			ids = Arrays.copyOf(ids, size + pageIds.length);
+			System.arraycopy(pageIds, 0, ids, size, pageIds.length);
+			if(!result.hasNext()) break;
+			cursor = result.getNextCursor();
+		}
+		Log.i(TAG, "fetched " + ids.length + " friend ids of " + (screenName == null ? session.screenName : screenName));
+		return ids;
+	}
+	
+	/**
+	 * Reads our own friend ids from the file if they belong to the current user
+	 * @param userId current user
+	 * Note: called with mFriendIdsLock held
+	 */
+	private void readMyFriendIds(long userId) {
+		if(mContext == null) return;
+		File file = new File(mContext.getFilesDir(), FRIEND_IDS_FILE);
+		if(!file.exists()) return;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if(in.readInt() != FRIEND_IDS_FILE_VERSION) return;
+			if(in.readLong() != userId) return;
+			long fetchedAt = in.readLong();
+			long[] ids = new long[in.readInt()];
+			for(int i = 0; i < ids.length; ++i) {
+				ids[i] = in.readLong();
+			}
+			mMyFriendIds = ids;
+			mMyFriendIdsFetchedAt = fetchedAt;
+			Log.i(TAG, "read " + ids.length + " friend ids");
+		} catch(IOException e) {
+			Log.e(TAG, "friend ids read error " + e);
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) { /* Do nothing */ }
+			}
+		}
+	}
+	
+	/**
+	 * Writes our own friend ids to the file
+	 * @param userId current user
+	 * @param ids
+	 * @param fetchedAt
+	 * The file is written under a temporary name and then renamed so that a
+	 * half-written file is never read.
+	 */
+	private void writeMyFriendIds(long userId, long[] ids, long fetchedAt) {
+		if(mContext == null) return;
+		File file = new File(mContext.getFilesDir(), FRIEND_IDS_FILE);
+		File tempFile = new File(mContext.getFilesDir(), FRIEND_IDS_FILE + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			out.writeInt(FRIEND_IDS_FILE_VERSION);
+			out.writeLong(userId);
+			out.writeLong(fetchedAt);
+			out.writeInt(ids.length);
+			for(long id : ids) {
+				out.writeLong(id);
+			}
+			out.close();
+			out = null;
+			if(!tempFile.renameTo(file)) {
+				Log.e(TAG, "friend ids file rename failed");
+			}
+		} catch(IOException e) {
+			Log.e(TAG, "friend ids write error " + e);
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) { /* Do nothing */ }
+			}
+		}
+	}
 }